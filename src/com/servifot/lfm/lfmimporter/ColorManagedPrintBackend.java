@@ -0,0 +1,83 @@
+package com.servifot.lfm.lfmimporter;
+
+import java.awt.color.ColorSpace;
+import java.awt.color.ICC_Profile;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+import com.servifot.lfm.utils.FileUtils;
+import com.servifot.lfm.utils.ImageMetadata;
+import com.servifot.lfm.utils.ImageUtils;
+
+/**
+ * Pasa cada impresión al perfil de color de la impresora que la va a imprimir antes de enviarla
+ * con otro {@link PrintBackend}.<br>
+ * <br>
+ * {@link ImagePrinter} deja las impresiones en el perfil de la foto, incrustado en el archivo,
+ * porque la impresora no se elige hasta después ({@link PrintDispatcher}). Aquí se hace una sola
+ * conversión, del perfil incrustado (sRGB si no lleva) al de la impresora
+ * ({@link LFMConfig#getIccProfilePath(String)}; sRGB si no tiene), con la conversión guardada en
+ * {@link ColorTransformCache}. El resultado se escribe en PNG, sin pérdida, en una carpeta temporal
+ * por impresora ({@link LFMImporter#USER_PRINTCOLORFOLDER}) que se borra después de imprimir. La
+ * copia no lleva perfil incrustado: ya está en el espacio de la impresora, y un lector que aplicara
+ * el perfil (como el de JPEG de ImageIO en {@link JavaPrintBackend}) desharía la conversión.<br>
+ * <br>
+ * Las impresiones en sRGB para impresoras sin perfil se envían tal cual, sin decodificarlas.
+ */
+public class ColorManagedPrintBackend implements PrintBackend {
+
+	/** Sistema de impresión que envía las impresiones */
+	private final PrintBackend m_backend;
+
+	/**
+	 * @param backend Sistema de impresión que envía las impresiones.
+	 */
+	public ColorManagedPrintBackend(PrintBackend backend) {
+		m_backend = backend;
+	}
+
+	@Override
+	public String getName() {
+		return m_backend.getName();
+	}
+
+	@Override
+	public void print(File file, String printer) throws IOException {
+		String iccPath = LFMImporter.getConfig().getIccProfilePath(printer);
+		ICC_Profile printerProfile = iccPath.isEmpty() ? null : ColorTransformCache.getProfile(new File(iccPath));
+		// Perfil en el que está la impresión (sólo se lee la cabecera)
+		ICC_Profile source = ImageMetadata.getIccProfile(file);
+		if (printerProfile == null && (source == null || ColorTransformCache.isSrgb(source))) {
+			m_backend.print(file, printer);
+			return;
+		}
+
+		BufferedImage image = ImageUtils.readSubsampled(file, 0, 0, true);
+		if (image == null) {
+			throw new IOException("No se puede leer " + file.getName());
+		}
+		ICC_Profile srgb = ICC_Profile.getInstance(ColorSpace.CS_sRGB);
+		image = ColorTransformCache.convert(image, source != null ? source : srgb, printerProfile != null ? printerProfile : srgb);
+
+		// Mismo nombre que la original: es el que se ve en la cola de la impresora
+		File folder = new File(LFMImporter.USER_PRINTCOLORFOLDER, FileUtils.sanitizeFilename(printer.isEmpty() ? "default" : printer));
+		if (!folder.isDirectory() && !folder.mkdirs()) {
+			throw new IOException("No se puede crear la carpeta " + folder.getAbsolutePath());
+		}
+		PrintFormat format = LFMImporter.getConfig().getPrintFormat();
+		format = new PrintFormat(PrintFormat.PNG, format.getJpegQuality(), format.getPngDeflateLevel());
+		File converted = new File(folder, FileUtils.removeExtension(file.getName()) + format.getExtension());
+		PrinterProfile profile = LFMImporter.getConfig().getPrinterProfile();
+		try {
+			ImagePrinter.writeOutput(image, converted, format, profile.isFullResolution() ? 0 : profile.getDpi(), null);
+			m_backend.print(converted, printer);
+		} finally {
+			converted.delete();
+		}
+	}
+
+	public PrintBackend getBackend() {
+		return m_backend;
+	}
+}
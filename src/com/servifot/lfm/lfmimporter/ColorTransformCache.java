@@ -0,0 +1,272 @@
+package com.servifot.lfm.lfmimporter;
+
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.color.ICC_ColorSpace;
+import java.awt.color.ICC_Profile;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorConvertOp;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DirectColorModel;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.zip.CRC32;
+
+import com.servifot.lfm.utils.ImageCache;
+import com.servifot.lfm.utils.ImageUtils;
+
+/**
+ * Caché de perfiles de color ICC y de las conversiones entre ellos.<br>
+ * <br>
+ * Preparar una conversión entre dos perfiles es caro (el lector de JPEG de ImageIO, por ejemplo,
+ * prepara una en cada lectura de una foto con perfil). Aquí se guarda un <code>ColorConvertOp</code>
+ * por cada par (perfil de origen, perfil de destino), que compila la conversión la primera vez y
+ * la reutiliza en las siguientes impresiones. Los perfiles se
+ * identifican por su contenido, así que dos fotos con el mismo perfil incrustado comparten
+ * conversión. Los perfiles de las impresoras se leen una vez por archivo (ver
+ * {@link ImageCache#key(File, Object)}). Se vacía al aplicar una configuración nueva ({@link #clear()}).
+ */
+public class ColorTransformCache {
+
+	/** Conversiones que se guardan */
+	public static final int MAX_ENTRIES = 8;
+	/** Perfiles de impresora que se guardan */
+	public static final int MAX_PROFILES = 4;
+	/** Tamaño de la cabecera de un perfil ICC */
+	private static final int ICC_HEADER_SIZE = 128;
+
+	/** Modelo de color de <code>TYPE_INT_RGB</code> */
+	private static final ColorModel RGB_MODEL = new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB).getColorModel();
+
+	/** Identificador del perfil sRGB de Java (ver {@link #profileKey(ICC_Profile)}) */
+	private static final String SRGB_KEY = profileKey(ICC_Profile.getInstance(ColorSpace.CS_sRGB));
+
+	/** Conversiones, en orden de uso */
+	private static final LinkedHashMap<String, Transform> s_transforms = new LinkedHashMap<>(16, 0.75f, true);
+	/** Perfiles leídos de archivo, en orden de uso */
+	private static final LinkedHashMap<String, ICC_Profile> s_profiles = new LinkedHashMap<>(8, 0.75f, true);
+
+	/* Estadísticas */
+	private static long s_hits = 0;
+	private static long s_misses = 0;
+
+	/**
+	 * Convierte los colores de una imagen de un perfil a otro.
+	 *
+	 * @param image Imagen RGB con los colores en el perfil de origen (sea cual sea el espacio de
+	 *            color con el que esté etiquetada).
+	 * @param source Perfil de origen (<code>null</code>: no se convierte).
+	 * @param dest Perfil de destino (<code>null</code>: no se convierte).
+	 * @return Imagen <code>TYPE_INT_RGB</code> con los colores en el perfil de destino (etiquetada
+	 *         como sRGB), o la misma si no hace falta o no se puede convertir.
+	 */
+	public static BufferedImage convert(BufferedImage image, ICC_Profile source, ICC_Profile dest) {
+		if (source == null || dest == null || image.getRaster().getNumBands() != 3) {
+			return image;
+		}
+		String sourceKey = profileKey(source);
+		String destKey = profileKey(dest);
+		if (sourceKey.equals(destKey)) {
+			return image;
+		}
+		Transform transform = getTransform(source, sourceKey, dest, destKey);
+		if (transform == null) {
+			return image;
+		}
+		BufferedImage input = withColorSpace(image, transform.m_source);
+		if (input == null) {
+			System.err.println("No se puede convertir el color de una imagen de tipo " + image.getType());
+			return image;
+		}
+		DirectColorModel destModel = new DirectColorModel(transform.m_dest, 24, 0xFF0000, 0xFF00, 0xFF, 0, false, DataBuffer.TYPE_INT);
+		WritableRaster raster = destModel.createCompatibleWritableRaster(image.getWidth(), image.getHeight());
+		try {
+			// La conversión compilada se guarda dentro del ColorConvertOp: se usa de uno en uno
+			synchronized (transform.m_op) {
+				transform.m_op.filter(input, new BufferedImage(destModel, raster, false, null));
+			}
+		} catch (RuntimeException e) {
+			System.err.println("No se puede convertir el color: " + e.getMessage());
+			return image;
+		}
+		// Mismos píxeles, etiquetados como sRGB (TYPE_INT_RGB)
+		return new BufferedImage(RGB_MODEL, raster, false, null);
+	}
+
+	/**
+	 * Pasa a sRGB una imagen que está en el espacio de color de su perfil (ver
+	 * {@link ImageUtils#readSubsampled(File, int, int, boolean)}).
+	 *
+	 * @return Imagen en sRGB (la misma si ya lo estaba).
+	 */
+	public static BufferedImage convertToSrgb(BufferedImage image) {
+		ColorSpace cs = image.getColorModel().getColorSpace();
+		if (!(cs instanceof ICC_ColorSpace) || cs.isCS_sRGB()) {
+			return image;
+		}
+		return convert(image, ((ICC_ColorSpace) cs).getProfile(), ICC_Profile.getInstance(ColorSpace.CS_sRGB));
+	}
+
+	/**
+	 * Perfil del espacio de color de una imagen leída sin convertir (ver
+	 * {@link ImageUtils#readSubsampled(File, int, int, boolean)}).
+	 *
+	 * @return Perfil, o <code>null</code> si la imagen está en sRGB o no tiene perfil.
+	 */
+	public static ICC_Profile getEmbeddedProfile(BufferedImage image) {
+		ColorSpace cs = image.getColorModel().getColorSpace();
+		if (!(cs instanceof ICC_ColorSpace) || cs.isCS_sRGB()) {
+			return null;
+		}
+		return ((ICC_ColorSpace) cs).getProfile();
+	}
+
+	/**
+	 * La misma imagen (sin copiar ni convertir los píxeles) etiquetada con otro perfil. Sirve para
+	 * trabajar con los valores de un perfil como si fueran sRGB, sin que Java2D los convierta al
+	 * dibujar, y volver a etiquetarlos al terminar.
+	 *
+	 * @param profile Perfil (<code>null</code>: sRGB).
+	 * @return Imagen, o <code>null</code> si el tipo de imagen no lo permite (con alfa, gris...).
+	 */
+	public static BufferedImage relabel(BufferedImage image, ICC_Profile profile) {
+		return withColorSpace(image, profile != null ? new ICC_ColorSpace(profile) : ColorSpace.getInstance(ColorSpace.CS_sRGB));
+	}
+
+	/**
+	 * Indica si un perfil es el sRGB de Java (el que se incrusta en las impresiones sin otro perfil).
+	 */
+	public static boolean isSrgb(ICC_Profile profile) {
+		return profileKey(profile).equals(SRGB_KEY);
+	}
+
+	/**
+	 * Conversión entre dos perfiles, preparándola si no está en la caché.
+	 */
+	private static synchronized Transform getTransform(ICC_Profile source, String sourceKey, ICC_Profile dest, String destKey) {
+		String key = sourceKey + ">" + destKey;
+		Transform transform = s_transforms.get(key);
+		if (transform != null) {
+			s_hits++;
+			return transform;
+		}
+		s_misses++;
+		if (source.getNumComponents() != 3 || dest.getNumComponents() != 3) {
+			System.err.println("Sólo se convierten perfiles RGB");
+			return null;
+		}
+		// Con copias: al compilar la conversión se retocan los datos de los perfiles y cambiaría su clave
+		transform = new Transform(new ICC_ColorSpace(ICC_Profile.getInstance(source.getData())),
+				new ICC_ColorSpace(ICC_Profile.getInstance(dest.getData())));
+		s_transforms.put(key, transform);
+		Iterator<String> it = s_transforms.keySet().iterator();
+		while (s_transforms.size() > MAX_ENTRIES && it.hasNext()) {
+			it.next();
+			it.remove();
+		}
+		return transform;
+	}
+
+	/**
+	 * La misma imagen (sin copiar los píxeles) etiquetada con otro espacio de color.
+	 *
+	 * @return Imagen, o <code>null</code> si el tipo de imagen no lo permite.
+	 */
+	private static BufferedImage withColorSpace(BufferedImage image, ColorSpace cs) {
+		ColorModel cm = image.getColorModel();
+		ColorModel relabeled;
+		if (cm instanceof DirectColorModel && !cm.hasAlpha()) {
+			DirectColorModel dcm = (DirectColorModel) cm;
+			relabeled = new DirectColorModel(cs, dcm.getPixelSize(), dcm.getRedMask(), dcm.getGreenMask(), dcm.getBlueMask(), 0, false,
+					dcm.getTransferType());
+		} else if (cm instanceof ComponentColorModel && !cm.hasAlpha()) {
+			relabeled = new ComponentColorModel(cs, false, false, Transparency.OPAQUE, cm.getTransferType());
+		} else {
+			return null;
+		}
+		if (!relabeled.isCompatibleRaster(image.getRaster())) {
+			return null;
+		}
+		return new BufferedImage(relabeled, image.getRaster(), false, null);
+	}
+
+	/**
+	 * Lee un perfil ICC de un archivo, si no estaba ya leído.
+	 *
+	 * @return Perfil, o <code>null</code> si no hay archivo o no se puede leer.
+	 */
+	public static synchronized ICC_Profile getProfile(File file) {
+		if (file == null || !file.isFile()) {
+			return null;
+		}
+		String key = ImageCache.key(file, "icc");
+		ICC_Profile profile = s_profiles.get(key);
+		if (profile != null) {
+			return profile;
+		}
+		try {
+			profile = ICC_Profile.getInstance(file.getAbsolutePath());
+		} catch (Exception e) {
+			System.err.println("No se puede leer el perfil de color " + file.getAbsolutePath() + ": " + e.getMessage());
+			return null;
+		}
+		s_profiles.put(key, profile);
+		Iterator<String> it = s_profiles.keySet().iterator();
+		while (s_profiles.size() > MAX_PROFILES && it.hasNext()) {
+			it.next();
+			it.remove();
+		}
+		return profile;
+	}
+
+	/**
+	 * Identificador de un perfil según su contenido. No se tiene en cuenta la cabecera (intención
+	 * de reproducción, etc.), que no cambia la conversión que se prepara.
+	 */
+	static String profileKey(ICC_Profile profile) {
+		byte[] data = profile.getData();
+		int offset = Math.min(ICC_HEADER_SIZE, data.length);
+		CRC32 crc = new CRC32();
+		crc.update(data, offset, data.length - offset);
+		return Long.toHexString(crc.getValue()) + ":" + data.length;
+	}
+
+	/**
+	 * Vacía la caché (por ejemplo, al cambiar los perfiles en la configuración).
+	 */
+	public static synchronized void clear() {
+		s_transforms.clear();
+		s_profiles.clear();
+	}
+
+	public static synchronized long getHits() {
+		return s_hits;
+	}
+
+	public static synchronized long getMisses() {
+		return s_misses;
+	}
+
+	/**
+	 * Conversión preparada entre dos perfiles. Los espacios de color son siempre los mismos
+	 * objetos: así <code>ColorConvertOp</code> reconoce los perfiles y reutiliza la conversión
+	 * compilada.
+	 */
+	private static class Transform {
+		private final ICC_ColorSpace m_source;
+		private final ICC_ColorSpace m_dest;
+		private final ColorConvertOp m_op;
+
+		Transform(ICC_ColorSpace source, ICC_ColorSpace dest) {
+			m_source = source;
+			m_dest = dest;
+			RenderingHints hints = new RenderingHints(RenderingHints.KEY_COLOR_RENDERING, RenderingHints.VALUE_COLOR_RENDER_QUALITY);
+			m_op = new ColorConvertOp(source, dest, hints);
+		}
+	}
+}
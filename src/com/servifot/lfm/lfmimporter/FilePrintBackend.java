@@ -0,0 +1,60 @@
+package com.servifot.lfm.lfmimporter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import com.servifot.lfm.utils.FileTransfer;
+import com.servifot.lfm.utils.FileUtils;
+
+/**
+ * Impresora de pruebas: en lugar de imprimir, copia cada imagen a una subcarpeta por impresora
+ * dentro de la carpeta indicada. Permite probar la impresión en una máquina sin impresoras.<br>
+ * <br>
+ * La copia se hace en un temporal (<code>.part</code>) que se renombra al terminar, así que en la
+ * carpeta sólo aparecen impresiones completas.
+ */
+public class FilePrintBackend implements PrintBackend {
+
+	/** Nombre en la configuración */
+	public static final String NAME = "file";
+
+	/** Carpeta donde se dejan las impresiones */
+	private final File m_folder;
+
+	/**
+	 * @param folder Carpeta donde se dejan las impresiones.
+	 */
+	public FilePrintBackend(File folder) {
+		m_folder = folder;
+	}
+
+	@Override
+	public String getName() {
+		return NAME + " (" + m_folder.getAbsolutePath() + ")";
+	}
+
+	@Override
+	public void print(File file, String printer) throws IOException {
+		File folder = new File(m_folder, FileUtils.sanitizeFilename(printer.isEmpty() ? "default" : printer));
+		if (!folder.isDirectory() && !folder.mkdirs()) {
+			throw new IOException("No se puede crear la carpeta " + folder.getAbsolutePath());
+		}
+		File dest = new File(folder, file.getName());
+		File partFile = FileTransfer.getPartFile(dest);
+		if (!FileUtils.copyFile(file, partFile, true)) {
+			throw new IOException("No se puede copiar " + file.getName() + " en " + folder.getAbsolutePath());
+		}
+		try {
+			Files.move(partFile.toPath(), dest.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(partFile.toPath(), dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	public File getFolder() {
+		return m_folder;
+	}
+}
@@ -0,0 +1,250 @@
+package com.servifot.lfm.lfmimporter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.servifot.lfm.utils.FileTransfer;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Servidor HTTP local que imita el API de una tarjeta FlashAir sobre una carpeta del disco, para
+ * probar {@link FlashAirImageSource} y medir el coste de las consultas sin la tarjeta.<br>
+ * <br>
+ * Atiende <code>command.cgi?op=100</code> (listado de carpeta), <code>command.cgi?op=102</code>
+ * (estado de actualización) y la descarga de archivos, con o sin rangos.<br>
+ * <br>
+ * Uso: <code>FlashAirEmulator carpeta [puerto]</code>
+ */
+public class FlashAirEmulator {
+
+	/** Puerto por defecto */
+	public static final int DEFAULT_PORT = 8080;
+
+	/** Carpeta que hace de tarjeta */
+	private final File m_root;
+	/** Servidor */
+	private final HttpServer m_server;
+	/** Firma de la carpeta en la última petición de estado */
+	private long m_lastSignature = 0;
+	/** Indica si se atienden las peticiones con rango */
+	private volatile boolean m_rangeSupport = true;
+	/** Peticiones atendidas */
+	private final AtomicLong m_requests = new AtomicLong();
+	/** Bytes enviados */
+	private final AtomicLong m_bytesSent = new AtomicLong();
+
+	/**
+	 * @param root Carpeta que hace de tarjeta.
+	 * @param port Puerto (0 para uno libre cualquiera).
+	 */
+	public FlashAirEmulator(File root, int port) throws IOException {
+		m_root = root;
+		m_server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+		m_server.setExecutor(Executors.newFixedThreadPool(4, r -> {
+			Thread t = new Thread(r, "FlashAirEmulator");
+			t.setDaemon(true);
+			return t;
+		}));
+		m_server.createContext("/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				m_requests.incrementAndGet();
+				try {
+					String path = exchange.getRequestURI().getPath();
+					if (path.equals("/command.cgi")) {
+						command(exchange);
+					} else {
+						download(exchange, path);
+					}
+				} catch (Exception e) {
+					System.err.println("Error en el emulador de FlashAir: " + e.getMessage());
+					send(exchange, 500, "");
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+	}
+
+	public void start() {
+		m_server.start();
+	}
+
+	public void stop() {
+		m_server.stop(0);
+	}
+
+	/** Puerto en el que escucha */
+	public int getPort() {
+		return m_server.getAddress().getPort();
+	}
+
+	/** URL de la tarjeta emulada */
+	public String getUrl() {
+		return "http://127.0.0.1:" + getPort();
+	}
+
+	private void command(HttpExchange exchange) throws IOException {
+		HashMap<String, String> params = parseQuery(exchange.getRequestURI());
+		String op = params.get("op");
+		if ("100".equals(op)) {
+			String dir = params.getOrDefault("DIR", "/");
+			File folder = resolve(dir);
+			File[] files = folder != null ? folder.listFiles() : null;
+			if (files == null) {
+				send(exchange, 404, "");
+				return;
+			}
+			String parent = dir.endsWith("/") && dir.length() > 1 ? dir.substring(0, dir.length() - 1) : dir;
+			StringBuilder sb = new StringBuilder(FlashAirImageSource.LIST_HEADER).append("\r\n");
+			for (File file : files) {
+				if (file.getName().endsWith(FileTransfer.PART_EXTENSION)) continue;
+				int[] fat = FlashAirImageSource.toFat(file.lastModified());
+				int attr = file.isDirectory() ? FlashAirImageSource.ATTR_DIRECTORY : 0x20;
+				sb.append(parent).append(',').append(file.getName()).append(',').append(file.isDirectory() ? 0 : file.length())
+						.append(',').append(attr).append(',').append(fat[0]).append(',').append(fat[1]).append("\r\n");
+			}
+			send(exchange, 200, sb.toString());
+		} else if ("102".equals(op)) {
+			long signature = signature(m_root);
+			boolean updated;
+			synchronized (this) {
+				updated = signature != m_lastSignature;
+				m_lastSignature = signature;
+			}
+			send(exchange, 200, updated ? "1" : "0");
+		} else {
+			send(exchange, 400, "");
+		}
+	}
+
+	private void download(HttpExchange exchange, String path) throws IOException {
+		File file = resolve(path);
+		if (file == null || !file.isFile()) {
+			send(exchange, 404, "");
+			return;
+		}
+		long length = file.length();
+		long first = 0;
+		long last = length - 1;
+		int code = 200;
+		String range = exchange.getRequestHeaders().getFirst("Range");
+		if (m_rangeSupport && range != null && range.startsWith("bytes=")) {
+			String[] parts = range.substring(6).split("-", 2);
+			first = Long.parseLong(parts[0]);
+			if (parts.length > 1 && !parts[1].isEmpty()) {
+				last = Math.min(last, Long.parseLong(parts[1]));
+			}
+			if (first > last) {
+				exchange.getResponseHeaders().set("Content-Range", "bytes */" + length);
+				send(exchange, 416, "");
+				return;
+			}
+			code = 206;
+			exchange.getResponseHeaders().set("Content-Range", "bytes " + first + "-" + last + "/" + length);
+		}
+		exchange.getResponseHeaders().set("Content-Type", "image/jpeg");
+		long count = last - first + 1;
+		exchange.sendResponseHeaders(code, count);
+		try (RandomAccessFile in = new RandomAccessFile(file, "r"); OutputStream out = exchange.getResponseBody()) {
+			in.seek(first);
+			byte[] buffer = new byte[64 * 1024];
+			while (count > 0) {
+				int n = in.read(buffer, 0, (int) Math.min(buffer.length, count));
+				if (n < 0) break;
+				out.write(buffer, 0, n);
+				count -= n;
+				m_bytesSent.addAndGet(n);
+			}
+		}
+	}
+
+	/**
+	 * Archivo de la carpeta que corresponde a una ruta de la tarjeta, o <code>null</code> si sale
+	 * de la carpeta.
+	 */
+	private File resolve(String path) throws IOException {
+		File file = new File(m_root, path).getCanonicalFile();
+		return file.toPath().startsWith(m_root.getCanonicalFile().toPath()) ? file : null;
+	}
+
+	/**
+	 * Firma de una carpeta y su contenido (nombres, tamaños y fechas), para detectar cambios.
+	 */
+	private static long signature(File folder) {
+		long signature = folder.getName().hashCode();
+		File[] files = folder.listFiles();
+		if (files == null) return signature;
+		for (File file : files) {
+			if (file.isDirectory()) {
+				signature = signature * 31 + signature(file);
+			} else {
+				signature += file.getName().hashCode() * 31L + file.length() * 17L + file.lastModified();
+			}
+		}
+		return signature;
+	}
+
+	private static HashMap<String, String> parseQuery(URI uri) throws UnsupportedEncodingException {
+		HashMap<String, String> params = new HashMap<>();
+		String query = uri.getRawQuery();
+		if (query == null) return params;
+		for (String pair : query.split("&")) {
+			int eq = pair.indexOf('=');
+			if (eq < 0) {
+				params.put(URLDecoder.decode(pair, "UTF-8"), "");
+			} else {
+				params.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"), URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+			}
+		}
+		return params;
+	}
+
+	private void send(HttpExchange exchange, int code, String body) throws IOException {
+		byte[] data = body.getBytes(StandardCharsets.UTF_8);
+		exchange.sendResponseHeaders(code, data.length > 0 ? data.length : -1);
+		if (data.length > 0) {
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(data);
+			}
+		}
+		m_bytesSent.addAndGet(data.length);
+	}
+
+	/** Indica si se atienden las peticiones con rango (para probar servidores que no las admiten) */
+	public void setRangeSupport(boolean rangeSupport) {
+		m_rangeSupport = rangeSupport;
+	}
+
+	/** Peticiones atendidas */
+	public long getRequestCount() {
+		return m_requests.get();
+	}
+
+	/** Bytes enviados */
+	public long getBytesSent() {
+		return m_bytesSent.get();
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Uso: FlashAirEmulator carpeta [puerto]");
+			return;
+		}
+		FlashAirEmulator emulator = new FlashAirEmulator(new File(args[0]), args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_PORT);
+		emulator.start();
+		System.out.println("FlashAir emulada en " + emulator.getUrl() + " sirviendo " + args[0]);
+	}
+}
@@ -0,0 +1,243 @@
+package com.servifot.lfm.lfmimporter;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+
+import com.servifot.lfm.utils.FileTransfer;
+import com.servifot.lfm.utils.HttpTransfer;
+
+/**
+ * Fuente de imágenes que habla directamente con el API HTTP de una tarjeta FlashAir.<br>
+ * <br>
+ * En cada consulta sólo se pide el estado de actualización de la tarjeta
+ * (<code>command.cgi?op=102</code>), que devuelve 1 si ha cambiado algún archivo desde la petición
+ * anterior. Sólo en ese caso se listan las carpetas (<code>command.cgi?op=100</code>), así que
+ * mientras no se hacen fotos cada consulta cuesta una única petición muy pequeña. Las imágenes se
+ * descargan con {@link HttpTransfer}, directamente a disco y continuando las descargas cortadas.<br>
+ * <br>
+ * La ubicación es la URL de la tarjeta, opcionalmente con la carpeta a explorar
+ * (<code>http://flashair/DCIM</code>). Por defecto se explora {@link #DEFAULT_FOLDER}.
+ */
+public class FlashAirImageSource implements ImageSource {
+
+	/** Carpeta que se explora si la URL no indica ninguna */
+	public static final String DEFAULT_FOLDER = "/DCIM";
+	/** Primera línea de los listados */
+	public static final String LIST_HEADER = "WLANSD_FILELIST";
+	/** Atributo de las entradas que son carpetas */
+	public static final int ATTR_DIRECTORY = 0x10;
+
+	/** URL de la tarjeta (sin carpeta) */
+	private final String m_baseUrl;
+	/** Carpeta a explorar */
+	private final String m_folder;
+	/** Imágenes conocidas: ruta → {tamaño, fecha} */
+	private final HashMap<String, long[]> m_known = new HashMap<>();
+	/** Indica si hay que listar las carpetas aunque la tarjeta no indique cambios */
+	private boolean m_dirty = true;
+	/** Peticiones de estado realizadas */
+	private long m_statusRequests = 0;
+	/** Listados realizados */
+	private long m_listRequests = 0;
+
+	/**
+	 * @param location URL de la tarjeta, opcionalmente con la carpeta a explorar.
+	 */
+	public FlashAirImageSource(String location) {
+		String base = location;
+		String folder = DEFAULT_FOLDER;
+		try {
+			URL url = new URL(location);
+			base = url.getProtocol() + "://" + url.getAuthority();
+			String path = url.getPath();
+			while (path.endsWith("/")) {
+				path = path.substring(0, path.length() - 1);
+			}
+			if (!path.isEmpty()) {
+				folder = path;
+			}
+		} catch (MalformedURLException e) {
+			System.err.println("URL de la FlashAir incorrecta: " + location);
+		}
+		m_baseUrl = base;
+		m_folder = folder;
+	}
+
+	@Override
+	public String getName() {
+		return m_baseUrl + m_folder;
+	}
+
+	@Override
+	public synchronized List<SourceImage> poll() {
+		try {
+			// Se pide siempre el estado, para que la marca de la tarjeta quede a cero antes de listar
+			boolean updated = "1".equals(request("command.cgi?op=102").trim());
+			m_statusRequests++;
+			ArrayList<SourceImage> images = new ArrayList<>();
+			if (!updated && !m_dirty) {
+				return images;
+			}
+
+			HashMap<String, long[]> found = new HashMap<>();
+			list(m_folder, found, images);
+			m_known.clear();
+			m_known.putAll(found);
+			m_dirty = false;
+			return images;
+		} catch (IOException e) {
+			System.err.println("No se puede acceder a la FlashAir " + m_baseUrl + ": " + e.getMessage());
+			// Los cambios que hayan pasado mientras tanto sólo se ven listando
+			m_dirty = true;
+			return null;
+		}
+	}
+
+	/**
+	 * Lista una carpeta de la tarjeta y sus subcarpetas.
+	 */
+	private void list(String folder, HashMap<String, long[]> found, ArrayList<SourceImage> changes) throws IOException {
+		String listing = request("command.cgi?op=100&DIR=" + encodePath(folder));
+		m_listRequests++;
+		BufferedReader reader = new BufferedReader(new StringReader(listing));
+		String line = reader.readLine();
+		if (line == null || !line.trim().equals(LIST_HEADER)) {
+			throw new IOException("Listado de " + folder + " incorrecto");
+		}
+		while ((line = reader.readLine()) != null) {
+			line = line.trim();
+			if (line.isEmpty()) continue;
+			// carpeta,nombre,tamaño,atributos,fecha,hora (el nombre puede contener comas)
+			int first = line.indexOf(',');
+			String[] tail = line.substring(first + 1).split(",");
+			if (first < 0 || tail.length < 5) {
+				System.err.println("Línea de listado incorrecta: " + line);
+				continue;
+			}
+			int n = tail.length;
+			String name = String.join(",", Arrays.copyOfRange(tail, 0, n - 4));
+			String path = folder + "/" + name;
+			try {
+				long size = Long.parseLong(tail[n - 4]);
+				int attr = Integer.parseInt(tail[n - 3]);
+				long date = toMillis(Integer.parseInt(tail[n - 2]), Integer.parseInt(tail[n - 1]));
+				if ((attr & ATTR_DIRECTORY) != 0) {
+					list(path, found, changes);
+				} else if (name.toLowerCase().matches(".*\\.jpe?g")) {
+					long[] info = {size, date};
+					found.put(path, info);
+					long[] previous = m_known.get(path);
+					if (previous == null || previous[0] != size || previous[1] != date) {
+						changes.add(new SourceImage(path, name, size, date));
+					}
+				}
+			} catch (NumberFormatException e) {
+				System.err.println("Línea de listado incorrecta: " + line);
+			}
+		}
+	}
+
+	@Override
+	public FileTransfer createTransfer(SourceImage image, File dest) {
+		try {
+			return new HttpTransfer(new URL(m_baseUrl + encodePath(image.getPath())), image.getSize(), image.getDate(), dest);
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Ruta incorrecta: " + image.getPath(), e);
+		}
+	}
+
+	@Override
+	public synchronized void forget(SourceImage image) {
+		m_known.remove(image.getPath());
+		m_dirty = true;
+	}
+
+	/**
+	 * Hace una petición GET y devuelve la respuesta como texto.
+	 */
+	private String request(String command) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(m_baseUrl + "/" + command).openConnection();
+		connection.setConnectTimeout(HttpTransfer.CONNECT_TIMEOUT);
+		connection.setReadTimeout(HttpTransfer.READ_TIMEOUT);
+		try {
+			int code = connection.getResponseCode();
+			if (code != HttpURLConnection.HTTP_OK) {
+				throw new IOException("Respuesta HTTP " + code + " a " + command);
+			}
+			StringBuilder sb = new StringBuilder();
+			try (BufferedReader in = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
+				String line;
+				while ((line = in.readLine()) != null) {
+					sb.append(line).append('\n');
+				}
+			}
+			return sb.toString();
+		} finally {
+			connection.disconnect();
+		}
+	}
+
+	/**
+	 * Codifica cada tramo de una ruta para usarla en una URL.
+	 */
+	private static String encodePath(String path) throws UnsupportedEncodingException {
+		StringBuilder sb = new StringBuilder();
+		for (String segment : path.split("/")) {
+			if (segment.isEmpty()) continue;
+			sb.append('/').append(URLEncoder.encode(segment, "UTF-8").replace("+", "%20"));
+		}
+		return sb.length() > 0 ? sb.toString() : "/";
+	}
+
+	/**
+	 * Convierte una fecha y hora en formato FAT a milisegundos (hora local).
+	 */
+	public static long toMillis(int fatDate, int fatTime) {
+		Calendar c = Calendar.getInstance();
+		c.clear();
+		c.set(((fatDate >> 9) & 0x7f) + 1980, ((fatDate >> 5) & 0x0f) - 1, fatDate & 0x1f,
+				(fatTime >> 11) & 0x1f, (fatTime >> 5) & 0x3f, (fatTime & 0x1f) * 2);
+		return c.getTimeInMillis();
+	}
+
+	/**
+	 * Convierte milisegundos (hora local) a fecha y hora en formato FAT.
+	 *
+	 * @return {fecha, hora}
+	 */
+	public static int[] toFat(long millis) {
+		Calendar c = Calendar.getInstance();
+		c.setTimeInMillis(millis);
+		int date = ((c.get(Calendar.YEAR) - 1980) << 9) | ((c.get(Calendar.MONTH) + 1) << 5) | c.get(Calendar.DAY_OF_MONTH);
+		int time = (c.get(Calendar.HOUR_OF_DAY) << 11) | (c.get(Calendar.MINUTE) << 5) | (c.get(Calendar.SECOND) / 2);
+		return new int[] {date, time};
+	}
+
+	public String getFolder() {
+		return m_folder;
+	}
+
+	/** Peticiones de estado realizadas */
+	public synchronized long getStatusRequests() {
+		return m_statusRequests;
+	}
+
+	/** Listados de carpeta realizados */
+	public synchronized long getListRequests() {
+		return m_listRequests;
+	}
+}
@@ -0,0 +1,65 @@
+package com.servifot.lfm.lfmimporter;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.servifot.lfm.utils.FileTransfer;
+import com.servifot.lfm.utils.FileUtils;
+import com.servifot.lfm.utils.FolderScanner;
+
+/**
+ * Fuente de imágenes en una carpeta (por ejemplo, la tarjeta montada como unidad de red).<br>
+ * <br>
+ * Las imágenes nuevas se detectan con un {@link FolderScanner}, que sólo vuelve a listar las
+ * carpetas que han cambiado.
+ */
+public class FolderImageSource implements ImageSource {
+
+	/** Carpeta raíz */
+	private final File m_folder;
+	/** Explorador incremental de la carpeta */
+	private final FolderScanner m_scanner;
+
+	public FolderImageSource(File folder) {
+		m_folder = folder;
+		m_scanner = new FolderScanner(folder, new FileFilter() {
+			@Override
+			public boolean accept(File file) {
+				return FileUtils.getExtension(file.getAbsolutePath()).toLowerCase().matches("jpe?g");
+			}
+		});
+	}
+
+	@Override
+	public String getName() {
+		return m_folder.getAbsolutePath();
+	}
+
+	@Override
+	public List<SourceImage> poll() {
+		if (!m_folder.exists()) {
+			return null;
+		}
+		ArrayList<SourceImage> images = new ArrayList<>();
+		for (File file : m_scanner.scan()) {
+			images.add(new SourceImage(file.getAbsolutePath(), file.getName(), file.length(), file.lastModified()));
+		}
+		return images;
+	}
+
+	@Override
+	public FileTransfer createTransfer(SourceImage image, File dest) {
+		return new FileTransfer(new File(image.getPath()), dest);
+	}
+
+	@Override
+	public void forget(SourceImage image) {
+		m_scanner.forget(new File(image.getPath()));
+	}
+
+	public File getFolder() {
+		return m_folder;
+	}
+}
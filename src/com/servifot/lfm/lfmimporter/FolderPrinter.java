@@ -1,42 +1,67 @@
 package com.servifot.lfm.lfmimporter;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-import java.nio.charset.Charset;
+import java.nio.file.ClosedWatchServiceException;
 import java.nio.file.Path;
 import java.nio.file.StandardWatchEventKinds;
 import java.nio.file.WatchEvent;
 import java.nio.file.WatchKey;
 import java.nio.file.WatchService;
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.servifot.lfm.lfmimporter.PrintDispatcher.PrintDispatcherListener;
+import com.servifot.lfm.utils.FileTransfer;
+import com.servifot.lfm.utils.JpegHeaderReader;
 
 /**
  * Clase pensada para escuchar en una carpeta y cuando detecta un nuevo archivo, si es una imagen.
- * Lo imprime por la impresora indicada. Rellenando con la imagen la impresión.
+ * Lo imprime por la impresora indicada. Rellenando con la imagen la impresión. Si hay varias
+ * impresoras configuradas, las impresiones se reparten entre ellas ({@link PrintDispatcher}).<br>
+ * <br>
+ * La carpeta se observa con un único <code>WatchService</code> durante toda la vida del hilo. Un
+ * archivo nuevo no se imprime hasta que está completo: un PNG cuando ya tiene su bloque final, y
+ * cualquier otro cuando su tamaño y su fecha no cambian durante {@link #STABLE_DELAY} ms. Los
+ * temporales (<code>.part</code>, ver {@link ImagePrinter}) se ignoran hasta que se renombran. Al
+ * arrancar (y si se pierden eventos) se revisa la carpeta para imprimir lo que haya llegado
+ * mientras no se escuchaba.
  *
  * @author FRANCESC
  *
  */
-public class FolderPrinter extends Thread {
+public class FolderPrinter extends Thread implements PrintDispatcherListener {
 
 	private static final String PRINTEDFILES_NAME = "printedfiles.txt";
+	/** Tiempo sin cambios a partir del cual se considera que un archivo está completo (ms) */
+	public static final long STABLE_DELAY = 500;
+	/** Cada cuánto se comprueban los archivos pendientes de completar (ms) */
+	public static final long CHECK_INTERVAL = 100;
+	/** Espera antes de volver a observar la carpeta si deja de estar accesible (ms) */
+	public static final long RETRY_DELAY = 2000;
+	/** Extensiones de las imágenes que se imprimen */
+	private static final String IMAGE_EXTENSIONS = "jpe?g|png|bmp|gif|tiff?";
+	/** Final de todo archivo PNG: bloque IEND vacío y su CRC */
+	private static final byte[] PNG_TRAILER = {0, 0, 0, 0, 'I', 'E', 'N', 'D', (byte) 0xAE, 0x42, 0x60, (byte) 0x82};
+
 	private File m_folderprint = null;
 
 	/** Indica si el hilo debe detenerse */
-	private boolean m_die = false;
-	/** Archivo con los nombres de las imágenes impresas */
-	private File m_printedNames = null;
+	private volatile boolean m_die = false;
+	/** Registro de las imágenes impresas */
+	private PrintLedger m_printedFiles = null;
+	/** Reparto de las impresiones entre las impresoras */
+	private volatile PrintDispatcher m_dispatcher = null;
 	/** Oservador de la carpeta que recibe las imágenes a imprimir*/
-	private WatchService m_watcher = null;
+	private volatile WatchService m_watcher = null;
 
-	/** Lista de archivos ya impresos */
-	ArrayList<String> m_printedFiles = new ArrayList<>();
+	/** Archivos detectados que todavía se pueden estar escribiendo: ruta → {tamaño, fecha, último cambio} */
+	private final LinkedHashMap<String, long[]> m_candidates = new LinkedHashMap<>();
 
 	public FolderPrinter(File folder) {
 		m_folderprint = folder;
@@ -52,118 +77,221 @@ public class FolderPrinter extends Thread {
 				return;
 			}
 		}
-		// Si el archivo de impresiones ya hechas existe las cargamos, si no lo creamos
-		m_printedNames = new File(m_folderprint.getAbsolutePath()+"/"+PRINTEDFILES_NAME);
-		if (m_printedNames.exists()) {
-			loadPrintedFiles(m_printedNames);
-		} else {
-			try {
-				if (!m_printedNames.createNewFile()) {
-					System.err.println("Imposible crear un archivo para registrar las impresiones... ADIOS");
-					m_die = true;
-					return;
-				}
-			} catch (IOException e) {
-				System.err.println("Imposible crear un archivo para registrar las impresiones... ADIOS");
-				e.printStackTrace();
-				m_die = true;
-				return;
-			}
+		// Cargamos el registro de impresiones ya hechas (si no existe, se crea)
+		File printedNames = new File(m_folderprint.getAbsolutePath()+"/"+PRINTEDFILES_NAME);
+		boolean firstRun = !printedNames.exists();
+		m_printedFiles = new PrintLedger(printedNames);
+		if (!m_printedFiles.load()) {
+			System.err.println("Imposible crear un archivo para registrar las impresiones... ADIOS");
+			m_die = true;
+			return;
 		}
+		List<String> printers = LFMImporter.getConfig().getPrinters();
+		// Cada impresión se pasa al perfil de color de la impresora que la imprime
+		PrintBackend backend = new ColorManagedPrintBackend(PrintBackend.forName(LFMImporter.getConfig().getPrintBackend()));
+		m_dispatcher = new PrintDispatcher(printers, backend);
+		m_dispatcher.setListener(this);
+		System.out.println("Imprimiendo con " + backend.getName() + " en " + printers);
+
+		while (!m_die && !watch()) {
+			sleepQuietly(RETRY_DELAY);
+		}
+		// Lo que ha llegado mientras no se escuchaba. La primera vez no se sabe qué se imprimió: se da por impreso
+		reconcile(firstRun);
 
 		while (!m_die) {
+			WatchKey watchKey;
 			try {
-				Path myDir = m_folderprint.toPath();
-				m_watcher = myDir.getFileSystem().newWatchService();
-				myDir.register(m_watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
-				System.out.println("Escuachando en... " + m_folderprint.getPath());
-				WatchKey watckKey = m_watcher.take();
-
-				List<WatchEvent<?>> events = watckKey.pollEvents();
-				for (WatchEvent<?> event : events) {
-					if (!m_die && event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
-						System.out.println("Created: " + event.context().toString());
-						File newImage = new File(m_folderprint.getAbsolutePath()+"/" + event.context().toString());
-						printImage(newImage);
+				watchKey = m_candidates.isEmpty() ? m_watcher.take() : m_watcher.poll(CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException | ClosedWatchServiceException e) {
+				break;
+			}
+
+			if (watchKey != null) {
+				for (WatchEvent<?> event : watchKey.pollEvents()) {
+					if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+						// Se han perdido eventos: revisamos la carpeta entera
+						reconcile(false);
+					} else if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+						m_candidates.remove(new File(m_folderprint, event.context().toString()).getAbsolutePath());
+					} else {
+						addCandidate(new File(m_folderprint, event.context().toString()));
 					}
 				}
-
-			} catch (Exception e) {
-				System.out.println("Error: " + e.toString());
+				if (!watchKey.reset()) {
+					System.err.println("La carpeta de impresión ya no está accesible: " + m_folderprint.getPath());
+					closeWatcher();
+					while (!m_die && !watch()) {
+						sleepQuietly(RETRY_DELAY);
+					}
+					reconcile(false);
+				}
 			}
+			printCompleted();
 		}
-
+		closeWatcher();
+		// Las impresiones en curso se terminan y se registran antes de cerrar el registro
+		m_dispatcher.shutdown();
+		m_printedFiles.close();
 	}
 
-	private void printImage(File file) {
-		String printcmd = "rundll32 shimgvw.dll ImageView_PrintTo /pt \""+file.getAbsolutePath()+"\" \""+LFMImporter.getConfig().getPrinter()+"\"";
-		System.out.println("Printing: " + printcmd);
+	/**
+	 * Empieza a observar la carpeta.
+	 *
+	 * @return <code>true</code> si todo va bien <code>false</code> en caso contrario
+	 */
+	private boolean watch() {
 		try {
-			Runtime.getRuntime().exec(printcmd);
+			m_folderprint.mkdirs();
+			Path myDir = m_folderprint.toPath();
+			WatchService watcher = myDir.getFileSystem().newWatchService();
+			myDir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+			m_watcher = watcher;
+			if (m_die) closeWatcher();
+			System.out.println("Escuchando en... " + m_folderprint.getPath());
+			return true;
 		} catch (IOException e) {
-			e.printStackTrace();
+			System.err.println("No se puede observar la carpeta de impresión " + m_folderprint.getPath() + ": " + e.getMessage());
+			return false;
 		}
-		addImagePrinted(file, m_printedNames);
-
-    }
+	}
 
 	/**
-	 * Añade una imagen impresa al registro
+	 * Revisa la carpeta y añade como pendientes las imágenes que todavía no se han impreso, de la
+	 * más antigua a la más reciente.
 	 *
-	 * @param newImage Archivo de la nueva imagen
-	 * @param printedNames Archivo donde se escriben las imágenes impresas
+	 * @param markPrinted Si es <code>true</code>, las imágenes se dan por impresas sin imprimirlas.
 	 */
-	private void addImagePrinted(File newImage, File printedNames) {
-		m_printedFiles.add(newImage.getName());
-		try {
-			OutputStreamWriter out = new OutputStreamWriter(new FileOutputStream(printedNames, true), Charset.forName("UTF-8"));
-			out.write(newImage.getName() + System.lineSeparator());
-			if (out!= null) out.close();
+	private void reconcile(boolean markPrinted) {
+		File[] files = m_folderprint.listFiles();
+		if (files == null) return;
+		Arrays.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File f1, File f2) {
+				return Long.compare(f1.lastModified(), f2.lastModified());
+			}
+		});
+		for (File file : files) {
+			if (!isPrintable(file) || m_printedFiles.contains(file)) continue;
+			if (markPrinted) {
+				m_printedFiles.add(file, "");
+			} else {
+				addCandidate(file);
+			}
+		}
+	}
 
-		} catch (IOException e) {
-			e.printStackTrace();
+	/**
+	 * Añade una imagen a las pendientes de completar, si se tiene que imprimir.
+	 */
+	private void addCandidate(File file) {
+		if (!isPrintable(file) || m_printedFiles.contains(file)) return;
+		if (!m_candidates.containsKey(file.getAbsolutePath())) {
+			m_candidates.put(file.getAbsolutePath(), new long[] {-1, -1, System.currentTimeMillis()});
 		}
 	}
 
 	/**
-	 * Busca los archivos ya impresos. Si no hay ninguno deja la lista vacía.
-	 *
+	 * Imprime las imágenes pendientes que ya están completas.
 	 */
-	private void loadPrintedFiles(File listOfPrinteds) {
-		if (listOfPrinteds.exists() && listOfPrinteds.isFile()) {
-			BufferedReader br = null;
-			try {
-				br = new BufferedReader(new InputStreamReader(new FileInputStream(listOfPrinteds), Charset.forName("UTF-8")));
-				String line = null;
-				while ((line = br.readLine()) != null) {
-					m_printedFiles.add(line);
-				}
-				br.close();
-
-			} catch (Exception e) {
-				System.err.println("ERROR: No se ha podido cargar la lista de archivos impresos");
-			} finally {
-				if (br != null) {
-					try {
-						br.close();
-					} catch (IOException e) {
-						// TODO Auto-generated catch block
-						e.printStackTrace();
-					}
-				}
+	private void printCompleted() {
+		long now = System.currentTimeMillis();
+		Iterator<Map.Entry<String, long[]>> it = m_candidates.entrySet().iterator();
+		while (it.hasNext() && !m_die) {
+			Map.Entry<String, long[]> entry = it.next();
+			File file = new File(entry.getKey());
+			if (!file.isFile()) {
+				it.remove();
+				continue;
+			}
+			long[] info = entry.getValue();
+			long size = file.length();
+			long modified = file.lastModified();
+			if (size != info[0] || modified != info[1]) {
+				info[0] = size;
+				info[1] = modified;
+				info[2] = now;
+			}
+			if (size > 0 && (hasPngTrailer(file) || now - info[2] >= STABLE_DELAY)) {
+				it.remove();
+				System.out.println("Created: " + file.getName());
+				printImage(file);
 			}
 		}
 	}
 
-	public void kill() {
-		if(m_watcher != null)
+	/**
+	 * Indica si un archivo es una imagen a imprimir (y no el registro ni un temporal).
+	 */
+	private static boolean isPrintable(File file) {
+		String name = file.getName();
+		if (name.equals(PRINTEDFILES_NAME) || name.startsWith(".") || name.endsWith(FileTransfer.PART_EXTENSION)) return false;
+		int dot = name.lastIndexOf('.');
+		return dot > 0 && name.substring(dot + 1).toLowerCase().matches(IMAGE_EXTENSIONS);
+	}
+
+	/**
+	 * Indica si un archivo es un PNG completo (termina con el bloque IEND).
+	 */
+	private static boolean hasPngTrailer(File file) {
+		if (!file.getName().toLowerCase().endsWith(".png")) return false;
+		long length = file.length();
+		if (length < PNG_TRAILER.length) return false;
+		try {
+			return Arrays.equals(JpegHeaderReader.readRange(file, length - PNG_TRAILER.length, PNG_TRAILER.length), PNG_TRAILER);
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	private static void sleepQuietly(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void closeWatcher() {
+		WatchService watcher = m_watcher;
+		if (watcher != null) {
 			try {
-				m_watcher.close();
+				watcher.close();
 			} catch (IOException e) {
-				// TODO Auto-generated catch block
 				e.printStackTrace();
 			}
+		}
+	}
+
+	private void printImage(File file) {
+		m_dispatcher.submit(file);
+	}
+
+	@Override
+	public void onPrinted(File file, String printer) {
+		m_printedFiles.add(file, printer);
+	}
+
+	@Override
+	public void onPrintFailed(File file) {
+		// No se registra: se volverá a intentar al reiniciar
+		System.err.println("No se ha podido imprimir " + file.getAbsolutePath());
+	}
+
+	/**
+	 * Detiene el hilo y espera a que termine: deja de observar la carpeta, descarta las imágenes que
+	 * todavía no se han empezado a imprimir y termina (y registra) las que se están imprimiendo.
+	 */
+	public void kill() {
 		m_die = true;
+		closeWatcher();
+		if (isAlive() && Thread.currentThread() != this) {
+			try {
+				join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
 	}
 
 	public boolean isDie() {
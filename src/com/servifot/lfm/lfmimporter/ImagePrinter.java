@@ -1,21 +1,42 @@
 package com.servifot.lfm.lfmimporter;
 
-import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.color.ColorSpace;
+import java.awt.color.ICC_Profile;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 
-import javax.imageio.ImageIO;
-
+import com.servifot.lfm.utils.FileTransfer;
 import com.servifot.lfm.utils.FileUtils;
 import com.servifot.lfm.utils.ImageOrientation;
+import com.servifot.lfm.utils.ImageUtils;
 import com.servifot.lfm.utils.JPEGMetadata;
-import com.servifot.lfm.utils.LFMUtils;
-
-import javafx.scene.shape.Rectangle;
-
-
-public class ImagePrinter extends Thread {
+import com.servifot.lfm.utils.PNGMetadata;
+import com.servifot.lfm.utils.ParallelPngWriter;
+
+/**
+ * Prepara una imagen para imprimir: la decodifica al tamaño de impresión de la impresora
+ * ({@link PrinterProfile}), la gira según su orientación EXIF, le superpone la máscara vertical u
+ * horizontal (ya escalada, de {@link MaskCache}) y la deja en la carpeta de impresión en el formato
+ * configurado ({@link PrintFormat}), con la resolución y el perfil de color incrustados. El archivo
+ * se escribe en un temporal (<code>.part</code>) que se renombra al terminar.<br>
+ * <br>
+ * La imagen se decodifica con submuestreo, así que no se llega a cargar a la resolución de la
+ * cámara, y la composición se hace en RGB sin canal alfa.<br>
+ * <br>
+ * Gestión de color: la impresión se compone en el perfil de la foto (por ejemplo Adobe RGB, o sRGB
+ * si no trae ninguno), sin convertirla, así que no se pierden los colores que quedan fuera de sRGB;
+ * la máscara se pasa a ese perfil ({@link MaskCache}) y el archivo se deja con el perfil
+ * incrustado. La impresora concreta se elige después ({@link PrintDispatcher}) y al enviarla se
+ * hace una sola conversión, del perfil incrustado al de esa impresora
+ * ({@link ColorManagedPrintBackend}). BMP y TIFF no llevan perfil: en esos formatos la impresión se
+ * deja en sRGB. Las conversiones se reutilizan entre impresiones ({@link ColorTransformCache}).
+ */
+public class ImagePrinter {
 
     // Archivo a imprimir
     File m_printFile = null;
@@ -24,58 +45,163 @@ public class ImagePrinter extends Thread {
         m_printFile = printFile;
     }
 
-    @Override
-    public void run() {
-        if(m_printFile == null || !m_printFile.exists()) return;
-
-        File maskFile = new File(LFMImporter.getConfig().getVMaskPath());
-        File destFile = new File(LFMImporter.getConfig().getPrinterFolder() + "/" + m_printFile.getName());
-
-        try {
-			BufferedImage printimage = ImageIO.read(m_printFile);
-			boolean ish = printimage.getWidth() > printimage.getHeight();
-
-			JPEGMetadata meta = new JPEGMetadata(m_printFile.getAbsolutePath());
-			switch (meta.getOrientation().toString()) {
-			case ImageOrientation.VALUE_DOWN:
-
-				break;
-			case ImageOrientation.VALUE_LEFT:
-				ish = !ish;
-				break;
-			case ImageOrientation.VALUE_RIGHT:
-				ish = !ish;
-				break;
+	/**
+	 * Prepara la impresión en el thread actual (lo llaman los workers de {@link PrintQueue}).
+	 *
+	 * @return Archivo dejado en la carpeta de impresión, o <code>null</code> si no se ha podido preparar.
+	 */
+	public File render() {
+        if(m_printFile == null || !m_printFile.exists()) return null;
+
+        PrintFormat format = LFMImporter.getConfig().getPrintFormat();
+        File destFile = new File(LFMImporter.getConfig().getPrinterFolder() + "/" + FileUtils.removeExtension(m_printFile.getName()) + format.getExtension());
+        PrinterProfile profile = LFMImporter.getConfig().getPrinterProfile();
+
+		try {
+			long start = System.currentTimeMillis();
+			BufferedImage printimage = readForPrint(m_printFile, profile);
+			if (printimage == null) {
+				System.err.println("No se puede leer la imagen a imprimir " + m_printFile.getAbsolutePath());
+				return null;
 			}
-
-			if (ish) {
-				maskFile = new File(LFMImporter.getConfig().getHMaskPath());
-				if (maskFile == null || !maskFile.exists()) {
-		        	FileUtils.copyFile(m_printFile, destFile, true);
-		        	System.out.print("Impreso archivo sin máscara: " + destFile.getAbsolutePath());
-		        	return;
-		        }
+			// Perfil en el que se compone la impresión (null: sRGB). Se compone con los valores del
+			// perfil etiquetados como sRGB, para que no se conviertan al dibujar
+			ICC_Profile icc = format.canEmbedProfile() ? ColorTransformCache.getEmbeddedProfile(printimage) : null;
+			BufferedImage pixels = icc != null ? ColorTransformCache.relabel(printimage, null) : null;
+			if (pixels != null) {
+				printimage = pixels;
+			} else {
+				icc = null;
+				printimage = ColorTransformCache.convertToSrgb(printimage);
 			}
-			BufferedImage maskimage = ImageIO.read(maskFile);
-			BufferedImage combined = new BufferedImage(printimage.getWidth(), printimage.getHeight(), BufferedImage.TYPE_INT_ARGB);
+			// La imagen ya está girada: la máscara depende de cómo se ve
+			boolean ish = printimage.getWidth() > printimage.getHeight();
+			File maskFile = new File(ish ? LFMImporter.getConfig().getHMaskPath() : LFMImporter.getConfig().getVMaskPath());
 
-			Graphics g = combined.getGraphics();
+			BufferedImage combined = new BufferedImage(printimage.getWidth(), printimage.getHeight(), BufferedImage.TYPE_INT_RGB);
+			Graphics2D g = combined.createGraphics();
 			g.drawImage(printimage, 0, 0, null);
 
-			Rectangle canvasrect = new Rectangle(printimage.getWidth(), printimage.getHeight());
-			Rectangle maskrect = new Rectangle(maskimage.getWidth(), maskimage.getHeight());
-
-			Rectangle dest = LFMUtils.fitRectangle(maskrect, canvasrect);
-
-			g.drawImage(maskimage, (int)dest.getX(), (int)dest.getY(), (int)dest.getWidth(), (int)dest.getHeight(), 0, 0, maskimage.getWidth(), maskimage.getHeight(), null);
-
-			ImageIO.write(combined, "png", new File(destFile.getParent() +"/"+ FileUtils.removeExtension(destFile.getName()) + ".png"));
+			// La máscara ya viene escalada y encajada al tamaño de la impresión
+			BufferedImage maskimage = MaskCache.getMask(maskFile, combined.getWidth(), combined.getHeight(), icc);
+			if (maskimage != null) {
+				g.drawImage(maskimage, 0, 0, null);
+			} else {
+				System.out.println("Imprimiendo sin máscara: " + m_printFile.getAbsolutePath());
+			}
+			g.dispose();
+
+			// Se escribe aparte y se publica de golpe, para que FolderPrinter nunca vea un archivo a medias
+			File partFile = FileTransfer.getPartFile(destFile);
+			writeOutput(combined, partFile, format, profile.isFullResolution() ? 0 : profile.getDpi(), icc != null ? icc : ICC_Profile.getInstance(ColorSpace.CS_sRGB));
+			try {
+				Files.move(partFile.toPath(), destFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(partFile.toPath(), destFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+			System.out.println("Impresión preparada (" + combined.getWidth() + "x" + combined.getHeight() + ", " + profile + ", " + format + ") en "
+					+ (System.currentTimeMillis() - start) + " ms: " + destFile.getAbsolutePath());
+			return destFile;
 
 		} catch (IOException e) {
 			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Escribe una impresión en el formato indicado. La resolución (para que la impresora no la
+	 * reescale a su antojo) y el perfil de color se incrustan en los formatos que los admiten: la
+	 * resolución en todos y el perfil en PNG y JPEG.
+	 *
+	 * @param dpi Resolución (ppp), o 0 para no indicarla.
+	 * @param icc Perfil de color de la imagen, o <code>null</code> para no incrustarlo.
+	 */
+	public static void writeOutput(BufferedImage image, File file, PrintFormat format, double dpi, ICC_Profile icc) throws IOException {
+		switch (format.getFormat()) {
+			case PrintFormat.JPEG:
+				ImageUtils.writeJpeg(image, file, format.getJpegQuality(), dpi);
+				if (icc != null && !JPEGMetadata.embedIccProfile(icc, file.getAbsolutePath())) {
+					System.err.println("No se ha podido incrustar el perfil de color en " + file.getName());
+				}
+				break;
+			case PrintFormat.BMP:
+			case PrintFormat.TIFF:
+				ImageUtils.writeUncompressed(image, file, format.getFormat(), dpi);
+				break;
+			default:
+				ParallelPngWriter.write(image, file, format.getPngDeflateLevel());
+				if ((icc != null || dpi > 0) && !PNGMetadata.embedMetadata(file.getAbsolutePath(), icc, dpi)) {
+					System.err.println("No se han podido incrustar los metadatos en " + file.getName());
+				}
+				break;
+		}
+	}
+
+	/**
+	 * Decodifica una imagen a la resolución de impresión y la gira según su orientación EXIF. El
+	 * lado largo de la imagen se hace corresponder con el lado largo del papel. Los colores no se
+	 * convierten: la imagen queda en el perfil de la foto, etiquetada con él (ver
+	 * {@link ColorTransformCache#getEmbeddedProfile(BufferedImage)}).
+	 *
+	 * @param file Imagen a imprimir.
+	 * @param profile Tamaño de impresión.
+	 * @return Imagen preparada, o <code>null</code> si no se puede leer.
+	 */
+	public static BufferedImage readForPrint(File file, PrinterProfile profile) {
+		// Una sola lectura de la cabecera: orientación y dimensiones (0 si no se puede leer)
+		ImageOrientation orientation = ImageOrientation.TOP;
+		int width = 0;
+		int height = 0;
+		JPEGMetadata meta = new JPEGMetadata();
+		if (meta.load(file)) {
+			orientation = meta.getOrientation();
+			width = meta.getWidth();
+			height = meta.getHeight();
 		}
 
-
-    }
+		BufferedImage image;
+		int boxWidth = 0;
+		int boxHeight = 0;
+		if (profile.isFullResolution()) {
+			image = ImageUtils.readSubsampled(file, 0, 0, true);
+		} else {
+			int longSide = profile.getLongSide();
+			int shortSide = profile.getShortSide();
+			// Caja del papel en el sentido de los píxeles de la imagen (sin girar)
+			boolean landscape = width >= height;
+			boxWidth = landscape ? longSide : shortSide;
+			boxHeight = landscape ? shortSide : longSide;
+			if (width > 0 && height > 0) {
+				double scale = Math.min((double) boxWidth / width, (double) boxHeight / height);
+				image = ImageUtils.readSubsampled(file, (int) Math.ceil(width * scale), (int) Math.ceil(height * scale), true);
+			} else {
+				image = ImageUtils.readSubsampled(file, 0, 0, true);
+			}
+		}
+		if (image == null) return null;
+
+		// Con perfil (Adobe RGB...) se escala y se gira con los valores etiquetados como sRGB, para
+		// que Java2D no los convierta, y al final se vuelven a etiquetar con el perfil
+		ICC_Profile icc = ColorTransformCache.getEmbeddedProfile(image);
+		if (icc != null) {
+			BufferedImage pixels = ColorTransformCache.relabel(image, null);
+			if (pixels != null) {
+				image = pixels;
+			} else {
+				image = ColorTransformCache.convertToSrgb(image);
+				icc = null;
+			}
+		}
+		if (!profile.isFullResolution()) {
+			image = ImageUtils.scaleToFit(image, boxWidth, boxHeight);
+		}
+		image = ImageUtils.applyOrientation(image, orientation);
+		if (icc != null) {
+			BufferedImage tagged = ColorTransformCache.relabel(image, icc);
+			return tagged != null ? tagged : ColorTransformCache.convert(image, icc, ICC_Profile.getInstance(ColorSpace.CS_sRGB));
+		}
+		return image;
+	}
 
 }
@@ -0,0 +1,54 @@
+package com.servifot.lfm.lfmimporter;
+
+import java.io.File;
+import java.util.List;
+
+import com.servifot.lfm.utils.FileTransfer;
+
+/**
+ * Origen de las imágenes a importar (la tarjeta SD).<br>
+ * <br>
+ * Hay dos implementaciones: {@link FolderImageSource} lee una carpeta (local o de red, por ejemplo
+ * la tarjeta montada por WebDAV) y {@link FlashAirImageSource} habla directamente con el API HTTP
+ * de una tarjeta FlashAir. {@link #forLocation(String)} elige la adecuada según la configuración.
+ */
+public interface ImageSource {
+
+	/**
+	 * Descripción de la fuente, para los mensajes.
+	 */
+	public String getName();
+
+	/**
+	 * Devuelve las imágenes nuevas o modificadas desde la consulta anterior. En la primera consulta
+	 * se devuelven todas.
+	 *
+	 * @return Imágenes nuevas, o <code>null</code> si no se puede acceder a la fuente.
+	 */
+	public List<SourceImage> poll();
+
+	/**
+	 * Prepara la copia de una imagen de la fuente a un archivo local.
+	 *
+	 * @param image Imagen devuelta por {@link #poll()}.
+	 * @param dest Archivo de destino.
+	 */
+	public FileTransfer createTransfer(SourceImage image, File dest);
+
+	/**
+	 * Olvida una imagen, para que la siguiente consulta la vuelva a devolver (por ejemplo, si no se
+	 * ha podido importar).
+	 */
+	public void forget(SourceImage image);
+
+	/**
+	 * Crea la fuente que corresponde a una ubicación: una URL <code>http://</code> es una tarjeta
+	 * FlashAir y cualquier otra cosa es una carpeta.
+	 */
+	public static ImageSource forLocation(String location) {
+		if (location.toLowerCase().startsWith("http://") || location.toLowerCase().startsWith("https://")) {
+			return new FlashAirImageSource(location);
+		}
+		return new FolderImageSource(new File(location));
+	}
+}
@@ -0,0 +1,454 @@
+package com.servifot.lfm.lfmimporter;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.servifot.lfm.utils.FileTransfer;
+
+/**
+ * Importa imágenes de una o varias {@link ImageSource} a la carpeta de la cámara.<br>
+ * <br>
+ * Cada copia se hace con el {@link FileTransfer} que prepara la fuente, de forma que en la carpeta
+ * de la cámara sólo aparecen archivos completos. Las imágenes de cada fuente se guardan con su
+ * prefijo ({@link #addSource(ImageSource, String)}) para que no choquen los nombres.<br>
+ * <br>
+ * Las copias se hacen con varios threads en paralelo. Cada fuente tiene su propia cola, ordenada
+ * de la imagen más reciente a la más antigua, y los threads libres van cogiendo la siguiente copia
+ * de cada cola por turnos, de forma que una tarjeta con muchas imágenes pendientes no retrasa a las
+ * demás. Cuando termina una copia se avisa al listener y se encola la generación de su miniatura
+ * en un thread aparte, para que no retrase la copia de las siguientes.<br>
+ * <br>
+ * El progreso de cada copia se puede consultar con {@link #getTransfers()} y los contadores de
+ * cada fuente con {@link #getSourceQueues()}.
+ */
+public class ImportEngine {
+
+	/** Número de copias simultáneas por fuente por defecto */
+	public static final int DEFAULT_WORKERS = 2;
+
+	/** Carpeta de destino */
+	private final File m_destFolder;
+	/** Threads de copia. Cada trabajo encolado es un turno: la copia se elige al ejecutarlo */
+	private final ThreadPoolExecutor m_copyPool;
+	/** Thread de generación de miniaturas */
+	private final ExecutorService m_thumbPool;
+	/** Colas de cada fuente por nombre, en el orden en que se reparten los turnos */
+	private final LinkedHashMap<String, SourceQueue> m_queues = new LinkedHashMap<>();
+	/** Cola a la que le toca el siguiente turno */
+	private int m_nextQueue = 0;
+	/** Copias pendientes o en curso, por fuente y ruta */
+	private final ConcurrentHashMap<String, Transfer> m_transfers = new ConcurrentHashMap<>();
+	/** Nombres de destino de las copias pendientes o en curso */
+	private final HashSet<String> m_destNames = new HashSet<>();
+	/** Orden de llegada, para desempatar imágenes con la misma fecha */
+	private final AtomicLong m_sequence = new AtomicLong();
+	/** Listener */
+	private ImportEngineListener m_listener = null;
+
+	/**
+	 * @param destFolder Carpeta de destino (carpeta de la cámara).
+	 * @param workers Número total de copias simultáneas.
+	 */
+	public ImportEngine(File destFolder, int workers) {
+		m_destFolder = destFolder;
+		workers = Math.max(1, workers);
+		m_copyPool = new ThreadPoolExecutor(workers, workers, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), r -> {
+			Thread t = new Thread(r, "ImportEngine-copy");
+			t.setDaemon(true);
+			return t;
+		});
+		m_copyPool.allowCoreThreadTimeOut(true);
+		m_thumbPool = Executors.newSingleThreadExecutor(r -> {
+			Thread t = new Thread(r, "ImportEngine-thumbs");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/**
+	 * Registra una fuente. Las fuentes que no se registran usan un prefijo vacío.<br>
+	 * <br>
+	 * Las fuentes se identifican por su nombre: si se vuelve a crear una fuente (por ejemplo, al
+	 * reconectar el wifi o al aplicar la configuración), su cola sustituye a la de la anterior y
+	 * las copias que la anterior no había empezado se descartan (la nueva las volverá a encontrar).
+	 *
+	 * @param source Fuente.
+	 * @param prefix Prefijo que se añade al nombre de sus imágenes en la carpeta de destino.
+	 * @return Cola de la fuente.
+	 */
+	public synchronized SourceQueue addSource(ImageSource source, String prefix) {
+		SourceQueue queue = m_queues.get(source.getName());
+		if (queue != null && queue.getSource() == source) {
+			return queue;
+		}
+		if (queue != null) {
+			for (Transfer transfer : queue.m_pending) {
+				m_transfers.remove(transfer.getKey());
+				m_destNames.remove(transfer.getDest().getName());
+			}
+			queue.m_pending.clear();
+		}
+		queue = new SourceQueue(source, prefix);
+		m_queues.put(source.getName(), queue);
+		return queue;
+	}
+
+	/**
+	 * Encola imágenes para importarlas. Las que ya están pendientes o copiándose se ignoran.
+	 *
+	 * @param source Fuente de las imágenes.
+	 * @param sourceImages Imágenes devueltas por la fuente.
+	 */
+	public void submit(ImageSource source, Collection<SourceImage> sourceImages) {
+		int added = 0;
+		synchronized (this) {
+			SourceQueue queue = m_queues.get(source.getName());
+			if (queue == null || queue.getSource() != source) {
+				queue = addSource(source, queue != null ? queue.getPrefix() : "");
+			}
+			for (SourceImage image : sourceImages) {
+				if (m_transfers.containsKey(getKey(source, image))) {
+					continue;
+				}
+				Transfer transfer = new Transfer(queue, image, getFreeDest(queue.getPrefix() + image.getName()), m_sequence.getAndIncrement());
+				m_transfers.put(transfer.getKey(), transfer);
+				m_destNames.add(transfer.getDest().getName());
+				queue.m_pending.add(transfer);
+				added++;
+			}
+		}
+		// Un turno por copia; cada turno coge la copia que corresponda en ese momento
+		for (int i = 0; i < added; i++) {
+			m_copyPool.execute(new Runnable() {
+				@Override
+				public void run() {
+					Transfer transfer = next();
+					if (transfer != null) transfer.run();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Archivo de destino libre para un nombre. Si ya existe otra imagen con el mismo nombre (por
+	 * ejemplo, de otra carpeta de la tarjeta), se añade un número: <code>IMG_0001_1.JPG</code>.
+	 */
+	private File getFreeDest(String name) {
+		int dot = name.lastIndexOf('.');
+		String base = dot > 0 ? name.substring(0, dot) : name;
+		String extension = dot > 0 ? name.substring(dot) : "";
+		File dest = new File(m_destFolder, name);
+		for (int i = 1; dest.exists() || m_destNames.contains(dest.getName()); i++) {
+			dest = new File(m_destFolder, base + "_" + i + extension);
+		}
+		return dest;
+	}
+
+	private static String getKey(ImageSource source, SourceImage image) {
+		return source.getName() + "|" + image.getPath();
+	}
+
+	/**
+	 * Siguiente copia a realizar: la más reciente de la siguiente fuente (por turnos) que tenga
+	 * copias pendientes.
+	 */
+	private synchronized Transfer next() {
+		ArrayList<SourceQueue> queues = new ArrayList<>(m_queues.values());
+		for (int i = 0; i < queues.size(); i++) {
+			int index = (m_nextQueue + i) % queues.size();
+			Transfer transfer = queues.get(index).m_pending.poll();
+			if (transfer != null) {
+				m_nextQueue = index + 1;
+				return transfer;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Cambia el número de copias simultáneas (por ejemplo, si cambia el número de fuentes).
+	 */
+	public synchronized void setWorkers(int workers) {
+		workers = Math.max(1, workers);
+		if (workers == m_copyPool.getCorePoolSize()) return;
+		if (workers > m_copyPool.getMaximumPoolSize()) {
+			m_copyPool.setMaximumPoolSize(workers);
+			m_copyPool.setCorePoolSize(workers);
+		} else {
+			m_copyPool.setCorePoolSize(workers);
+			m_copyPool.setMaximumPoolSize(workers);
+		}
+	}
+
+	/**
+	 * Copias pendientes o en curso.
+	 */
+	public List<Transfer> getTransfers() {
+		return new ArrayList<>(m_transfers.values());
+	}
+
+	/**
+	 * Colas de las fuentes, con sus contadores.
+	 */
+	public synchronized List<SourceQueue> getSourceQueues() {
+		return new ArrayList<>(m_queues.values());
+	}
+
+	/**
+	 * Indica si no queda ninguna copia pendiente ni en curso.
+	 */
+	public boolean isIdle() {
+		return m_transfers.isEmpty();
+	}
+
+	public File getDestFolder() {
+		return m_destFolder;
+	}
+
+	/**
+	 * Detiene las copias y la generación de miniaturas. El motor no se debe usar después.
+	 */
+	public void shutdown() {
+		m_copyPool.shutdownNow();
+		m_thumbPool.shutdownNow();
+		synchronized (this) {
+			for (SourceQueue queue : m_queues.values()) {
+				queue.m_pending.clear();
+			}
+		}
+		m_transfers.clear();
+		synchronized (this) {
+			m_destNames.clear();
+		}
+	}
+
+	private void emitImageImported(ImageSource source, SourceImage image, File dest) {
+		if (m_listener != null) m_listener.onImageImported(source, image, dest);
+	}
+
+	private void emitThumbnailReady(File dest) {
+		if (m_listener != null) m_listener.onThumbnailReady(dest);
+	}
+
+	private void emitImportError(ImageSource source, SourceImage image, Exception e) {
+		if (m_listener != null) m_listener.onImportError(source, image, e);
+	}
+
+	public ImportEngineListener getListener() {
+		return m_listener;
+	}
+
+	public void setListener(ImportEngineListener listener) {
+		m_listener = listener;
+	}
+
+	/**
+	 * Cola de copias pendientes de una fuente, con sus contadores.
+	 */
+	public static class SourceQueue {
+		private final ImageSource m_source;
+		private final String m_prefix;
+		/** Copias pendientes, la más reciente primero (protegida por el motor) */
+		private final PriorityQueue<Transfer> m_pending = new PriorityQueue<>();
+		/** Imágenes importadas */
+		private final AtomicLong m_imported = new AtomicLong();
+		/** Copias fallidas */
+		private final AtomicLong m_errors = new AtomicLong();
+		/** Bytes copiados */
+		private final AtomicLong m_bytes = new AtomicLong();
+		/** Tiempo dedicado a copiar (ns) */
+		private final AtomicLong m_copyTime = new AtomicLong();
+		/** Suma de los retrasos entre que se detecta una imagen y termina su copia (ms) */
+		private final AtomicLong m_totalLag = new AtomicLong();
+		/** Último retraso (ms) */
+		private volatile long m_lastLag = 0;
+		/** Retraso máximo (ms) */
+		private volatile long m_maxLag = 0;
+
+		SourceQueue(ImageSource source, String prefix) {
+			m_source = source;
+			m_prefix = prefix != null ? prefix : "";
+		}
+
+		private synchronized void onImported(long bytes, long copyTime, long lag) {
+			m_imported.incrementAndGet();
+			m_bytes.addAndGet(bytes);
+			m_copyTime.addAndGet(copyTime);
+			m_totalLag.addAndGet(lag);
+			m_lastLag = lag;
+			if (lag > m_maxLag) m_maxLag = lag;
+		}
+
+		public ImageSource getSource() {
+			return m_source;
+		}
+
+		public String getPrefix() {
+			return m_prefix;
+		}
+
+		/** Imágenes importadas */
+		public long getImported() {
+			return m_imported.get();
+		}
+
+		/** Copias fallidas */
+		public long getErrors() {
+			return m_errors.get();
+		}
+
+		/** Bytes copiados */
+		public long getBytes() {
+			return m_bytes.get();
+		}
+
+		/** Velocidad media de copia (bytes/s) */
+		public double getThroughput() {
+			long time = m_copyTime.get();
+			return time > 0 ? m_bytes.get() * 1e9 / time : 0;
+		}
+
+		/** Retraso de la última imagen importada entre que se detecta y termina su copia (ms) */
+		public long getLastLag() {
+			return m_lastLag;
+		}
+
+		/** Retraso máximo (ms) */
+		public long getMaxLag() {
+			return m_maxLag;
+		}
+
+		/** Retraso medio (ms) */
+		public long getAverageLag() {
+			long imported = m_imported.get();
+			return imported > 0 ? m_totalLag.get() / imported : 0;
+		}
+
+		@Override
+		public String toString() {
+			return m_source.getName() + ": " + m_imported.get() + " importadas, " + m_errors.get() + " errores, "
+					+ String.format("%.1f", getThroughput() / (1024 * 1024)) + " MB/s, retraso " + m_lastLag + " ms (medio "
+					+ getAverageLag() + ", máx. " + m_maxLag + ")";
+		}
+	}
+
+	/**
+	 * Copia de una imagen. Se ordenan de más reciente a más antigua.
+	 */
+	public class Transfer implements Runnable, Comparable<Transfer> {
+		private final SourceQueue m_queue;
+		private final SourceImage m_image;
+		private final File m_dest;
+		private final long m_sequence;
+		private final FileTransfer m_transfer;
+		/** Momento en que se ha encolado (ms) */
+		private final long m_submitted = System.currentTimeMillis();
+
+		Transfer(SourceQueue queue, SourceImage image, File dest, long sequence) {
+			m_queue = queue;
+			m_image = image;
+			m_dest = dest;
+			m_sequence = sequence;
+			m_transfer = queue.getSource().createTransfer(image, dest);
+		}
+
+		@Override
+		public void run() {
+			long start = System.nanoTime();
+			try {
+				m_transfer.transfer();
+			} catch (Exception e) {
+				finish();
+				m_queue.m_errors.incrementAndGet();
+				System.err.println("Error importando " + m_transfer.getSourceName() + ": " + e.getMessage());
+				emitImportError(m_queue.getSource(), m_image, e);
+				return;
+			}
+			finish();
+			m_queue.onImported(m_transfer.getTotal() - m_transfer.getResumedFrom(), System.nanoTime() - start, System.currentTimeMillis() - m_submitted);
+			emitImageImported(m_queue.getSource(), m_image, m_dest);
+			try {
+				m_thumbPool.execute(new Runnable() {
+					@Override
+					public void run() {
+						ThumbnailStore.create(m_dest);
+						emitThumbnailReady(m_dest);
+					}
+				});
+			} catch (Exception e) {
+				// El motor ya está detenido
+			}
+		}
+
+		@Override
+		public int compareTo(Transfer o) {
+			if (m_image.getDate() != o.m_image.getDate()) {
+				return m_image.getDate() > o.m_image.getDate() ? -1 : 1;
+			}
+			return Long.compare(m_sequence, o.m_sequence);
+		}
+
+		private String getKey() {
+			return ImportEngine.getKey(m_queue.getSource(), m_image);
+		}
+
+		/**
+		 * Quita la copia de las pendientes.
+		 */
+		private void finish() {
+			synchronized (ImportEngine.this) {
+				m_transfers.remove(getKey());
+				m_destNames.remove(m_dest.getName());
+			}
+		}
+
+		public ImageSource getSource() {
+			return m_queue.getSource();
+		}
+
+		public SourceImage getImage() {
+			return m_image;
+		}
+
+		public File getDest() {
+			return m_dest;
+		}
+
+		/** Bytes copiados */
+		public long getCopied() {
+			return m_transfer.getCopied();
+		}
+
+		/** Tamaño total, o -1 si todavía no ha empezado la copia */
+		public long getTotal() {
+			return m_transfer.getTotal();
+		}
+
+		/** Progreso entre 0 y 1 */
+		public double getProgress() {
+			long total = m_transfer.getTotal();
+			return total > 0 ? (double) m_transfer.getCopied() / total : 0;
+		}
+	}
+
+	public interface ImportEngineListener {
+		/** Se ha copiado una imagen (se llama desde el thread de copia) */
+		public void onImageImported(ImageSource source, SourceImage image, File dest);
+		/** La miniatura de una imagen importada ya está en {@link ThumbnailStore} */
+		public void onThumbnailReady(File dest);
+		/** No se ha podido copiar una imagen */
+		public void onImportError(ImageSource source, SourceImage image, Exception e);
+	}
+}
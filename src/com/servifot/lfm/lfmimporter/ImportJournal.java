@@ -0,0 +1,88 @@
+package com.servifot.lfm.lfmimporter;
+
+import java.io.File;
+
+import com.servifot.lfm.utils.AppendLog;
+import com.servifot.lfm.utils.LongHashSet;
+
+/**
+ * Registro persistente de las imágenes ya importadas, para no volver a copiarlas al reiniciar.<br>
+ * <br>
+ * Cada imagen se identifica por su fuente, su ruta en la fuente, su tamaño y su fecha, de forma
+ * que dos imágenes con el mismo nombre en carpetas distintas no se confunden. El registro es un
+ * {@link AppendLog} con una línea por imagen importada (<code>fecha, tamaño, fuente, ruta y nombre
+ * de destino</code> separados por tabuladores). Al cargarlo se construye un índice en memoria con
+ * el hash de cada clave ({@link LongHashSet}), así que consultar si una imagen ya se ha importado
+ * no depende del número de imágenes.
+ */
+public class ImportJournal extends AppendLog {
+
+	/** Número de campos de cada línea */
+	private static final int FIELDS = 5;
+
+	/** Índice de las claves registradas */
+	private final LongHashSet m_index = new LongHashSet();
+
+	public ImportJournal(File file) {
+		super(file, "registro de importación");
+	}
+
+	@Override
+	protected void clearIndex() {
+		m_index.clear();
+	}
+
+	@Override
+	protected boolean index(String line) {
+		String key = getKey(line);
+		return key != null && m_index.add(LongHashSet.hash(key));
+	}
+
+	@Override
+	protected String getKey(String line) {
+		String[] fields = line.split(SEPARATOR, -1);
+		return fields.length == FIELDS ? getKey(fields[2], fields[3], fields[1], fields[0]) : null;
+	}
+
+	/**
+	 * Indica si una imagen ya se ha importado.
+	 */
+	public synchronized boolean contains(ImageSource source, SourceImage image) {
+		return m_index.contains(hash(source, image));
+	}
+
+	/**
+	 * Registra una imagen importada.
+	 *
+	 * @param source Fuente de la imagen.
+	 * @param image Imagen.
+	 * @param dest Archivo en el que se ha guardado.
+	 * @return <code>true</code> si se ha registrado, <code>false</code> si ya estaba o no se puede escribir.
+	 */
+	public boolean add(ImageSource source, SourceImage image, File dest) {
+		synchronized (this) {
+			if (!m_index.add(hash(source, image))) {
+				return false;
+			}
+		}
+		return write(image.getDate() + SEPARATOR + image.getSize() + SEPARATOR + clean(source.getName()) + SEPARATOR
+				+ clean(image.getPath()) + SEPARATOR + clean(dest.getName()));
+	}
+
+	/** Número de imágenes registradas */
+	@Override
+	public synchronized int size() {
+		return m_index.size();
+	}
+
+	/**
+	 * Hash de la clave de una imagen: fuente, ruta, tamaño y fecha.
+	 */
+	private static long hash(ImageSource source, SourceImage image) {
+		return LongHashSet.hash(getKey(clean(source.getName()), clean(image.getPath()), String.valueOf(image.getSize()), String.valueOf(image.getDate())));
+	}
+
+	private static String getKey(String source, String path, String size, String date) {
+		return source + SEPARATOR + path + SEPARATOR + size + SEPARATOR + date;
+	}
+}
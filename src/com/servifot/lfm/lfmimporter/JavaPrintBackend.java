@@ -0,0 +1,170 @@
+package com.servifot.lfm.lfmimporter;
+
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.print.PageFormat;
+import java.awt.print.Printable;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+import javax.print.DocFlavor;
+import javax.print.DocPrintJob;
+import javax.print.PrintException;
+import javax.print.PrintService;
+import javax.print.PrintServiceLookup;
+import javax.print.SimpleDoc;
+import javax.print.attribute.HashPrintRequestAttributeSet;
+import javax.print.attribute.PrintRequestAttributeSet;
+import javax.print.attribute.standard.JobName;
+import javax.print.attribute.standard.OrientationRequested;
+import javax.print.event.PrintJobAdapter;
+import javax.print.event.PrintJobEvent;
+
+/**
+ * Imprime desde la propia máquina virtual con <code>javax.print</code>, sin lanzar un proceso por
+ * impresión.<br>
+ * <br>
+ * El servicio de cada impresora se busca una sola vez y se reutiliza en las siguientes impresiones
+ * (si una impresión falla se vuelve a buscar). La imagen, que {@link ImagePrinter} ya deja a la
+ * resolución de la impresora, se envía tal cual, rellenando el área imprimible, y no se vuelve
+ * hasta que el sistema confirma que ha recibido el trabajo.
+ */
+public class JavaPrintBackend implements PrintBackend {
+
+	/** Nombre en la configuración */
+	public static final String NAME = "java";
+	/** Tiempo máximo de espera a que el sistema acepte el trabajo (s) */
+	public static final long PRINT_TIMEOUT = 120;
+
+	/** Servicios de impresión ya encontrados, por nombre de impresora */
+	private final ConcurrentHashMap<String, PrintService> m_services = new ConcurrentHashMap<>();
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public void print(File file, String printer) throws IOException {
+		PrintService service = getService(printer);
+		if (service == null) {
+			throw new IOException("No se encuentra la impresora " + printer);
+		}
+		BufferedImage image = ImageIO.read(file);
+		if (image == null) {
+			throw new IOException("No se puede leer " + file.getName());
+		}
+
+		PrintRequestAttributeSet attributes = new HashPrintRequestAttributeSet();
+		attributes.add(new JobName(file.getName(), null));
+		attributes.add(image.getWidth() > image.getHeight() ? OrientationRequested.LANDSCAPE : OrientationRequested.PORTRAIT);
+
+		DocPrintJob job = service.createPrintJob();
+		JobWaiter waiter = new JobWaiter();
+		job.addPrintJobListener(waiter);
+		try {
+			job.print(new SimpleDoc(new ImagePrintable(image), DocFlavor.SERVICE_FORMATTED.PRINTABLE, null), attributes);
+			if (!waiter.m_done.await(PRINT_TIMEOUT, TimeUnit.SECONDS)) {
+				throw new IOException("La impresora " + printer + " no responde");
+			}
+		} catch (PrintException e) {
+			m_services.remove(printer);
+			throw new IOException("Error imprimiendo en " + printer + ": " + e.getMessage());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Impresión interrumpida");
+		}
+		if (waiter.m_failure != null) {
+			m_services.remove(printer);
+			throw new IOException("Impresión " + waiter.m_failure + " en " + printer);
+		}
+	}
+
+	/**
+	 * Servicio de impresión de una impresora (el guardado, o lo busca).
+	 *
+	 * @return Servicio, o <code>null</code> si no existe la impresora.
+	 */
+	private PrintService getService(String printer) {
+		PrintService service = m_services.get(printer);
+		if (service != null) return service;
+		for (PrintService s : PrintServiceLookup.lookupPrintServices(DocFlavor.SERVICE_FORMATTED.PRINTABLE, null)) {
+			if (s.getName().equalsIgnoreCase(printer)) {
+				m_services.put(printer, s);
+				return s;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Dibuja la imagen rellenando el área imprimible (recortando lo que sobra, como el visor de
+	 * imágenes de Windows).
+	 */
+	private static class ImagePrintable implements Printable {
+		private final BufferedImage m_image;
+
+		ImagePrintable(BufferedImage image) {
+			m_image = image;
+		}
+
+		@Override
+		public int print(Graphics graphics, PageFormat format, int page) {
+			if (page > 0) return NO_SUCH_PAGE;
+			Graphics2D g = (Graphics2D) graphics;
+			double x = format.getImageableX();
+			double y = format.getImageableY();
+			double w = format.getImageableWidth();
+			double h = format.getImageableHeight();
+			double scale = Math.max(w / m_image.getWidth(), h / m_image.getHeight());
+			g.clipRect((int) x, (int) y, (int) Math.ceil(w), (int) Math.ceil(h));
+			g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			g.translate(x + (w - m_image.getWidth() * scale) / 2, y + (h - m_image.getHeight() * scale) / 2);
+			g.scale(scale, scale);
+			g.drawImage(m_image, 0, 0, null);
+			return PAGE_EXISTS;
+		}
+	}
+
+	/**
+	 * Espera a que el sistema de impresión acepte o rechace un trabajo.
+	 */
+	private static class JobWaiter extends PrintJobAdapter {
+		private final CountDownLatch m_done = new CountDownLatch(1);
+		/** Motivo del fallo, o <code>null</code> si se ha aceptado */
+		private volatile String m_failure = null;
+
+		@Override
+		public void printDataTransferCompleted(PrintJobEvent e) {
+			m_done.countDown();
+		}
+
+		@Override
+		public void printJobCompleted(PrintJobEvent e) {
+			m_done.countDown();
+		}
+
+		@Override
+		public void printJobNoMoreEvents(PrintJobEvent e) {
+			m_done.countDown();
+		}
+
+		@Override
+		public void printJobFailed(PrintJobEvent e) {
+			m_failure = "fallida";
+			m_done.countDown();
+		}
+
+		@Override
+		public void printJobCanceled(PrintJobEvent e) {
+			m_failure = "cancelada";
+			m_done.countDown();
+		}
+	}
+}
@@ -7,7 +7,11 @@ import java.io.OutputStreamWriter;
 import java.nio.charset.Charset;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 
 import com.servifot.lfm.utils.IniParser;
 
@@ -36,14 +40,34 @@ public class LFMConfig {
 	private String m_printerFolder = LFMImporter.USER_PRINTERFOLDER;
 	/** Carpeta desde donde sacar las fotos */
 	private String m_sourceFolder = "\\\\flashair\\DavWWWRoot\\";
+	/** Prefijo de las imágenes importadas de la carpeta de origen */
+	private String m_sourcePrefix = "";
+	/** Fuentes adicionales (otras tarjetas), sección [Sources] */
+	private ArrayList<SourceSettings> m_extraSources = new ArrayList<>();
+	/** Número de imágenes que se copian a la vez desde cada fuente */
+	private int m_importWorkers = ImportEngine.DEFAULT_WORKERS;
+	/** Imágenes que se precargan a cada lado de la seleccionada */
+	private int m_previewPrefetch = 3;
 
 	// IMPRESORAS
 	/** Impresora para imprimir */
 	private String m_printer = getCanonPrinter();
+	/** Impresoras adicionales entre las que se reparten las impresiones (printer2, printer3...) */
+	private ArrayList<String> m_extraPrinters = new ArrayList<>();
+	/** Sistema de impresión (ver {@link PrintBackend#forName(String)}) */
+	private String m_printBackend = PrintBackend.DEFAULT;
+	/** Carpeta de las impresiones del sistema de impresión "file" */
+	private String m_printFileFolder = LFMImporter.USER_PRINTOUTFOLDER;
+	/** Perfil de color ICC de cada impresora (ruta del archivo) */
+	private HashMap<String, String> m_iccProfiles = new HashMap<>();
 	/** Máscara que se superpone a las imágenes verticales para imprimir */
 	private String m_vmaskpath = "";
 	/** Máscara que se superpone a las imágenes horizontales para imprimir */
 	private String m_hmaskpath = "";
+	/** Tamaño y resolución de impresión */
+	private PrinterProfile m_printerProfile = new PrinterProfile();
+	/** Formato de las impresiones preparadas */
+	private PrintFormat m_printFormat = new PrintFormat();
 
 	// WIFI
 	/** Interfaz que se usa para buscar redes disponibles (Se apaga y enciende) */
@@ -83,10 +107,52 @@ public class LFMConfig {
 			m_cameraFolder = ini.getString("Settings", "cameraFolder", m_cameraFolder);
 			m_printerFolder = ini.getString("Settings", "printerFolder", m_printerFolder);
 			m_sourceFolder = ini.getString("Settings", "sourceFolder", m_sourceFolder);
+			m_sourcePrefix = ini.getString("Settings", "sourcePrefix", m_sourcePrefix);
+			m_importWorkers = ini.getInt("Settings", "importWorkers", m_importWorkers);
+			m_previewPrefetch = ini.getInt("Settings", "previewPrefetch", m_previewPrefetch);
+
+			// Fuentes adicionales: sourceN=ubicación, prefixN=prefijo
+			m_extraSources.clear();
+			Iterator<String> keys = ini.getKeys("Sources");
+			while (keys != null && keys.hasNext()) {
+				String key = keys.next();
+				if (key.matches("source\\d+")) {
+					String n = key.substring("source".length());
+					String location = ini.getString("Sources", key, "").trim();
+					if (!location.isEmpty()) {
+						m_extraSources.add(new SourceSettings(location, ini.getString("Sources", "prefix" + n, "S" + n + "_")));
+					}
+				}
+			}
 
 			m_printer = ini.getString("Printer", "printer", m_printer);
+			m_printBackend = ini.getString("Printer", "printBackend", m_printBackend);
+			m_printFileFolder = ini.getString("Printer", "printFileFolder", m_printFileFolder);
+			m_iccProfiles.clear();
+			setIccProfilePath(m_printer, ini.getString("Printer", "iccProfile", ""));
+			// Impresoras adicionales: printerN=nombre, iccProfileN=perfil
+			m_extraPrinters.clear();
+			Iterator<String> printerKeys = ini.getKeys("Printer");
+			while (printerKeys != null && printerKeys.hasNext()) {
+				String key = printerKeys.next();
+				if (key.matches("printer\\d+")) {
+					String printer = ini.getString("Printer", key, "").trim();
+					if (!printer.isEmpty() && !m_extraPrinters.contains(printer)) {
+						m_extraPrinters.add(printer);
+						if (!m_iccProfiles.containsKey(printer)) {
+							setIccProfilePath(printer, ini.getString("Printer", "iccProfile" + key.substring("printer".length()), ""));
+						}
+					}
+				}
+			}
 			m_vmaskpath = ini.getString("Printer", "vmaskPath", m_vmaskpath);
 			m_hmaskpath = ini.getString("Printer", "hmaskPath", m_hmaskpath);
+			m_printerProfile = new PrinterProfile(ini.getDouble("Printer", "printWidth", m_printerProfile.getWidth()),
+					ini.getDouble("Printer", "printHeight", m_printerProfile.getHeight()),
+					ini.getInt("Printer", "printDpi", m_printerProfile.getDpi()));
+			m_printFormat = new PrintFormat(ini.getString("Printer", "printFormat", m_printFormat.getFormat()),
+					(float) ini.getDouble("Printer", "printJpegQuality", m_printFormat.getJpegQuality()),
+					ini.getInt("Printer", "printPngDeflate", m_printFormat.getPngDeflateLevel()));
 
 			m_searchInterface = ini.getString("Wifi", "searchInterface", m_searchInterface);
 			m_wifiSDName = ini.getString("Wifi", "wifiSDName", m_wifiSDName);
@@ -123,12 +189,35 @@ public class LFMConfig {
 			out.write("cameraFolder=" + m_cameraFolder + br);
 			out.write("printerFolder=" + m_printerFolder + br);
 			out.write("sourceFolder=" + m_sourceFolder + br);
+			out.write("sourcePrefix=" + m_sourcePrefix + br);
+			out.write("importWorkers=" + m_importWorkers + br);
+			out.write("previewPrefetch=" + m_previewPrefetch + br);
+
+			out.write(br);
+			out.write("[Sources]" + br);
+			for (int i = 0; i < m_extraSources.size(); i++) {
+				out.write("source" + (i + 2) + "=" + m_extraSources.get(i).getLocation() + br);
+				out.write("prefix" + (i + 2) + "=" + m_extraSources.get(i).getPrefix() + br);
+			}
 
 			out.write(br);
 			out.write("[Printer]" + br);
 			out.write("printer=" + m_printer + br);
+			out.write("iccProfile=" + getIccProfilePath(m_printer) + br);
+			for (int i = 0; i < m_extraPrinters.size(); i++) {
+				out.write("printer" + (i + 2) + "=" + m_extraPrinters.get(i) + br);
+				out.write("iccProfile" + (i + 2) + "=" + getIccProfilePath(m_extraPrinters.get(i)) + br);
+			}
+			out.write("printBackend=" + m_printBackend + br);
+			out.write("printFileFolder=" + m_printFileFolder + br);
 			out.write("vmaskPath=" + m_vmaskpath + br);
 			out.write("hmaskPath=" + m_hmaskpath + br);
+			out.write("printWidth=" + m_printerProfile.getWidth() + br);
+			out.write("printHeight=" + m_printerProfile.getHeight() + br);
+			out.write("printDpi=" + m_printerProfile.getDpi() + br);
+			out.write("printFormat=" + m_printFormat.getFormat() + br);
+			out.write("printJpegQuality=" + m_printFormat.getJpegQuality() + br);
+			out.write("printPngDeflate=" + m_printFormat.getPngDeflateLevel() + br);
 
 			out.write(br);
 			out.write("[Wifi]" + br);
@@ -170,6 +259,50 @@ public class LFMConfig {
 		m_sourceFolder = sourceFolder;
 	}
 
+	public String getSourcePrefix() {
+		return m_sourcePrefix;
+	}
+
+	public void setSourcePrefix(String sourcePrefix) {
+		m_sourcePrefix = sourcePrefix;
+	}
+
+	/**
+	 * Todas las fuentes de imágenes: la carpeta de origen (que se conecta por wifi) y las
+	 * adicionales de la sección [Sources].
+	 */
+	public List<SourceSettings> getSources() {
+		ArrayList<SourceSettings> sources = new ArrayList<>();
+		sources.add(new SourceSettings(m_sourceFolder, m_sourcePrefix));
+		sources.addAll(m_extraSources);
+		return sources;
+	}
+
+	/** Fuentes adicionales (sin la carpeta de origen) */
+	public List<SourceSettings> getExtraSources() {
+		return new ArrayList<>(m_extraSources);
+	}
+
+	public void setExtraSources(List<SourceSettings> extraSources) {
+		m_extraSources = new ArrayList<>(extraSources);
+	}
+
+	public int getImportWorkers() {
+		return m_importWorkers;
+	}
+
+	public void setImportWorkers(int importWorkers) {
+		m_importWorkers = importWorkers;
+	}
+
+	public int getPreviewPrefetch() {
+		return m_previewPrefetch;
+	}
+
+	public void setPreviewPrefetch(int previewPrefetch) {
+		m_previewPrefetch = previewPrefetch;
+	}
+
 	public String getPrinter() {
 		return m_printer;
 	}
@@ -178,6 +311,61 @@ public class LFMConfig {
 		m_printer = printer;
 	}
 
+	/**
+	 * Todas las impresoras entre las que se reparten las impresiones: la principal y las adicionales.
+	 */
+	public List<String> getPrinters() {
+		ArrayList<String> printers = new ArrayList<>();
+		printers.add(m_printer);
+		for (String printer : m_extraPrinters) {
+			if (!printers.contains(printer)) printers.add(printer);
+		}
+		return printers;
+	}
+
+	/** Impresoras adicionales (sin la principal) */
+	public List<String> getExtraPrinters() {
+		return new ArrayList<>(m_extraPrinters);
+	}
+
+	public void setExtraPrinters(List<String> extraPrinters) {
+		m_extraPrinters = new ArrayList<>(extraPrinters);
+	}
+
+	public String getPrintBackend() {
+		return m_printBackend;
+	}
+
+	public void setPrintBackend(String printBackend) {
+		m_printBackend = printBackend;
+	}
+
+	/**
+	 * Perfil de color ICC de una impresora.
+	 *
+	 * @return Ruta del archivo, o una cadena vacía si la impresora no tiene perfil.
+	 */
+	public String getIccProfilePath(String printer) {
+		String path = m_iccProfiles.get(printer);
+		return path != null ? path : "";
+	}
+
+	public void setIccProfilePath(String printer, String path) {
+		if (path == null || path.trim().isEmpty()) {
+			m_iccProfiles.remove(printer);
+		} else {
+			m_iccProfiles.put(printer, path.trim());
+		}
+	}
+
+	public String getPrintFileFolder() {
+		return m_printFileFolder;
+	}
+
+	public void setPrintFileFolder(String printFileFolder) {
+		m_printFileFolder = printFileFolder;
+	}
+
 	public String getVMaskPath() {
 		return m_vmaskpath;
 	}
@@ -194,6 +382,22 @@ public class LFMConfig {
 		m_hmaskpath = maskpath;
 	}
 
+	public PrinterProfile getPrinterProfile() {
+		return m_printerProfile;
+	}
+
+	public void setPrinterProfile(PrinterProfile printerProfile) {
+		m_printerProfile = printerProfile;
+	}
+
+	public PrintFormat getPrintFormat() {
+		return m_printFormat;
+	}
+
+	public void setPrintFormat(PrintFormat printFormat) {
+		m_printFormat = printFormat;
+	}
+
 	public String getSearchInterface() {
 		return m_searchInterface;
 	}
@@ -37,6 +37,12 @@ public class LFMImporter extends Application implements ViewListener {
 	public static final String USER_IMAGESFOLDER = USER_FOLDER + "/cameraImages";
 	/** Ruta POR DEFECTO de la carpeta de imagenes para imprimir */
 	public static final String USER_PRINTERFOLDER = USER_FOLDER + "/printerImages";
+	/** Carpeta donde deja las impresiones el sistema de impresión de pruebas ({@link FilePrintBackend}) */
+	public static final String USER_PRINTOUTFOLDER = USER_FOLDER + "/printOutput";
+	/** Carpeta de las impresiones pasadas al perfil de color de cada impresora ({@link ColorManagedPrintBackend}) */
+	public static final String USER_PRINTCOLORFOLDER = USER_FOLDER + "/printColor";
+	/** Registro de las imágenes ya importadas */
+	public static final String USER_IMPORTJOURNAL = USER_FOLDER + "/importjournal.txt";
 
 
 	/** Número de la posición central de las ventanas superpuestas  */
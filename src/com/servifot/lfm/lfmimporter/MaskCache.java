@@ -0,0 +1,148 @@
+package com.servifot.lfm.lfmimporter;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.color.ColorSpace;
+import java.awt.color.ICC_Profile;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import javax.imageio.ImageIO;
+
+import com.servifot.lfm.utils.ImageCache;
+import com.servifot.lfm.utils.LFMUtils;
+
+import javafx.scene.shape.Rectangle;
+
+/**
+ * Caché de las máscaras de impresión ya decodificadas y escaladas.<br>
+ * <br>
+ * Cada máscara se guarda ya encajada en el lienzo de la impresión (del mismo tamaño que éste) y
+ * con alfa premultiplicado, así que componerla es una copia directa en (0, 0) sin decodificar ni
+ * escalar. La clave incluye la ruta, el tamaño y la fecha del archivo (ver
+ * {@link ImageCache#key(File, Object)}) y el tamaño del lienzo, de modo que una máscara modificada en disco no devuelve la versión
+ * antigua. Las máscaras están en sRGB: si la impresión se compone en otro perfil (ver
+ * {@link ImagePrinter}), se guarda también pasada a ese perfil. Se vacía al aplicar una
+ * configuración nueva ({@link #clear()}).
+ */
+public class MaskCache {
+
+	/** Máscaras que se guardan (vertical y horizontal, a un par de tamaños o perfiles) */
+	public static final int MAX_ENTRIES = 4;
+
+	/** Máscaras escaladas, en orden de uso */
+	private static final LinkedHashMap<String, BufferedImage> s_masks = new LinkedHashMap<>(8, 0.75f, true);
+
+	/* Estadísticas */
+	private static long s_hits = 0;
+	private static long s_misses = 0;
+
+	/**
+	 * Devuelve una máscara encajada en un lienzo, decodificándola si no está en la caché. La
+	 * decodificación y el escalado se hacen fuera del bloqueo, así que los demás threads no esperan
+	 * por ellos; si dos threads preparan la misma máscara a la vez, se queda la última.
+	 *
+	 * @param maskFile Archivo de la máscara.
+	 * @param width Anchura del lienzo (px).
+	 * @param height Altura del lienzo (px).
+	 * @param profile Perfil en el que se compone la impresión (<code>null</code>: sRGB).
+	 * @return Máscara del tamaño del lienzo en <code>TYPE_INT_ARGB_PRE</code>, con los colores en
+	 *         ese perfil, o <code>null</code> si no se puede leer.
+	 */
+	public static BufferedImage getMask(File maskFile, int width, int height, ICC_Profile profile) {
+		if (!maskFile.isFile() || width <= 0 || height <= 0) {
+			return null;
+		}
+		String key = ImageCache.key(maskFile, width + "x" + height + (profile != null ? "|" + ColorTransformCache.profileKey(profile) : ""));
+		synchronized (MaskCache.class) {
+			BufferedImage mask = s_masks.get(key);
+			if (mask != null) {
+				s_hits++;
+				return mask;
+			}
+			s_misses++;
+		}
+		BufferedImage mask = load(maskFile, width, height, profile);
+		if (mask == null) {
+			return null;
+		}
+		synchronized (MaskCache.class) {
+			s_masks.put(key, mask);
+			Iterator<String> it = s_masks.keySet().iterator();
+			while (s_masks.size() > MAX_ENTRIES && it.hasNext()) {
+				it.next();
+				it.remove();
+			}
+		}
+		return mask;
+	}
+
+	/**
+	 * Decodifica una máscara, la pasa al perfil de la impresión y la encaja en un lienzo.
+	 *
+	 * @return Máscara, o <code>null</code> si no se puede leer.
+	 */
+	private static BufferedImage load(File maskFile, int width, int height, ICC_Profile profile) {
+		try {
+			BufferedImage source = ImageIO.read(maskFile);
+			if (source == null) {
+				System.err.println("No se puede leer la máscara " + maskFile.getAbsolutePath());
+				return null;
+			}
+			if (profile != null) {
+				source = toProfile(source, profile);
+			}
+			Rectangle canvasrect = new Rectangle(width, height);
+			Rectangle maskrect = new Rectangle(source.getWidth(), source.getHeight());
+			Rectangle dest = LFMUtils.fitRectangle(maskrect, canvasrect);
+
+			BufferedImage mask = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB_PRE);
+			Graphics2D g = mask.createGraphics();
+			g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+			g.drawImage(source, (int) dest.getX(), (int) dest.getY(), (int) dest.getWidth(), (int) dest.getHeight(), null);
+			g.dispose();
+			return mask;
+		} catch (Exception e) {
+			System.err.println("No se puede leer la máscara " + maskFile.getAbsolutePath() + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Pasa los colores de una máscara de sRGB a otro perfil, conservando su transparencia.
+	 *
+	 * @return Máscara <code>TYPE_INT_ARGB</code> con los colores en el perfil (etiquetada como sRGB).
+	 */
+	private static BufferedImage toProfile(BufferedImage source, ICC_Profile profile) {
+		int width = source.getWidth();
+		int height = source.getHeight();
+		int[] argb = source.getRGB(0, 0, width, height, null, 0, width);
+		BufferedImage rgb = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		rgb.setRGB(0, 0, width, height, argb, 0, width);
+		int[] converted = ColorTransformCache.convert(rgb, ICC_Profile.getInstance(ColorSpace.CS_sRGB), profile).getRGB(0, 0, width, height, null, 0, width);
+		for (int i = 0; i < argb.length; i++) {
+			argb[i] = (argb[i] & 0xFF000000) | (converted[i] & 0xFFFFFF);
+		}
+		BufferedImage result = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		result.setRGB(0, 0, width, height, argb, 0, width);
+		return result;
+	}
+
+	/**
+	 * Vacía la caché (por ejemplo, al cambiar las máscaras en la configuración).
+	 */
+	public static synchronized void clear() {
+		s_masks.clear();
+	}
+
+	public static synchronized long getHits() {
+		return s_hits;
+	}
+
+	public static synchronized long getMisses() {
+		return s_misses;
+	}
+}
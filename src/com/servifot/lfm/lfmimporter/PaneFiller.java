@@ -1,59 +1,186 @@
 package com.servifot.lfm.lfmimporter;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
 
-import com.servifot.lfm.lfmimporter.SearchThumbnailWidget.SearchThumbnailWidgetListener;
 import com.servifot.lfm.utils.FXWorker;
 import com.servifot.lfm.utils.FileUtils;
 import com.servifot.lfm.utils.LFMUtils;
 
-import javafx.scene.layout.TilePane;
-
 /**
- * Llena un panel de imágenes
+ * Llena una rejilla de miniaturas con las imágenes de una carpeta.<br>
+ * <br>
+ * Funciona como una cadena de tres etapas:<br>
+ * - Este thread lista y ordena los archivos (los más recientes primero) y los reparte.<br>
+ * - Un pool de tantos threads como núcleos genera en paralelo las miniaturas que falten en
+ * {@link ThumbnailStore} (lectura de metadatos y decodificación), y deja en la caché las de las
+ * primeras pantallas.<br>
+ * - Un consumidor recoge los resultados en orden y los pasa a la rejilla en lotes.<br>
+ * <br>
+ * La cola entre etapas está acotada y los lotes se entregan de forma síncrona, de forma que los
+ * workers nunca van más adelantados que la interfaz. {@link #kill()} detiene las tres etapas.
  *
  * @author FRANCESC
  *
  */
 public class PaneFiller extends Thread {
 
-    private TilePane m_tp = null;
+    /** Trabajos pendientes por worker antes de bloquear al productor */
+    public static final int QUEUE_PER_WORKER = 4;
+    /** Número máximo de imágenes por lote entregado a la interfaz */
+    public static final int BATCH_SIZE = 48;
+    /** Tiempo máximo de espera antes de entregar un lote incompleto (ms) */
+    public static final long BATCH_TIMEOUT = 100;
+    /** Número de miniaturas que se dejan decodificadas en la caché (aprox. las primeras pantallas) */
+    public static final int PRELOAD_COUNT = 100;
+
+    /** Marca de fin de la cola de trabajos */
+    private static final Future<File> END = new FutureTask<File>(() -> null);
+
+    private SearchThumbnailGrid m_grid = null;
     private File m_folder = null;
-    private boolean m_die = false;
-    private SearchThumbnailWidgetListener m_thumbslistener = null;
+    private volatile boolean m_die = false;
+    /** Workers que generan las miniaturas */
+    private volatile ExecutorService m_workers = null;
+    /** Thread que entrega los lotes a la interfaz */
+    private volatile Thread m_consumer = null;
 
-    public PaneFiller(TilePane tp, File folder, SearchThumbnailWidgetListener listener) {
-    	m_tp = tp;
+    public PaneFiller(SearchThumbnailGrid grid, File folder) {
+    	super("PaneFiller");
+    	m_grid = grid;
     	m_folder = folder;
-    	m_thumbslistener = listener;
     }
 
     @Override
     public void run() {
-        if ((m_tp == null) || (m_folder == null) || !m_folder.exists()) {
+        if ((m_grid == null) || (m_folder == null) || !m_folder.exists()) {
         	return;
         }
 
         File[] folderFiles = m_folder.listFiles();
-        if (folderFiles.length < 1) return;
+        if (folderFiles == null || folderFiles.length < 1) return;
 
         File[] sortedFiles = LFMUtils.sortByDate(folderFiles);
-        for (File file : sortedFiles) {
-        	if (m_die) return;
-        	if (FileUtils.getExtension(file.getAbsolutePath()).toLowerCase().equals("jpg")) {
-        		SearchThumbnailWidget st = new SearchThumbnailWidget(file);
-        		st.setListener(m_thumbslistener);
-        		FXWorker.runAsync(FXWorker.JOBTYPE_ADD_SEARCHCHILD, m_tp, st, 0);
+        // Las más recientes primero
+        ArrayList<File> images = new ArrayList<>();
+        for (int i = sortedFiles.length - 1; i >= 0; i--) {
+        	if (FileUtils.getExtension(sortedFiles[i].getAbsolutePath()).toLowerCase().equals("jpg")) {
+        		images.add(sortedFiles[i]);
+        	}
+        }
+        if (images.isEmpty()) return;
+
+        int workers = Runtime.getRuntime().availableProcessors();
+        BlockingQueue<Future<File>> results = new ArrayBlockingQueue<>(workers * QUEUE_PER_WORKER);
+        m_workers = Executors.newFixedThreadPool(workers, r -> {
+        	Thread t = new Thread(r, "PaneFiller-worker");
+        	t.setDaemon(true);
+        	return t;
+        });
+        m_consumer = new Thread(() -> consume(results), "PaneFiller-consumer");
+        m_consumer.setDaemon(true);
+        m_consumer.start();
+
+        try {
+        	for (int i = 0; i < images.size() && !m_die; i++) {
+        		// put bloquea cuando la cola está llena
+        		results.put(m_workers.submit(new ThumbJob(images.get(i), i < PRELOAD_COUNT)));
         	}
+        	results.put(END);
+        } catch (Exception e) {
+        	// Cancelado con kill()
+        } finally {
+        	m_workers.shutdown();
         }
-        m_die = false;
+    }
+
+    /**
+     * Recoge los resultados en el orden en que se repartieron y los entrega a la rejilla en lotes.
+     */
+    private void consume(BlockingQueue<Future<File>> results) {
+    	ArrayList<File> batch = new ArrayList<>(BATCH_SIZE);
+    	boolean finished = false;
+    	try {
+    		while (!m_die) {
+    			Future<File> result = results.poll(BATCH_TIMEOUT, TimeUnit.MILLISECONDS);
+    			if (result == END) {
+    				break;
+    			}
+    			if (result != null) {
+    				try {
+    					batch.add(result.get());
+    				} catch (ExecutionException e) {
+    					// Si no se puede generar una miniatura, se salta la imagen y se sigue con las demás
+    					System.err.println("No se puede generar una miniatura: " + e.getCause());
+    				}
+    			}
+    			if (batch.size() >= BATCH_SIZE || (result == null && !batch.isEmpty())) {
+    				flush(batch);
+    			}
+    		}
+    		if (!m_die) flush(batch);
+    		finished = true;
+    	} catch (Exception e) {
+    		if (!m_die) {
+    			System.err.println("Error llenando la rejilla de miniaturas: " + e.getMessage());
+    		}
+    	} finally {
+    		// Sin consumidor, el productor se quedaría bloqueado con la cola llena
+    		if (!finished) kill();
+    	}
+    }
+
+    /**
+     * Entrega un lote a la rejilla y espera a que la interfaz lo procese.
+     */
+    private void flush(ArrayList<File> batch) {
+    	if (batch.isEmpty()) return;
+    	FXWorker.runSync(FXWorker.JOBTYPE_ADD_SEARCHCHILD, m_grid, batch.toArray(new File[batch.size()]), -1);
+    	batch.clear();
     }
 
     public void kill() {
     	m_die = true;
+    	interrupt();
+    	ExecutorService workers = m_workers;
+    	if (workers != null) workers.shutdownNow();
+    	Thread consumer = m_consumer;
+    	if (consumer != null) consumer.interrupt();
     }
 
     public boolean isKilled() {
     	return m_die;
     }
+
+    /**
+     * Genera la miniatura de una imagen en el almacén y, si se pide, la deja en la caché.
+     */
+    private static class ThumbJob implements Callable<File> {
+    	private final File m_file;
+    	private final boolean m_preload;
+
+    	ThumbJob(File file, boolean preload) {
+    		m_file = file;
+    		m_preload = preload;
+    	}
+
+    	@Override
+    	public File call() {
+    		if (m_preload) {
+    			ThumbnailStore.getImage(m_file, ThumbnailStore.SIZE_SEARCH);
+    		} else {
+    			ThumbnailStore.create(m_file);
+    		}
+    		return m_file;
+    	}
+    }
 }
@@ -0,0 +1,358 @@
+package com.servifot.lfm.lfmimporter;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.event.IIOReadProgressListener;
+import javax.imageio.stream.ImageInputStream;
+
+import com.servifot.lfm.utils.ImageCache;
+import com.servifot.lfm.utils.ImageOrientation;
+import com.servifot.lfm.utils.ImageUtils;
+import com.servifot.lfm.utils.JPEGMetadata;
+
+import javafx.application.Platform;
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+
+/**
+ * Carga en segundo plano las previsualizaciones del visor principal.<br>
+ * <br>
+ * Las imágenes de la cámara se decodifican con submuestreo directamente al tamaño del visor (sin
+ * llegar a reservar la imagen a resolución completa) y se giran según su orientación EXIF durante
+ * la carga, así que el visor no tiene que girarlas.<br>
+ * <br>
+ * Sólo cuenta la última petición: al pedir otra imagen se aborta la decodificación en curso y las
+ * peticiones anteriores ya no se entregan. Las últimas previsualizaciones quedan en
+ * {@link ImageCache#getPreviews()}.<br>
+ * <br>
+ * Con {@link #prefetch(List)} se cargan con baja prioridad las imágenes vecinas de la
+ * seleccionada, para que al pasar a la siguiente ya esté en la caché. Las precargas se cancelan
+ * cuando se pide otra precarga, y nunca ocupan más de {@link #PREFETCH_BUDGET_RATIO} de la caché.
+ * Cada {@link #STATS_INTERVAL} peticiones se muestran los aciertos.
+ */
+public class PreviewLoader {
+
+	/** Parte de la caché de previsualizaciones que pueden ocupar las precargas */
+	public static final double PREFETCH_BUDGET_RATIO = 0.5;
+	/** Cada cuántas peticiones se muestran las estadísticas */
+	public static final int STATS_INTERVAL = 50;
+
+	/** Anchura máxima de las previsualizaciones (px) */
+	private final int m_width;
+	/** Altura máxima de las previsualizaciones (px) */
+	private final int m_height;
+	/** Thread de carga */
+	private final ExecutorService m_executor;
+	/** Número de la última petición; las cargas de peticiones anteriores se descartan */
+	private final AtomicLong m_generation = new AtomicLong();
+	/** Thread de precarga (baja prioridad) */
+	private final ExecutorService m_prefetcher;
+	/** Número de la última precarga; las precargas anteriores se cancelan */
+	private final AtomicLong m_prefetchGeneration = new AtomicLong();
+	/** Claves de las previsualizaciones precargadas que todavía no se han pedido */
+	private final Set<String> m_prefetchedKeys = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	/** Peticiones */
+	private final AtomicLong m_loads = new AtomicLong();
+	/** Peticiones servidas desde la caché */
+	private final AtomicLong m_hits = new AtomicLong();
+	/** Peticiones servidas desde la caché gracias a una precarga */
+	private final AtomicLong m_prefetchHits = new AtomicLong();
+	/** Previsualizaciones precargadas */
+	private final AtomicLong m_prefetched = new AtomicLong();
+	/** Precargas canceladas antes de terminar */
+	private final AtomicLong m_prefetchCancelled = new AtomicLong();
+
+	/**
+	 * @param width Anchura máxima de las previsualizaciones (px).
+	 * @param height Altura máxima de las previsualizaciones (px).
+	 */
+	public PreviewLoader(int width, int height) {
+		m_width = width;
+		m_height = height;
+		m_executor = Executors.newSingleThreadExecutor(r -> {
+			Thread t = new Thread(r, "PreviewLoader");
+			t.setDaemon(true);
+			return t;
+		});
+		m_prefetcher = Executors.newSingleThreadExecutor(r -> {
+			Thread t = new Thread(r, "PreviewLoader-prefetch");
+			t.setDaemon(true);
+			t.setPriority(Thread.MIN_PRIORITY);
+			return t;
+		});
+	}
+
+	/**
+	 * Devuelve la previsualización de un archivo si ya está en la caché.
+	 */
+	public Image getCached(File file) {
+		return ImageCache.getPreviews().get(getKey(file));
+	}
+
+	/**
+	 * Pide la previsualización de un archivo y cancela las peticiones anteriores. Si está en la
+	 * caché y se pide desde el thread de JavaFX se entrega inmediatamente; si no, se entrega en el
+	 * thread de JavaFX (cargándola antes en segundo plano si hace falta), salvo que mientras tanto
+	 * se haya pedido otra.
+	 *
+	 * @param file Imagen de la carpeta de la cámara.
+	 * @param listener Receptor de la previsualización.
+	 */
+	public void load(File file, PreviewLoaderListener listener) {
+		long generation = m_generation.incrementAndGet();
+		Image image = getCached(file);
+		countLoad(file, image != null);
+		if (image != null) {
+			if (Platform.isFxApplicationThread()) {
+				listener.onPreviewLoaded(file, image);
+			} else {
+				// Desde otro thread (una importación) no puede pasar por delante de una petición posterior
+				deliver(file, image, listener, generation);
+			}
+			return;
+		}
+		m_executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				if (generation != m_generation.get()) return;
+				Image image = decode(file, m_generation, generation);
+				if (image == null || generation != m_generation.get()) return;
+				deliver(file, image, listener, generation);
+			}
+		});
+	}
+
+	/**
+	 * Entrega una previsualización en el thread de JavaFX si no se ha pedido otra mientras tanto.
+	 */
+	private void deliver(File file, Image image, PreviewLoaderListener listener, long generation) {
+		Platform.runLater(new Runnable() {
+			@Override
+			public void run() {
+				if (generation == m_generation.get()) {
+					listener.onPreviewLoaded(file, image);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Precarga en segundo plano y con baja prioridad las previsualizaciones de varias imágenes,
+	 * cancelando las precargas anteriores que no hayan terminado.
+	 *
+	 * @param files Imágenes a precargar, de la más a la menos probable.
+	 */
+	public void prefetch(List<File> files) {
+		long generation = m_prefetchGeneration.incrementAndGet();
+		int limit = (int) Math.min(files.size(), getPrefetchLimit());
+		for (int i = 0; i < limit; i++) {
+			File file = files.get(i);
+			if (ImageCache.getPreviews().contains(getKey(file))) continue;
+			m_prefetcher.execute(new Runnable() {
+				@Override
+				public void run() {
+					if (generation != m_prefetchGeneration.get() || ImageCache.getPreviews().contains(getKey(file))) {
+						m_prefetchCancelled.incrementAndGet();
+						return;
+					}
+					if (decode(file, m_prefetchGeneration, generation) != null) {
+						m_prefetched.incrementAndGet();
+						m_prefetchedKeys.add(getKey(file));
+					} else {
+						m_prefetchCancelled.incrementAndGet();
+					}
+				}
+			});
+		}
+		// Las claves de precargas que ya se han expulsado de la caché no se van a pedir
+		if (m_prefetchedKeys.size() > limit * 4) {
+			m_prefetchedKeys.clear();
+		}
+	}
+
+	/**
+	 * Número máximo de previsualizaciones que se precargan, según el presupuesto de la caché.
+	 */
+	public long getPrefetchLimit() {
+		long previewBytes = (long) m_width * m_height * 4;
+		return (long) (ImageCache.getPreviews().getBudget() * PREFETCH_BUDGET_RATIO) / previewBytes;
+	}
+
+	/**
+	 * Descarta las peticiones pendientes y detiene los threads. El cargador no se debe usar después.
+	 */
+	public void dispose() {
+		m_generation.incrementAndGet();
+		m_prefetchGeneration.incrementAndGet();
+		m_executor.shutdownNow();
+		m_prefetcher.shutdownNow();
+	}
+
+	/**
+	 * Cuenta una petición y muestra las estadísticas de vez en cuando.
+	 */
+	private void countLoad(File file, boolean hit) {
+		long loads = m_loads.incrementAndGet();
+		if (hit) {
+			m_hits.incrementAndGet();
+			if (m_prefetchedKeys.remove(getKey(file))) {
+				m_prefetchHits.incrementAndGet();
+			}
+		}
+		if (loads % STATS_INTERVAL == 0) {
+			System.out.println(getStats());
+		}
+	}
+
+	/**
+	 * Estadísticas de aciertos de la caché y de las precargas.
+	 */
+	public String getStats() {
+		long loads = m_loads.get();
+		return "PreviewLoader: " + loads + " peticiones, " + m_hits.get() + " en caché ("
+				+ (loads > 0 ? m_hits.get() * 100 / loads : 0) + "%), " + m_prefetchHits.get() + " gracias a precargas; "
+				+ m_prefetched.get() + " precargadas, " + m_prefetchCancelled.get() + " canceladas";
+	}
+
+	/** Peticiones */
+	public long getLoads() {
+		return m_loads.get();
+	}
+
+	/** Peticiones servidas desde la caché */
+	public long getHits() {
+		return m_hits.get();
+	}
+
+	/** Peticiones servidas desde la caché gracias a una precarga */
+	public long getPrefetchHits() {
+		return m_prefetchHits.get();
+	}
+
+	/** Previsualizaciones precargadas */
+	public long getPrefetched() {
+		return m_prefetched.get();
+	}
+
+	/**
+	 * Decodifica una previsualización y la guarda en la caché.
+	 *
+	 * @param counter Contador de peticiones: si cambia, la decodificación se cancela.
+	 * @param generation Valor del contador para esta petición.
+	 * @return Previsualización, o <code>null</code> si no se puede leer o se ha cancelado.
+	 */
+	private Image decode(File file, AtomicLong counter, long generation) {
+		ImageOrientation orientation = ImageOrientation.TOP;
+		JPEGMetadata meta = new JPEGMetadata();
+		if (meta.load(file)) {
+			orientation = meta.getOrientation();
+		}
+		// Si la imagen está girada 90º, la anchura de los píxeles es la altura del visor
+		boolean swap = orientation == ImageOrientation.LEFT || orientation == ImageOrientation.RIGHT;
+		int boxWidth = swap ? m_height : m_width;
+		int boxHeight = swap ? m_width : m_height;
+
+		BufferedImage decoded = null;
+		ImageReader reader = null;
+		try (ImageInputStream is = ImageIO.createImageInputStream(file)) {
+			if (is == null) return null;
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(is);
+			if (!readers.hasNext()) return null;
+			reader = readers.next();
+			reader.setInput(is, true, true);
+			int width = reader.getWidth(0);
+			int height = reader.getHeight(0);
+			double scale = Math.min((double) boxWidth / width, (double) boxHeight / height);
+			ImageReadParam param = reader.getDefaultReadParam();
+			int subsampling = ImageUtils.getSubsampling(width, height, (int) Math.ceil(width * scale), (int) Math.ceil(height * scale));
+			if (subsampling > 1) {
+				param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+			}
+			// El lector sólo se puede abortar desde su propio thread: se comprueba en cada aviso de progreso
+			reader.addIIOReadProgressListener(new StaleCheck(counter, generation));
+			decoded = reader.read(0, param);
+		} catch (Exception e) {
+			if (generation == counter.get()) {
+				System.err.println("No se puede decodificar la previsualización de " + file.getAbsolutePath() + ": " + e.getMessage());
+			}
+			return null;
+		} finally {
+			if (reader != null) reader.dispose();
+		}
+		if (decoded == null || generation != counter.get()) return null;
+
+		decoded = ImageUtils.scaleToFit(ImageUtils.applyOrientation(decoded, orientation), m_width, m_height);
+		Image image = toFXImage(decoded);
+		ImageCache.getPreviews().put(getKey(file), image);
+		return image;
+	}
+
+	private static String getKey(File file) {
+		return ImageCache.key(file, "preview");
+	}
+
+	/**
+	 * Copia los píxeles de una imagen AWT a una imagen de JavaFX.
+	 */
+	private static Image toFXImage(BufferedImage image) {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+		WritableImage fx = new WritableImage(width, height);
+		fx.getPixelWriter().setPixels(0, 0, width, height, PixelFormat.getIntArgbInstance(), pixels, 0, width);
+		return fx;
+	}
+
+	/**
+	 * Aborta la decodificación si mientras tanto se ha hecho otra petición.
+	 */
+	private static class StaleCheck implements IIOReadProgressListener {
+		private final AtomicLong m_counter;
+		private final long m_generation;
+
+		StaleCheck(AtomicLong counter, long generation) {
+			m_counter = counter;
+			m_generation = generation;
+		}
+
+		@Override
+		public void imageProgress(ImageReader source, float percentageDone) {
+			if (m_generation != m_counter.get()) source.abort();
+		}
+
+		@Override
+		public void sequenceStarted(ImageReader source, int minIndex) {}
+		@Override
+		public void sequenceComplete(ImageReader source) {}
+		@Override
+		public void imageStarted(ImageReader source, int imageIndex) {}
+		@Override
+		public void imageComplete(ImageReader source) {}
+		@Override
+		public void thumbnailStarted(ImageReader source, int imageIndex, int thumbnailIndex) {}
+		@Override
+		public void thumbnailProgress(ImageReader source, float percentageDone) {}
+		@Override
+		public void thumbnailComplete(ImageReader source) {}
+		@Override
+		public void readAborted(ImageReader source) {}
+	}
+
+	public interface PreviewLoaderListener {
+		/** Previsualización cargada (se llama desde el thread de JavaFX o desde el que la pide si estaba en la caché) */
+		public void onPreviewLoaded(File file, Image image);
+	}
+}
@@ -0,0 +1,50 @@
+package com.servifot.lfm.lfmimporter;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Forma de enviar una imagen a una impresora.<br>
+ * <br>
+ * {@link RundllPrintBackend} usa el visor de imágenes de Windows, {@link JavaPrintBackend} imprime
+ * desde la máquina virtual, {@link FilePrintBackend} deja las impresiones en una carpeta y
+ * {@link RecordingPrintBackend} sólo simula y anota las impresiones (estos dos, para pruebas).
+ * {@link #forName(String)} elige la implementación según la configuración.
+ * {@link ColorManagedPrintBackend} se pone delante de cualquiera de ellas para aplicar el perfil de
+ * color de cada impresora.
+ */
+public interface PrintBackend {
+
+	/** Nombre del sistema de impresión por defecto */
+	public static final String DEFAULT = "rundll";
+
+	/**
+	 * Descripción del sistema de impresión, para los mensajes.
+	 */
+	public String getName();
+
+	/**
+	 * Imprime una imagen. No vuelve hasta que la impresora ha aceptado el trabajo.
+	 *
+	 * @param file Imagen a imprimir.
+	 * @param printer Nombre de la impresora.
+	 * @throws IOException Si no se puede imprimir.
+	 */
+	public void print(File file, String printer) throws IOException;
+
+	/**
+	 * Crea el sistema de impresión que corresponde a un nombre de la configuración.
+	 */
+	public static PrintBackend forName(String name) {
+		if (JavaPrintBackend.NAME.equalsIgnoreCase(name)) {
+			return new JavaPrintBackend();
+		}
+		if (FilePrintBackend.NAME.equalsIgnoreCase(name)) {
+			return new FilePrintBackend(new File(LFMImporter.getConfig().getPrintFileFolder()));
+		}
+		if (RecordingPrintBackend.NAME.equalsIgnoreCase(name)) {
+			return new RecordingPrintBackend();
+		}
+		return new RundllPrintBackend();
+	}
+}
@@ -0,0 +1,347 @@
+package com.servifot.lfm.lfmimporter;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Reparte las imágenes a imprimir entre varias impresoras.<br>
+ * <br>
+ * Cada impresora tiene su propia cola y su propio thread ({@link PrinterQueue}). Cada imagen se
+ * asigna a la impresora que terminaría antes: la que tiene menos trabajos por delante multiplicados
+ * por su tiempo medio por impresión (que se va midiendo; al principio se supone
+ * {@link #DEFAULT_PRINT_TIME}). Cada impresora tiene como mucho {@link #MAX_DEPTH} trabajos
+ * asignados; el resto espera en una cola común y se asigna a medida que las impresoras terminan,
+ * así que en una ráfaga las impresoras rápidas acaban imprimiendo más. Si una impresora falla, la imagen se reintenta en otra que todavía
+ * no lo haya intentado, y la impresora que ha fallado no recibe trabajos durante
+ * {@link #FAILURE_COOLDOWN} ms mientras haya otras disponibles.<br>
+ * <br>
+ * Las impresiones se envían con el {@link PrintBackend} indicado.
+ */
+public class PrintDispatcher {
+
+	/** Tiempo por impresión que se supone antes de medirlo (ms) */
+	public static final long DEFAULT_PRINT_TIME = 10000;
+	/** Peso de la última impresión en el tiempo medio de una impresora */
+	public static final double TIME_SMOOTHING = 0.3;
+	/** Tiempo que una impresora que ha fallado no recibe trabajos (ms) */
+	public static final long FAILURE_COOLDOWN = 30000;
+	/** Trabajos asignados como máximo a cada impresora (el que imprime y el siguiente) */
+	public static final int MAX_DEPTH = 2;
+
+	/** Sistema de impresión */
+	private final PrintBackend m_backend;
+	/** Impresoras */
+	private final ArrayList<PrinterQueue> m_printers = new ArrayList<>();
+	/** Trabajos que esperan a que alguna impresora tenga sitio */
+	private final ArrayDeque<Job> m_backlog = new ArrayDeque<>();
+	/** Imágenes pendientes de imprimir (ruta) */
+	private final HashSet<String> m_pending = new HashSet<>();
+	/** Listener */
+	private PrintDispatcherListener m_listener = null;
+
+	/**
+	 * @param printers Nombres de las impresoras.
+	 * @param backend Sistema de impresión.
+	 */
+	public PrintDispatcher(List<String> printers, PrintBackend backend) {
+		m_backend = backend;
+		for (String printer : printers) {
+			PrinterQueue queue = new PrinterQueue(printer);
+			m_printers.add(queue);
+			queue.start();
+		}
+	}
+
+	/**
+	 * Encola una imagen para imprimirla en la impresora que la terminaría antes. Si ya estaba
+	 * pendiente, no hace nada.
+	 *
+	 * @return <code>false</code> si no hay ninguna impresora.
+	 */
+	public synchronized boolean submit(File file) {
+		if (!m_pending.add(file.getAbsolutePath())) {
+			return true;
+		}
+		return dispatch(new Job(file), false);
+	}
+
+	/**
+	 * Asigna un trabajo a la mejor impresora con sitio que todavía no lo ha intentado, o lo deja
+	 * esperando si ahora no tienen sitio.
+	 *
+	 * @param retry Si es un reintento, espera el primero.
+	 * @return <code>false</code> si no queda ninguna impresora por intentar.
+	 */
+	private synchronized boolean dispatch(Job job, boolean retry) {
+		PrinterQueue best = choose(job, true);
+		if (best != null) {
+			assign(best, job);
+			return true;
+		}
+		if (choose(job, false) == null) {
+			fail(job);
+			return false;
+		}
+		if (retry) {
+			m_backlog.addFirst(job);
+		} else {
+			m_backlog.addLast(job);
+		}
+		return true;
+	}
+
+	/**
+	 * Asigna los trabajos que esperan a las impresoras que tienen sitio.
+	 */
+	private synchronized void drain() {
+		Iterator<Job> it = m_backlog.iterator();
+		while (it.hasNext()) {
+			Job job = it.next();
+			PrinterQueue best = choose(job, true);
+			if (best != null) {
+				it.remove();
+				assign(best, job);
+			} else if (choose(job, false) == null) {
+				it.remove();
+				fail(job);
+			}
+		}
+	}
+
+	/**
+	 * Impresora que terminaría antes un trabajo, de las que todavía no lo han intentado.
+	 *
+	 * @param withRoom Si sólo se consideran las impresoras con menos de {@link #MAX_DEPTH} trabajos.
+	 * @return Impresora, o <code>null</code> si no hay ninguna.
+	 */
+	private PrinterQueue choose(Job job, boolean withRoom) {
+		long now = System.currentTimeMillis();
+		// Las impresoras que acaban de fallar sólo se usan si no hay otra
+		boolean healthy = false;
+		for (PrinterQueue queue : m_printers) {
+			if (!job.m_tried.contains(queue) && !queue.isKilled() && now - queue.m_lastFailure >= FAILURE_COOLDOWN) {
+				healthy = true;
+			}
+		}
+		PrinterQueue best = null;
+		double bestCost = Double.MAX_VALUE;
+		for (PrinterQueue queue : m_printers) {
+			if (job.m_tried.contains(queue) || queue.isKilled() || (withRoom && queue.m_depth >= MAX_DEPTH)) continue;
+			if (healthy && now - queue.m_lastFailure < FAILURE_COOLDOWN) continue;
+			double cost = (queue.m_depth + 1) * queue.m_printTime;
+			if (cost < bestCost) {
+				best = queue;
+				bestCost = cost;
+			}
+		}
+		return best;
+	}
+
+	private void assign(PrinterQueue queue, Job job) {
+		queue.m_depth++;
+		queue.m_jobs.add(job);
+	}
+
+	private void fail(Job job) {
+		m_pending.remove(job.m_file.getAbsolutePath());
+		System.err.println("No se ha podido imprimir " + job.m_file.getName() + " en ninguna impresora");
+		emitPrintFailed(job.m_file);
+	}
+
+	/**
+	 * Impresoras, con sus contadores.
+	 */
+	public List<PrinterQueue> getPrinters() {
+		return new ArrayList<>(m_printers);
+	}
+
+	/**
+	 * Indica si no queda ninguna imagen pendiente.
+	 */
+	public synchronized boolean isIdle() {
+		return m_pending.isEmpty();
+	}
+
+	/**
+	 * Detiene las impresoras. Las imágenes que todavía no se han empezado a imprimir se descartan;
+	 * las que se están imprimiendo se terminan (y se notifican) antes de volver. Ninguna se
+	 * reintenta.
+	 */
+	public void shutdown() {
+		for (PrinterQueue queue : m_printers) {
+			queue.kill();
+		}
+		synchronized (this) {
+			m_backlog.clear();
+			m_pending.clear();
+		}
+		for (PrinterQueue queue : m_printers) {
+			try {
+				queue.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	private void emitPrinted(File file, String printer) {
+		if (m_listener != null) m_listener.onPrinted(file, printer);
+	}
+
+	private void emitPrintFailed(File file) {
+		if (m_listener != null) m_listener.onPrintFailed(file);
+	}
+
+	public PrintBackend getBackend() {
+		return m_backend;
+	}
+
+	public PrintDispatcherListener getListener() {
+		return m_listener;
+	}
+
+	public void setListener(PrintDispatcherListener listener) {
+		m_listener = listener;
+	}
+
+	/**
+	 * Imagen a imprimir.
+	 */
+	private static class Job {
+		/** Marca que despierta a una impresora detenida */
+		private static final Job STOP = new Job(null);
+
+		private final File m_file;
+		/** Impresoras en las que ya ha fallado */
+		private final HashSet<PrinterQueue> m_tried = new HashSet<>();
+
+		Job(File file) {
+			m_file = file;
+		}
+	}
+
+	/**
+	 * Cola y thread de una impresora, con sus contadores.
+	 */
+	public class PrinterQueue extends Thread {
+		private final String m_printer;
+		/** Trabajos asignados */
+		private final LinkedBlockingQueue<Job> m_jobs = new LinkedBlockingQueue<>();
+		/** Trabajos asignados y no terminados (protegido por el repartidor) */
+		private int m_depth = 0;
+		/** Tiempo medio por impresión (ms) */
+		private volatile double m_printTime = DEFAULT_PRINT_TIME;
+		/** Momento del último fallo (ms) */
+		private volatile long m_lastFailure = 0;
+		private volatile int m_printed = 0;
+		private volatile int m_failed = 0;
+		private volatile boolean m_die = false;
+
+		PrinterQueue(String printer) {
+			super("PrintDispatcher-" + printer);
+			m_printer = printer;
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			while (!m_die) {
+				Job job;
+				try {
+					job = m_jobs.take();
+				} catch (InterruptedException e) {
+					break;
+				}
+				if (job == Job.STOP) break;
+				long start = System.currentTimeMillis();
+				boolean printed = false;
+				try {
+					m_backend.print(job.m_file, m_printer);
+					m_printTime = m_printTime * (1 - TIME_SMOOTHING) + (System.currentTimeMillis() - start) * TIME_SMOOTHING;
+					m_printed++;
+					printed = true;
+				} catch (Exception e) {
+					// Cualquier fallo del sistema de impresión (no sólo de E/S) pasa por los reintentos
+					m_failed++;
+					m_lastFailure = System.currentTimeMillis();
+					System.err.println("Error imprimiendo " + job.m_file.getName() + " en " + m_printer + ": " + e);
+				} finally {
+					synchronized (PrintDispatcher.this) {
+						m_depth--;
+						if (printed || m_die) {
+							m_pending.remove(job.m_file.getAbsolutePath());
+						} else {
+							// Se reintenta en otra impresora
+							job.m_tried.add(this);
+							dispatch(job, true);
+						}
+						drain();
+					}
+				}
+				if (printed) emitPrinted(job.m_file, m_printer);
+			}
+		}
+
+		/**
+		 * Detiene la impresora sin interrumpir la impresión en curso (que se termina y se notifica).
+		 * Los trabajos que no ha empezado se descartan.
+		 */
+		public void kill() {
+			m_die = true;
+			synchronized (PrintDispatcher.this) {
+				m_depth -= m_jobs.size();
+				m_jobs.clear();
+				m_jobs.add(Job.STOP);
+			}
+		}
+
+		public boolean isKilled() {
+			return m_die;
+		}
+
+		public String getPrinter() {
+			return m_printer;
+		}
+
+		/** Trabajos asignados: los encolados y el que se está imprimiendo */
+		public int getDepth() {
+			synchronized (PrintDispatcher.this) {
+				return m_depth;
+			}
+		}
+
+		/** Tiempo medio por impresión (ms) */
+		public double getPrintTime() {
+			return m_printTime;
+		}
+
+		/** Impresiones realizadas */
+		public int getPrinted() {
+			return m_printed;
+		}
+
+		/** Impresiones fallidas */
+		public int getFailed() {
+			return m_failed;
+		}
+
+		@Override
+		public String toString() {
+			return m_printer + ": " + m_printed + " impresas, " + m_failed + " errores, " + Math.round(m_printTime) + " ms/impresión, "
+					+ getDepth() + " pendientes";
+		}
+	}
+
+	public interface PrintDispatcherListener {
+		/** Se ha impreso una imagen (se llama desde el thread de la impresora) */
+		public void onPrinted(File file, String printer);
+		/** No se ha podido imprimir una imagen en ninguna impresora */
+		public void onPrintFailed(File file);
+	}
+}
@@ -0,0 +1,84 @@
+package com.servifot.lfm.lfmimporter;
+
+/**
+ * Formato en el que {@link ImagePrinter} deja las impresiones en la carpeta de impresión.<br>
+ * <br>
+ * - <code>png</code>: sin pérdida, comprimido en paralelo con el nivel indicado (0 a 9; los niveles
+ * bajos se escriben mucho más rápido).<br>
+ * - <code>jpg</code>: con pérdida, con la calidad indicada (0 a 1). Es el más pequeño.<br>
+ * - <code>bmp</code>, <code>tif</code>: sin comprimir, para que la impresora no tenga que
+ * descomprimir nada.
+ */
+public class PrintFormat {
+
+	public static final String PNG = "png";
+	public static final String JPEG = "jpg";
+	public static final String BMP = "bmp";
+	public static final String TIFF = "tif";
+
+	/** Calidad JPEG por defecto */
+	public static final float DEFAULT_JPEG_QUALITY = 0.95f;
+	/** Nivel de compresión PNG por defecto: la impresión se lee una sola vez, prima la velocidad */
+	public static final int DEFAULT_PNG_DEFLATE_LEVEL = 1;
+
+	/** Formato (una de las constantes) */
+	private final String m_format;
+	/** Calidad JPEG (0 a 1) */
+	private final float m_jpegQuality;
+	/** Nivel de compresión PNG (0 a 9) */
+	private final int m_pngDeflateLevel;
+
+	public PrintFormat() {
+		this(PNG, DEFAULT_JPEG_QUALITY, DEFAULT_PNG_DEFLATE_LEVEL);
+	}
+
+	/**
+	 * @param format Formato (<code>png</code>, <code>jpg</code>, <code>bmp</code> o <code>tif</code>;
+	 *            cualquier otro se toma como <code>png</code>).
+	 * @param jpegQuality Calidad JPEG (0 a 1).
+	 * @param pngDeflateLevel Nivel de compresión PNG (0 a 9).
+	 */
+	public PrintFormat(String format, float jpegQuality, int pngDeflateLevel) {
+		m_format = normalize(format);
+		m_jpegQuality = Math.max(0f, Math.min(1f, jpegQuality));
+		m_pngDeflateLevel = Math.max(0, Math.min(9, pngDeflateLevel));
+	}
+
+	private static String normalize(String format) {
+		String f = format == null ? "" : format.trim().toLowerCase();
+		if (f.startsWith(".")) f = f.substring(1);
+		if (f.equals("jpg") || f.equals("jpeg")) return JPEG;
+		if (f.equals("bmp")) return BMP;
+		if (f.equals("tif") || f.equals("tiff")) return TIFF;
+		return PNG;
+	}
+
+	public String getFormat() {
+		return m_format;
+	}
+
+	/** Extensión de los archivos, con el punto */
+	public String getExtension() {
+		return "." + m_format;
+	}
+
+	/** Indica si el formato lleva el perfil de color incrustado (PNG y JPEG; BMP y TIFF no) */
+	public boolean canEmbedProfile() {
+		return m_format.equals(PNG) || m_format.equals(JPEG);
+	}
+
+	public float getJpegQuality() {
+		return m_jpegQuality;
+	}
+
+	public int getPngDeflateLevel() {
+		return m_pngDeflateLevel;
+	}
+
+	@Override
+	public String toString() {
+		if (m_format.equals(PNG)) return "PNG nivel " + m_pngDeflateLevel;
+		if (m_format.equals(JPEG)) return "JPEG calidad " + m_jpegQuality;
+		return m_format.toUpperCase() + " sin comprimir";
+	}
+}
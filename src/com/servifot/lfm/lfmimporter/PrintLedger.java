@@ -0,0 +1,135 @@
+package com.servifot.lfm.lfmimporter;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+
+import com.servifot.lfm.utils.AppendLog;
+import com.servifot.lfm.utils.LongHashSet;
+
+/**
+ * Registro persistente de las imágenes impresas desde la carpeta de impresión, para no volver a
+ * imprimirlas al reiniciar.<br>
+ * <br>
+ * Cada impresión se identifica por el nombre, el tamaño y la fecha del archivo, así que volver a
+ * imprimir una foto (que sobrescribe el archivo) cuenta como una impresión nueva. El registro es
+ * un {@link AppendLog} con una línea por impresión (<code>momento, nombre, tamaño, fecha, CRC32 del
+ * contenido e impresora</code> separados por tabuladores). Al cargarlo se construye un índice en
+ * memoria con el hash de cada clave ({@link LongHashSet}), así que comprobar si un archivo ya se ha
+ * impreso no depende del número de impresiones.<br>
+ * <br>
+ * Las líneas antiguas de <code>printedfiles.txt</code> (sólo el nombre) se siguen respetando: un
+ * archivo con ese nombre anterior a la carga del registro se da por impreso.
+ */
+public class PrintLedger extends AppendLog {
+
+	/** Número de campos de cada línea */
+	private static final int FIELDS = 6;
+
+	/** Índice de las claves registradas (nombre, tamaño y fecha) */
+	private final LongHashSet m_index = new LongHashSet();
+	/** Índice de los nombres de las líneas antiguas (sólo nombre) */
+	private final LongHashSet m_legacyNames = new LongHashSet();
+	/** Momento de la carga: las líneas antiguas sólo valen para archivos anteriores */
+	private long m_loadedAt = 0;
+
+	public PrintLedger(File file) {
+		super(file, "registro de impresiones");
+	}
+
+	@Override
+	protected void clearIndex() {
+		m_index.clear();
+		m_legacyNames.clear();
+		m_loadedAt = System.currentTimeMillis();
+	}
+
+	@Override
+	protected boolean index(String line) {
+		String[] fields = line.split(SEPARATOR, -1);
+		if (fields.length == FIELDS) {
+			return m_index.add(LongHashSet.hash(getKey(fields[1], fields[2], fields[3])));
+		}
+		if (fields.length == 1 && !line.trim().isEmpty()) {
+			return m_legacyNames.add(LongHashSet.hash(line.trim()));
+		}
+		return false;
+	}
+
+	@Override
+	protected String getKey(String line) {
+		String[] fields = line.split(SEPARATOR, -1);
+		if (fields.length == FIELDS) {
+			return getKey(fields[1], fields[2], fields[3]);
+		}
+		// Las líneas antiguas no tienen tabuladores: no se confunden con las nuevas
+		return fields.length == 1 && !line.trim().isEmpty() ? line.trim() : null;
+	}
+
+	/**
+	 * Indica si un archivo ya se ha impreso.
+	 */
+	public synchronized boolean contains(File file) {
+		if (m_index.contains(hash(file))) {
+			return true;
+		}
+		// Una reimpresión posterior con el mismo nombre no está en las líneas antiguas
+		return file.lastModified() < m_loadedAt && m_legacyNames.contains(LongHashSet.hash(file.getName()));
+	}
+
+	/**
+	 * Registra una impresión y espera a que esté escrita en disco.
+	 *
+	 * @param file Archivo impreso.
+	 * @param printer Impresora.
+	 * @return <code>true</code> si se ha registrado, <code>false</code> si ya estaba o no se puede escribir.
+	 */
+	public boolean add(File file, String printer) {
+		// El contenido se lee fuera del bloqueo
+		long crc = getContentHash(file);
+		synchronized (this) {
+			if (!m_index.add(hash(file))) {
+				return false;
+			}
+		}
+		return write(System.currentTimeMillis() + SEPARATOR + clean(file.getName()) + SEPARATOR + file.length() + SEPARATOR
+				+ file.lastModified() + SEPARATOR + Long.toHexString(crc) + SEPARATOR + clean(printer != null ? printer : ""));
+	}
+
+	/** Número de impresiones registradas (incluidas las líneas antiguas) */
+	@Override
+	public synchronized int size() {
+		return m_index.size() + m_legacyNames.size();
+	}
+
+	/**
+	 * CRC32 del contenido de un archivo, o -1 si no se puede leer.
+	 */
+	public static long getContentHash(File file) {
+		CRC32 crc = new CRC32();
+		byte[] buffer = new byte[64 * 1024];
+		try (InputStream in = new FileInputStream(file)) {
+			int count;
+			while ((count = in.read(buffer)) > 0) {
+				crc.update(buffer, 0, count);
+			}
+			return crc.getValue();
+		} catch (IOException e) {
+			System.err.println("No se puede leer " + file.getAbsolutePath() + ": " + e.getMessage());
+			return -1;
+		}
+	}
+
+	/**
+	 * Hash de la clave de un archivo: nombre, tamaño y fecha.
+	 */
+	private static long hash(File file) {
+		return LongHashSet.hash(getKey(clean(file.getName()), String.valueOf(file.length()), String.valueOf(file.lastModified())));
+	}
+
+	private static String getKey(String name, String size, String date) {
+		return name + SEPARATOR + size + SEPARATOR + date;
+	}
+}
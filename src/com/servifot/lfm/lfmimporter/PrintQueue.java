@@ -0,0 +1,320 @@
+package com.servifot.lfm.lfmimporter;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cola de impresiones: prepara las imágenes a imprimir ({@link ImagePrinter#render()}) con un
+ * número limitado de threads.<br>
+ * <br>
+ * - Preparar una impresión ocupa bastante memoria, así que el número de threads depende de los
+ * núcleos y de la memoria disponible ({@link #getDefaultWorkers()}), y la cola admite como mucho
+ * {@link #MAX_PENDING} impresiones pendientes.<br>
+ * - Pedir otra vez una imagen que ya está pendiente no añade otra impresión: se devuelve la que ya
+ * estaba (con la prioridad más alta de las dos).<br>
+ * - Las impresiones se preparan por prioridad y, a igual prioridad, por orden de llegada. Las que
+ * todavía no han empezado se pueden cancelar.<br>
+ * <br>
+ * Cada cambio de estado de una impresión ({@link State}) se avisa al listener.
+ */
+public class PrintQueue {
+
+	/** Impresiones pendientes como máximo */
+	public static final int MAX_PENDING = 20;
+	/** Memoria que puede llegar a ocupar la preparación de una impresión (bytes) */
+	public static final long JOB_MEMORY = 96L * 1024 * 1024;
+	/** Prioridad normal */
+	public static final int PRIORITY_NORMAL = 0;
+	/** Prioridad alta (se prepara antes que las normales pendientes) */
+	public static final int PRIORITY_HIGH = 10;
+
+	/**
+	 * Estados de una impresión.
+	 */
+	public enum State {
+		/** Esperando turno */
+		QUEUED,
+		/** Preparándose */
+		RENDERING,
+		/** Preparada en la carpeta de impresión */
+		SPOOLED,
+		/** No se ha podido preparar */
+		FAILED,
+		/** Cancelada antes de empezar */
+		CANCELLED
+	}
+
+	/** Threads de preparación. Cada trabajo encolado es un turno: la impresión se elige al ejecutarlo */
+	private final ThreadPoolExecutor m_pool;
+	/** Impresiones esperando turno, por prioridad */
+	private final PriorityQueue<PrintJob> m_queued = new PriorityQueue<>();
+	/** Impresiones esperando o preparándose, por ruta de la imagen */
+	private final HashMap<String, PrintJob> m_pending = new HashMap<>();
+	/** Orden de llegada */
+	private final AtomicLong m_sequence = new AtomicLong();
+	/** Impresiones preparadas */
+	private final AtomicLong m_spooled = new AtomicLong();
+	/** Impresiones fallidas */
+	private final AtomicLong m_failed = new AtomicLong();
+	/** Listener */
+	private PrintQueueListener m_listener = null;
+
+	public PrintQueue() {
+		this(getDefaultWorkers());
+	}
+
+	/**
+	 * @param workers Número de impresiones que se preparan a la vez.
+	 */
+	public PrintQueue(int workers) {
+		workers = Math.max(1, workers);
+		m_pool = new ThreadPoolExecutor(workers, workers, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), r -> {
+			Thread t = new Thread(r, "PrintQueue-render");
+			t.setDaemon(true);
+			return t;
+		});
+		m_pool.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Número de threads por defecto: la mitad de los núcleos, sin pasar de lo que cabe en la
+	 * memoria máxima de la máquina virtual.
+	 */
+	public static int getDefaultWorkers() {
+		int cores = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+		long memory = Runtime.getRuntime().maxMemory() / 2 / JOB_MEMORY;
+		return (int) Math.max(1, Math.min(cores, memory));
+	}
+
+	/**
+	 * Encola una imagen para imprimir.
+	 *
+	 * @param file Imagen a imprimir.
+	 * @param priority Prioridad (ver <code>PRIORITY_*</code>).
+	 * @return Impresión (la que ya estaba si la imagen ya estaba pendiente), o <code>null</code> si
+	 *         la cola está llena.
+	 */
+	public PrintJob submit(File file, int priority) {
+		PrintJob job;
+		synchronized (this) {
+			job = m_pending.get(file.getAbsolutePath());
+			if (job != null) {
+				if (job.m_state == State.QUEUED && priority > job.m_priority) {
+					m_queued.remove(job);
+					job.m_priority = priority;
+					m_queued.add(job);
+				}
+				return job;
+			}
+			if (m_pending.size() >= MAX_PENDING) {
+				System.err.println("Cola de impresión llena, se descarta " + file.getName());
+				return null;
+			}
+			job = new PrintJob(file, priority, m_sequence.getAndIncrement());
+			m_pending.put(job.getKey(), job);
+			m_queued.add(job);
+		}
+		emitJobChanged(job);
+		// Un turno por impresión; cada turno coge la de más prioridad en ese momento
+		m_pool.execute(new Runnable() {
+			@Override
+			public void run() {
+				PrintJob next = next();
+				if (next != null) next.run();
+			}
+		});
+		return job;
+	}
+
+	/**
+	 * Cancela una impresión que todavía no ha empezado a prepararse.
+	 *
+	 * @return <code>true</code> si se ha cancelado, <code>false</code> si ya había empezado o terminado.
+	 */
+	public boolean cancel(PrintJob job) {
+		synchronized (this) {
+			if (job.m_state != State.QUEUED) {
+				return false;
+			}
+			m_queued.remove(job);
+			m_pending.remove(job.getKey());
+			job.m_state = State.CANCELLED;
+		}
+		emitJobChanged(job);
+		return true;
+	}
+
+	/**
+	 * Cancela todas las impresiones que todavía no han empezado a prepararse.
+	 *
+	 * @return Número de impresiones canceladas.
+	 */
+	public int cancelQueued() {
+		int cancelled = 0;
+		for (PrintJob job : getJobs()) {
+			if (cancel(job)) cancelled++;
+		}
+		return cancelled;
+	}
+
+	/**
+	 * Siguiente impresión a preparar.
+	 */
+	private synchronized PrintJob next() {
+		PrintJob job = m_queued.poll();
+		if (job != null) {
+			job.m_state = State.RENDERING;
+		}
+		return job;
+	}
+
+	/**
+	 * Impresiones esperando o preparándose.
+	 */
+	public synchronized List<PrintJob> getJobs() {
+		return new ArrayList<>(m_pending.values());
+	}
+
+	/** Impresiones esperando turno */
+	public synchronized int getQueuedCount() {
+		return m_queued.size();
+	}
+
+	/** Impresiones esperando o preparándose */
+	public synchronized int getPendingCount() {
+		return m_pending.size();
+	}
+
+	/** Impresiones preparadas */
+	public long getSpooledCount() {
+		return m_spooled.get();
+	}
+
+	/** Impresiones fallidas */
+	public long getFailedCount() {
+		return m_failed.get();
+	}
+
+	/**
+	 * Descarta las impresiones pendientes y detiene los threads. La cola no se debe usar después.
+	 */
+	public void shutdown() {
+		m_pool.shutdownNow();
+		synchronized (this) {
+			m_queued.clear();
+			m_pending.clear();
+		}
+	}
+
+	private void emitJobChanged(PrintJob job) {
+		if (m_listener != null) m_listener.onPrintJobChanged(job);
+	}
+
+	public PrintQueueListener getListener() {
+		return m_listener;
+	}
+
+	public void setListener(PrintQueueListener listener) {
+		m_listener = listener;
+	}
+
+	/**
+	 * Impresión de una imagen. Se ordenan por prioridad y por orden de llegada.
+	 */
+	public class PrintJob implements Comparable<PrintJob> {
+		private final File m_file;
+		private final long m_sequence;
+		/** Prioridad (protegida por la cola) */
+		private volatile int m_priority;
+		private volatile State m_state = State.QUEUED;
+		/** Archivo preparado en la carpeta de impresión */
+		private volatile File m_output = null;
+		/** Momento en que se ha encolado (ms) */
+		private final long m_submitted = System.currentTimeMillis();
+		/** Tiempo hasta quedar preparada (ms) */
+		private volatile long m_latency = 0;
+
+		PrintJob(File file, int priority, long sequence) {
+			m_file = file;
+			m_priority = priority;
+			m_sequence = sequence;
+		}
+
+		private void run() {
+			emitJobChanged(this);
+			File output = null;
+			try {
+				output = new ImagePrinter(m_file).render();
+			} catch (OutOfMemoryError e) {
+				System.err.println("Sin memoria preparando la impresión de " + m_file.getName());
+			} catch (RuntimeException e) {
+				System.err.println("Error preparando la impresión de " + m_file.getName() + ": " + e);
+			} finally {
+				// Pase lo que pase, el trabajo deja de estar pendiente
+				m_output = output;
+				m_latency = System.currentTimeMillis() - m_submitted;
+				synchronized (PrintQueue.this) {
+					m_pending.remove(getKey());
+					m_state = output != null ? State.SPOOLED : State.FAILED;
+				}
+				if (output != null) {
+					m_spooled.incrementAndGet();
+				} else {
+					m_failed.incrementAndGet();
+				}
+				emitJobChanged(this);
+			}
+		}
+
+		@Override
+		public int compareTo(PrintJob o) {
+			if (m_priority != o.m_priority) {
+				return m_priority > o.m_priority ? -1 : 1;
+			}
+			return Long.compare(m_sequence, o.m_sequence);
+		}
+
+		private String getKey() {
+			return m_file.getAbsolutePath();
+		}
+
+		public File getFile() {
+			return m_file;
+		}
+
+		public State getState() {
+			return m_state;
+		}
+
+		public int getPriority() {
+			return m_priority;
+		}
+
+		/** Archivo preparado en la carpeta de impresión (<code>null</code> si todavía no está) */
+		public File getOutput() {
+			return m_output;
+		}
+
+		/** Tiempo desde que se encoló hasta que quedó preparada (ms) */
+		public long getLatency() {
+			return m_latency;
+		}
+
+		@Override
+		public String toString() {
+			return m_file.getName() + " (" + m_state + ")";
+		}
+	}
+
+	public interface PrintQueueListener {
+		/** Ha cambiado el estado de una impresión (se llama desde cualquier thread) */
+		public void onPrintJobChanged(PrintJob job);
+	}
+}
@@ -0,0 +1,74 @@
+package com.servifot.lfm.lfmimporter;
+
+/**
+ * Tamaño de impresión de una impresora: dimensiones del papel (pulgadas) y resolución (ppp).<br>
+ * <br>
+ * Las imágenes se preparan directamente a los píxeles que va a imprimir la impresora (por ejemplo,
+ * 1200x1800 px para 4x6" a 300 ppp) en lugar de a la resolución de la cámara. Con resolución 0 se
+ * imprime a la resolución original de la imagen.
+ */
+public class PrinterProfile {
+
+	/** Anchura del papel por defecto (pulgadas) */
+	public static final double DEFAULT_WIDTH = 4;
+	/** Altura del papel por defecto (pulgadas) */
+	public static final double DEFAULT_HEIGHT = 6;
+	/** Resolución por defecto (ppp) */
+	public static final int DEFAULT_DPI = 300;
+
+	/** Anchura del papel (pulgadas) */
+	private final double m_width;
+	/** Altura del papel (pulgadas) */
+	private final double m_height;
+	/** Resolución (ppp), o 0 para imprimir a la resolución original */
+	private final int m_dpi;
+
+	public PrinterProfile() {
+		this(DEFAULT_WIDTH, DEFAULT_HEIGHT, DEFAULT_DPI);
+	}
+
+	/**
+	 * @param width Anchura del papel (pulgadas).
+	 * @param height Altura del papel (pulgadas).
+	 * @param dpi Resolución (ppp), o 0 para imprimir a la resolución original.
+	 */
+	public PrinterProfile(double width, double height, int dpi) {
+		m_width = width;
+		m_height = height;
+		m_dpi = dpi;
+	}
+
+	/**
+	 * Indica si se imprime a la resolución original de la imagen.
+	 */
+	public boolean isFullResolution() {
+		return m_dpi <= 0 || m_width <= 0 || m_height <= 0;
+	}
+
+	/** Lado largo del papel (px) */
+	public int getLongSide() {
+		return (int) Math.round(Math.max(m_width, m_height) * m_dpi);
+	}
+
+	/** Lado corto del papel (px) */
+	public int getShortSide() {
+		return (int) Math.round(Math.min(m_width, m_height) * m_dpi);
+	}
+
+	public double getWidth() {
+		return m_width;
+	}
+
+	public double getHeight() {
+		return m_height;
+	}
+
+	public int getDpi() {
+		return m_dpi;
+	}
+
+	@Override
+	public String toString() {
+		return isFullResolution() ? "resolución original" : m_width + "x" + m_height + "\" a " + m_dpi + " ppp";
+	}
+}
@@ -0,0 +1,142 @@
+package com.servifot.lfm.lfmimporter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Impresora simulada: no imprime nada, tarda el tiempo indicado para cada impresora y anota cada
+ * impresión. Sirve para probar el reparto de {@link PrintDispatcher} sin impresoras reales.<br>
+ * <br>
+ * Con {@link #main(String[])} se mide el reparto de un lote de impresiones entre varias
+ * impresoras de distinta velocidad.
+ */
+public class RecordingPrintBackend implements PrintBackend {
+
+	/** Nombre en la configuración */
+	public static final String NAME = "recording";
+
+	/** Tiempo por impresión de las impresoras sin tiempo propio (ms) */
+	private volatile long m_defaultTime = 0;
+	/** Tiempo por impresión de cada impresora (ms) */
+	private final HashMap<String, Long> m_times = new HashMap<>();
+	/** Impresoras que fallan */
+	private final HashSet<String> m_failing = new HashSet<>();
+	/** Impresiones realizadas */
+	private final ArrayList<Record> m_records = new ArrayList<>();
+
+	/**
+	 * Impresión anotada.
+	 */
+	public static class Record {
+		public final File file;
+		public final String printer;
+		/** Inicio y fin (ms) */
+		public final long start;
+		public final long end;
+
+		Record(File file, String printer, long start, long end) {
+			this.file = file;
+			this.printer = printer;
+			this.start = start;
+			this.end = end;
+		}
+	}
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public void print(File file, String printer) throws IOException {
+		long start = System.currentTimeMillis();
+		long time;
+		boolean failing;
+		synchronized (this) {
+			Long t = m_times.get(printer);
+			time = t != null ? t : m_defaultTime;
+			failing = m_failing.contains(printer);
+		}
+		try {
+			Thread.sleep(failing ? time / 10 : time);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Impresión interrumpida");
+		}
+		if (failing) {
+			throw new IOException("La impresora simulada " + printer + " falla");
+		}
+		synchronized (this) {
+			m_records.add(new Record(file, printer, start, System.currentTimeMillis()));
+		}
+	}
+
+	/** Tiempo por impresión de las impresoras sin tiempo propio (ms) */
+	public void setDefaultTime(long time) {
+		m_defaultTime = time;
+	}
+
+	/** Tiempo por impresión de una impresora (ms) */
+	public synchronized void setTime(String printer, long time) {
+		m_times.put(printer, time);
+	}
+
+	/** Hace que una impresora falle (o deje de fallar) */
+	public synchronized void setFailing(String printer, boolean failing) {
+		if (failing) {
+			m_failing.add(printer);
+		} else {
+			m_failing.remove(printer);
+		}
+	}
+
+	/** Impresiones realizadas */
+	public synchronized List<Record> getRecords() {
+		return new ArrayList<>(m_records);
+	}
+
+	/**
+	 * Reparte un lote de impresiones entre impresoras simuladas y muestra el resultado.<br>
+	 * Uso: <code>RecordingPrintBackend impresiones ms1 [ms2 ...]</code> (un tiempo por impresora;
+	 * un tiempo negativo simula una impresora que falla).
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.err.println("Uso: RecordingPrintBackend impresiones ms1 [ms2 ...]");
+			return;
+		}
+		int jobs = Integer.parseInt(args[0]);
+		RecordingPrintBackend backend = new RecordingPrintBackend();
+		ArrayList<String> printers = new ArrayList<>();
+		for (int i = 1; i < args.length; i++) {
+			String printer = "P" + i;
+			long time = Long.parseLong(args[i]);
+			backend.setTime(printer, Math.abs(time));
+			backend.setFailing(printer, time < 0);
+			printers.add(printer);
+		}
+		PrintDispatcher dispatcher = new PrintDispatcher(printers, backend);
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < jobs; i++) {
+			dispatcher.submit(new File("job" + i + ".png"));
+		}
+		while (!dispatcher.isIdle()) {
+			Thread.sleep(10);
+		}
+		long elapsed = System.currentTimeMillis() - start;
+		HashMap<String, Integer> counts = new HashMap<>();
+		for (Record record : backend.getRecords()) {
+			counts.merge(record.printer, 1, Integer::sum);
+		}
+		System.out.println(backend.getRecords().size() + " de " + jobs + " impresiones en " + elapsed + " ms con " + Arrays.toString(Arrays.copyOfRange(args, 1, args.length)) + " ms/impresión");
+		for (PrintDispatcher.PrinterQueue queue : dispatcher.getPrinters()) {
+			System.out.println("  " + queue + " (" + counts.getOrDefault(queue.getPrinter(), 0) + " anotadas)");
+		}
+		dispatcher.shutdown();
+	}
+}
@@ -0,0 +1,41 @@
+package com.servifot.lfm.lfmimporter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Imprime con el visor de imágenes de Windows
+ * (<code>rundll32 shimgvw.dll ImageView_PrintTo</code>), que rellena el papel con la imagen.
+ */
+public class RundllPrintBackend implements PrintBackend {
+
+	/** Nombre en la configuración */
+	public static final String NAME = DEFAULT;
+	/** Tiempo máximo de espera a que el visor entregue el trabajo a la impresora (s) */
+	public static final long PRINT_TIMEOUT = 120;
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public void print(File file, String printer) throws IOException {
+		String printcmd = "rundll32 shimgvw.dll ImageView_PrintTo /pt \""+file.getAbsolutePath()+"\" \""+printer+"\"";
+		System.out.println("Printing: " + printcmd);
+		Process process = Runtime.getRuntime().exec(printcmd);
+		try {
+			if (!process.waitFor(PRINT_TIMEOUT, TimeUnit.SECONDS)) {
+				process.destroy();
+				throw new IOException("La impresora " + printer + " no responde");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Impresión interrumpida");
+		}
+		if (process.exitValue() != 0) {
+			throw new IOException("Error " + process.exitValue() + " imprimiendo en " + printer);
+		}
+	}
+}
@@ -0,0 +1,180 @@
+package com.servifot.lfm.lfmimporter;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import com.servifot.lfm.lfmimporter.SearchThumbnailWidget.SearchThumbnailWidgetListener;
+
+import javafx.beans.value.ChangeListener;
+import javafx.beans.value.ObservableValue;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import javafx.scene.layout.HBox;
+import javafx.util.Callback;
+
+/**
+ * Rejilla virtualizada de miniaturas para la pantalla de búsqueda.<br>
+ * <br>
+ * Es un <code>ListView</code> en el que cada fila contiene tantas miniaturas como caben en el ancho
+ * disponible. Sólo se crean celdas (y {@link SearchThumbnailWidget}) para las filas visibles, y se
+ * reutilizan al hacer scroll. Las miniaturas se cargan en segundo plano para las filas visibles y
+ * para {@link #PREFETCH_ROWS} filas por encima y por debajo.
+ */
+public class SearchThumbnailGrid extends ListView<File[]> {
+
+	/** Separación entre miniaturas (px) */
+	public static final int GAP = 5;
+	/** Filas que se precargan por encima y por debajo de las visibles */
+	public static final int PREFETCH_ROWS = 2;
+	/** Espacio reservado para la barra de scroll vertical (px) */
+	private static final int SCROLLBAR_WIDTH = 30;
+
+	/** Archivos de la rejilla, en orden */
+	private final ArrayList<File> m_files = new ArrayList<>();
+	/** Número de columnas actual */
+	private int m_columns = 0;
+	/** Listener de las miniaturas */
+	private SearchThumbnailWidgetListener m_listener = null;
+	/** Cargador de miniaturas */
+	private final ThumbnailLoader m_loader = new ThumbnailLoader("SearchThumbnailGrid-loader", ThumbnailStore.SIZE_SEARCH);
+
+	public SearchThumbnailGrid(SearchThumbnailWidgetListener listener) {
+		m_listener = listener;
+		getStyleClass().add("sv-grid");
+		setFocusTraversable(false);
+		setFixedCellSize(getCellSize());
+		setCellFactory(new Callback<ListView<File[]>, ListCell<File[]>>() {
+			@Override
+			public ListCell<File[]> call(ListView<File[]> param) {
+				return new RowCell();
+			}
+		});
+		widthProperty().addListener(new ChangeListener<Number>() {
+			@Override
+			public void changed(ObservableValue<? extends Number> observable, Number oldValue, Number newValue) {
+				relayout(false);
+			}
+		});
+	}
+
+	/**
+	 * Añade archivos a la rejilla. Debe llamarse desde el thread de JavaFX.
+	 *
+	 * @param files Archivos a añadir.
+	 * @param pos Posición donde insertarlos (si es < 0, al final).
+	 */
+	public void addFiles(File[] files, int pos) {
+		if (pos < 0 || pos > m_files.size()) {
+			pos = m_files.size();
+		}
+		m_files.addAll(pos, Arrays.asList(files));
+		relayout(true);
+	}
+
+	/**
+	 * Número de archivos de la rejilla.
+	 */
+	public int getFileCount() {
+		return m_files.size();
+	}
+
+	/**
+	 * Aplica el zoom actual de {@link SearchThumbnailWidget} a las celdas visibles y recalcula las filas.
+	 */
+	public void updateZoom() {
+		setFixedCellSize(getCellSize());
+		relayout(true);
+		refresh();
+	}
+
+	/**
+	 * Detiene la carga de miniaturas. La rejilla no se debe usar después.
+	 */
+	public void dispose() {
+		m_loader.dispose();
+	}
+
+	/**
+	 * Reparte los archivos en filas según el ancho disponible.
+	 *
+	 * @param force Si es <code>false</code>, sólo se reparte si cambia el número de columnas.
+	 */
+	private void relayout(boolean force) {
+		int columns = (int) Math.max(1, (getWidth() - SCROLLBAR_WIDTH) / getCellSize());
+		if (!force && columns == m_columns) {
+			return;
+		}
+		m_columns = columns;
+		ArrayList<File[]> rows = new ArrayList<>((m_files.size() + columns - 1) / columns);
+		for (int i = 0; i < m_files.size(); i += columns) {
+			rows.add(m_files.subList(i, Math.min(i + columns, m_files.size())).toArray(new File[0]));
+		}
+		getItems().setAll(rows);
+	}
+
+	/**
+	 * Lado de una celda (miniatura más separación).
+	 */
+	private static double getCellSize() {
+		return SearchThumbnailWidget.VIEW_SIZE + SearchThumbnailWidget.getZoom() + GAP;
+	}
+
+	/**
+	 * Precarga en la caché las miniaturas de las filas cercanas a una fila visible.
+	 */
+	private void prefetch(int rowIndex) {
+		int first = Math.max(0, rowIndex - PREFETCH_ROWS);
+		int last = Math.min(getItems().size() - 1, rowIndex + PREFETCH_ROWS);
+		for (int i = first; i <= last; i++) {
+			for (File file : getItems().get(i)) {
+				m_loader.prefetch(file);
+			}
+		}
+	}
+
+	/**
+	 * Celda que muestra una fila de miniaturas. Los widgets se reutilizan al cambiar de fila.
+	 */
+	private class RowCell extends ListCell<File[]> {
+		private final HBox m_box = new HBox(GAP);
+		private final ArrayList<SearchThumbnailWidget> m_widgets = new ArrayList<>();
+
+		RowCell() {
+			getStyleClass().add("sv-grid-row");
+		}
+
+		@Override
+		protected void updateItem(File[] row, boolean empty) {
+			super.updateItem(row, empty);
+			if (empty || row == null) {
+				for (SearchThumbnailWidget widget : m_widgets) {
+					widget.setImgFile(null);
+				}
+				setGraphic(null);
+				return;
+			}
+
+			while (m_widgets.size() < row.length) {
+				SearchThumbnailWidget widget = new SearchThumbnailWidget();
+				widget.setListener(m_listener);
+				m_widgets.add(widget);
+			}
+			for (int i = 0; i < m_widgets.size(); i++) {
+				SearchThumbnailWidget widget = m_widgets.get(i);
+				if (i < row.length) {
+					widget.resize();
+					if (widget.getImgFile() != row[i]) {
+						widget.setImgFile(row[i]);
+						m_loader.load(row[i], widget);
+					}
+				} else {
+					widget.setImgFile(null);
+				}
+			}
+			m_box.getChildren().setAll(m_widgets.subList(0, row.length));
+			setGraphic(m_box);
+			prefetch(getIndex());
+		}
+	}
+}
@@ -0,0 +1,43 @@
+package com.servifot.lfm.lfmimporter;
+
+/**
+ * Imagen disponible en una {@link ImageSource}, todavía sin importar.
+ */
+public class SourceImage {
+	/** Ruta de la imagen dentro de la fuente (identifica la imagen) */
+	private final String m_path;
+	/** Nombre del archivo */
+	private final String m_name;
+	/** Tamaño (bytes) */
+	private final long m_size;
+	/** Fecha de modificación (ms) */
+	private final long m_date;
+
+	public SourceImage(String path, String name, long size, long date) {
+		m_path = path;
+		m_name = name;
+		m_size = size;
+		m_date = date;
+	}
+
+	public String getPath() {
+		return m_path;
+	}
+
+	public String getName() {
+		return m_name;
+	}
+
+	public long getSize() {
+		return m_size;
+	}
+
+	public long getDate() {
+		return m_date;
+	}
+
+	@Override
+	public String toString() {
+		return m_path;
+	}
+}
@@ -0,0 +1,108 @@
+package com.servifot.lfm.lfmimporter;
+
+import java.util.List;
+
+/**
+ * Thread que consulta periódicamente una {@link ImageSource} y avisa de las imágenes nuevas.<br>
+ * <br>
+ * Si la fuente no responde {@link #MAX_FAILURES} veces seguidas se avisa al listener (por ejemplo,
+ * para volver a conectar el wifi), y se sigue intentando hasta que se detiene con {@link #kill()}.
+ */
+public class SourcePoller extends Thread {
+
+	/** Consultas fallidas seguidas antes de avisar de que la fuente no está disponible */
+	public static final int MAX_FAILURES = 10;
+	/** Espera tras una consulta fallida (ms) */
+	public static final long FAILURE_DELAY = 1500;
+	/** Espera tras una consulta sin imágenes nuevas (ms) */
+	public static final long IDLE_DELAY = 2000;
+
+	/** Fuente */
+	private final ImageSource m_source;
+	/** Configuración de la fuente */
+	private final SourceSettings m_settings;
+	/** Indica si se debe detener el thread */
+	private volatile boolean m_killed = false;
+	/** Listener */
+	private SourcePollerListener m_listener = null;
+
+	public SourcePoller(SourceSettings settings) {
+		super("SourcePoller " + settings);
+		setDaemon(true);
+		m_settings = settings;
+		m_source = ImageSource.forLocation(settings.getLocation());
+	}
+
+	@Override
+	public void run() {
+		int failures = 0;
+		while (!m_killed) {
+			List<SourceImage> images = m_source.poll();
+			if (m_killed) break;
+			long delay = 0;
+			if (images == null) {
+				System.out.println("Esperando la fuente " + m_source.getName() + "... " + failures);
+				if (++failures >= MAX_FAILURES) {
+					failures = 0;
+					emitSourceUnavailable();
+				}
+				delay = FAILURE_DELAY;
+			} else {
+				failures = 0;
+				if (images.isEmpty()) {
+					delay = IDLE_DELAY;
+				} else {
+					System.out.println("Encontradas " + images.size() + " nuevas imágenes en " + m_source.getName());
+					emitNewImages(images);
+				}
+			}
+			if (delay > 0) {
+				try {
+					Thread.sleep(delay);
+				} catch (InterruptedException e) {
+					// Detenido con kill()
+				}
+			}
+		}
+	}
+
+	public void kill() {
+		m_killed = true;
+		interrupt();
+	}
+
+	public boolean isKilled() {
+		return m_killed;
+	}
+
+	public ImageSource getSource() {
+		return m_source;
+	}
+
+	public SourceSettings getSettings() {
+		return m_settings;
+	}
+
+	private void emitNewImages(List<SourceImage> images) {
+		if (m_listener != null) m_listener.onNewImages(this, images);
+	}
+
+	private void emitSourceUnavailable() {
+		if (m_listener != null) m_listener.onSourceUnavailable(this);
+	}
+
+	public SourcePollerListener getListener() {
+		return m_listener;
+	}
+
+	public void setListener(SourcePollerListener listener) {
+		m_listener = listener;
+	}
+
+	public interface SourcePollerListener {
+		/** Hay imágenes nuevas en la fuente (se llama desde el thread de consulta) */
+		public void onNewImages(SourcePoller poller, List<SourceImage> images);
+		/** La fuente lleva {@link SourcePoller#MAX_FAILURES} consultas sin responder */
+		public void onSourceUnavailable(SourcePoller poller);
+	}
+}
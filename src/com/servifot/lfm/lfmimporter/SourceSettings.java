@@ -0,0 +1,43 @@
+package com.servifot.lfm.lfmimporter;
+
+/**
+ * Configuración de una fuente de imágenes: su ubicación (carpeta o URL de una FlashAir) y el
+ * prefijo que se añade al nombre de sus imágenes en la carpeta de la cámara, para que no choquen
+ * con las de otras tarjetas.
+ */
+public class SourceSettings {
+	/** Ubicación de la fuente (ver {@link ImageSource#forLocation(String)}) */
+	private final String m_location;
+	/** Prefijo de los nombres de las imágenes importadas */
+	private final String m_prefix;
+
+	public SourceSettings(String location, String prefix) {
+		m_location = location;
+		m_prefix = prefix != null ? prefix : "";
+	}
+
+	public String getLocation() {
+		return m_location;
+	}
+
+	public String getPrefix() {
+		return m_prefix;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof SourceSettings)) return false;
+		SourceSettings o = (SourceSettings) obj;
+		return m_location.equals(o.m_location) && m_prefix.equals(o.m_prefix);
+	}
+
+	@Override
+	public int hashCode() {
+		return m_location.hashCode() * 31 + m_prefix.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return m_prefix.isEmpty() ? m_location : m_prefix + " " + m_location;
+	}
+}
@@ -0,0 +1,127 @@
+package com.servifot.lfm.lfmimporter;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.servifot.lfm.utils.ImageCache;
+
+import javafx.application.Platform;
+import javafx.scene.image.Image;
+
+/**
+ * Carga en segundo plano miniaturas de {@link ThumbnailStore} para las listas virtualizadas.<br>
+ * <br>
+ * Las miniaturas se guardan en {@link ImageCache#getThumbnails()}. Si una celda se reutiliza para
+ * otro archivo antes de que se cargue su miniatura, la carga se descarta.
+ */
+public class ThumbnailLoader {
+
+	/** Tamaño de las miniaturas (<code>ThumbnailStore.SIZE_*</code>) */
+	private final int m_size;
+	/** Thread de carga */
+	private final ExecutorService m_executor;
+	/** Archivos con una precarga pendiente */
+	private final Set<File> m_pending = Collections.newSetFromMap(new ConcurrentHashMap<File, Boolean>());
+
+	/**
+	 * @param name Nombre del thread de carga.
+	 * @param size Tamaño de las miniaturas (<code>ThumbnailStore.SIZE_*</code>).
+	 */
+	public ThumbnailLoader(String name, int size) {
+		m_size = size;
+		m_executor = Executors.newSingleThreadExecutor(r -> {
+			Thread t = new Thread(r, name);
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/**
+	 * Devuelve la miniatura de un archivo si ya está en la caché.
+	 */
+	public Image getCached(File file) {
+		return ImageCache.getThumbnails().get(ImageCache.key(file, m_size));
+	}
+
+	/**
+	 * Pide la miniatura de un archivo. Si está en la caché se entrega inmediatamente; si no, se
+	 * carga en segundo plano y se entrega en el thread de JavaFX.
+	 *
+	 * @param file Archivo de imagen.
+	 * @param listener Receptor de la miniatura.
+	 */
+	public void load(File file, ThumbnailLoaderListener listener) {
+		Image img = getCached(file);
+		if (img != null) {
+			listener.onThumbnailLoaded(file, img);
+			return;
+		}
+		submit(new Runnable() {
+			@Override
+			public void run() {
+				if (!listener.isWaitingFor(file)) {
+					return;
+				}
+				Image img = ThumbnailStore.getImage(file, m_size);
+				if (img != null) {
+					Platform.runLater(new Runnable() {
+						@Override
+						public void run() {
+							if (listener.isWaitingFor(file)) {
+								listener.onThumbnailLoaded(file, img);
+							}
+						}
+					});
+				}
+			}
+		});
+	}
+
+	/**
+	 * Carga la miniatura de un archivo en la caché, si no está ya, para tenerla lista cuando se muestre.
+	 *
+	 * @param file Archivo de imagen.
+	 */
+	public void prefetch(File file) {
+		if (ImageCache.getThumbnails().contains(ImageCache.key(file, m_size)) || !m_pending.add(file)) {
+			return;
+		}
+		submit(new Runnable() {
+			@Override
+			public void run() {
+				m_pending.remove(file);
+				ThumbnailStore.getImage(file, m_size);
+			}
+		});
+	}
+
+	/**
+	 * Detiene la carga. El cargador no se debe usar después.
+	 */
+	public void dispose() {
+		m_executor.shutdownNow();
+		m_pending.clear();
+	}
+
+	private void submit(Runnable task) {
+		try {
+			m_executor.execute(task);
+		} catch (Exception e) {
+			// El cargador ya está detenido
+		}
+	}
+
+	/**
+	 * Receptor de las miniaturas cargadas.
+	 */
+	public interface ThumbnailLoaderListener {
+		/** Indica si todavía se espera la miniatura de este archivo */
+		public boolean isWaitingFor(File file);
+		/** Recibe la miniatura (en el thread de JavaFX) */
+		public void onThumbnailLoaded(File file, Image img);
+	}
+}
@@ -0,0 +1,198 @@
+package com.servifot.lfm.lfmimporter;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import javax.imageio.ImageIO;
+
+import com.servifot.lfm.utils.FileUtils;
+import com.servifot.lfm.utils.ImageCache;
+import com.servifot.lfm.utils.ImageOrientation;
+import com.servifot.lfm.utils.ImageUtils;
+import com.servifot.lfm.utils.JPEGMetadata;
+
+import javafx.scene.image.Image;
+
+/**
+ * Almacén en disco de miniaturas de las imágenes de la carpeta de la cámara.<br>
+ * <br>
+ * Cada imagen se identifica por su nombre, tamaño y fecha de modificación. Para cada una se guardan
+ * miniaturas JPEG ya escaladas y giradas según su orientación EXIF, en los tamaños que usan
+ * {@link ThumbnailWidget} y {@link SearchThumbnailWidget}. Las miniaturas se generan una sola vez
+ * (normalmente al importar la imagen) y después se recuperan con una única lectura de archivo.
+ */
+public class ThumbnailStore {
+
+	/** Carpeta donde se guardan las miniaturas */
+	public static final String THUMBS_FOLDER = LFMImporter.USER_FOLDER + "/thumbs";
+
+	/** Tamaño de las miniaturas de la tira de la pantalla principal */
+	public static final int SIZE_STRIP = ThumbnailWidget.CANVAS_HEIGHT;
+	/** Tamaño de las miniaturas de la pantalla de búsqueda */
+	public static final int SIZE_SEARCH = SearchThumbnailWidget.VIEW_SIZE;
+
+	/** Tamaños de miniatura que se generan para cada imagen */
+	private static final int[] SIZES = {SIZE_STRIP, SIZE_SEARCH};
+
+	/**
+	 * Genera (si no existen ya) las miniaturas de una imagen en todos los tamaños.
+	 *
+	 * @param imageFile Imagen de la carpeta de la cámara.
+	 * @return <code>true</code> si las miniaturas existen o se han generado, <code>false</code> si se produce algún error.
+	 */
+	public static boolean create(File imageFile) {
+		boolean missing = false;
+		for (int size : SIZES) {
+			missing |= !getThumbFile(imageFile, size).isFile();
+		}
+		if (!missing) {
+			return true;
+		}
+
+		BufferedImage source = decodeSource(imageFile, maxSize());
+		if (source == null) {
+			return false;
+		}
+
+		File folder = new File(THUMBS_FOLDER);
+		if (!FileUtils.createFolder(folder)) {
+			System.err.println("No se puede crear la carpeta de miniaturas " + folder.getAbsolutePath());
+			return false;
+		}
+
+		boolean result = true;
+		for (int size : SIZES) {
+			File thumbFile = getThumbFile(imageFile, size);
+			if (!thumbFile.isFile()) {
+				result &= write(ImageUtils.scaleToCover(source, size, size), thumbFile);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Recupera los bytes JPEG de una miniatura, generándola si todavía no existe.
+	 *
+	 * @param imageFile Imagen de la carpeta de la cámara.
+	 * @param size Tamaño de la miniatura (<code>SIZE_*</code>).
+	 * @return Bytes de la miniatura, o <code>null</code> si no se puede generar.
+	 */
+	public static byte[] read(File imageFile, int size) {
+		File thumbFile = getThumbFile(imageFile, size);
+		if (!thumbFile.isFile() && !create(imageFile)) {
+			return null;
+		}
+		try {
+			return Files.readAllBytes(thumbFile.toPath());
+		} catch (IOException e) {
+			System.err.println("No se puede leer la miniatura " + thumbFile.getAbsolutePath() + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Recupera una miniatura como imagen JavaFX, generándola si todavía no existe.
+	 * Las miniaturas decodificadas se guardan en {@link ImageCache#getThumbnails()}.
+	 *
+	 * @param imageFile Imagen de la carpeta de la cámara.
+	 * @param size Tamaño de la miniatura (<code>SIZE_*</code>).
+	 * @return Miniatura, o <code>null</code> si no se puede generar.
+	 */
+	public static Image getImage(File imageFile, int size) {
+		String key = ImageCache.key(imageFile, size);
+		Image image = ImageCache.getThumbnails().get(key);
+		if (image != null) {
+			return image;
+		}
+		byte[] data = read(imageFile, size);
+		if (data == null) {
+			return null;
+		}
+		image = new Image(new ByteArrayInputStream(data));
+		if (!image.isError()) {
+			ImageCache.getThumbnails().put(key, image);
+		}
+		return image;
+	}
+
+	/**
+	 * Archivo donde se guarda la miniatura de una imagen.
+	 *
+	 * @param imageFile Imagen de la carpeta de la cámara.
+	 * @param size Tamaño de la miniatura.
+	 * @return Archivo de la miniatura (puede no existir).
+	 */
+	public static File getThumbFile(File imageFile, int size) {
+		String key = FileUtils.removeExtension(imageFile.getName())
+				+ "_" + Long.toHexString(imageFile.length())
+				+ "_" + Long.toHexString(imageFile.lastModified())
+				+ "_" + size + ".jpg";
+		return new File(THUMBS_FOLDER, key);
+	}
+
+	/**
+	 * Decodifica la imagen de origen al tamaño mínimo necesario y con la orientación corregida.
+	 * Si la miniatura EXIF es suficientemente grande se usa ella, y no se decodifica la imagen completa.
+	 * Se acepta una miniatura EXIF algo más pequeña que el tamaño pedido (160x120 para 125 px).
+	 */
+	private static BufferedImage decodeSource(File imageFile, int minSize) {
+		JPEGMetadata meta = new JPEGMetadata();
+		ImageOrientation orientation = ImageOrientation.TOP;
+		BufferedImage image = null;
+		if (meta.load(imageFile)) {
+			orientation = meta.getOrientation();
+			if (meta.hasThumbnail()) {
+				try {
+					image = ImageIO.read(meta.getThumbnailAsInputStream());
+				} catch (Exception e) {
+					image = null;
+				}
+				if (image != null && Math.min(image.getWidth(), image.getHeight()) < minSize * 3 / 4) {
+					image = null;
+				}
+			}
+		}
+		if (image == null) {
+			image = ImageUtils.readSubsampled(imageFile, minSize, minSize);
+		}
+		if (image == null) {
+			return null;
+		}
+		return ImageUtils.applyOrientation(image, orientation);
+	}
+
+	/**
+	 * Escribe una miniatura en un archivo temporal y lo renombra, para no dejar nunca miniaturas
+	 * a medio escribir. El temporal es único porque varios threads pueden generar la misma miniatura.
+	 */
+	private static boolean write(BufferedImage thumb, File thumbFile) {
+		File tempFile = null;
+		try {
+			tempFile = File.createTempFile(thumbFile.getName(), ".tmp", thumbFile.getParentFile());
+			ImageUtils.writeJpeg(thumb, tempFile);
+			try {
+				Files.move(tempFile.toPath(), thumbFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tempFile.toPath(), thumbFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException e) {
+			System.err.println("No se puede guardar la miniatura " + thumbFile.getAbsolutePath() + ": " + e.getMessage());
+			if (tempFile != null) tempFile.delete();
+			return false;
+		}
+		return true;
+	}
+
+	private static int maxSize() {
+		int max = 0;
+		for (int size : SIZES) {
+			max = Math.max(max, size);
+		}
+		return max;
+	}
+}
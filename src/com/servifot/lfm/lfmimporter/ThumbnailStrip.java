@@ -0,0 +1,164 @@
+package com.servifot.lfm.lfmimporter;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.servifot.lfm.lfmimporter.ThumbnailWidget.ThumbnailWidgetListener;
+
+import javafx.geometry.Orientation;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import javafx.util.Callback;
+
+/**
+ * Tira horizontal virtualizada de miniaturas de la pantalla principal.<br>
+ * <br>
+ * Sólo se crean celdas (y {@link ThumbnailWidget}) para las miniaturas visibles, y se reutilizan al
+ * hacer scroll. Las miniaturas se cargan desde {@link ThumbnailStore} en segundo plano, y se
+ * precargan {@link #PREFETCH_ITEMS} a cada lado de las visibles.
+ */
+public class ThumbnailStrip extends ListView<File> {
+
+	/** Separación entre miniaturas (px) */
+	public static final int GAP = 8;
+	/** Miniaturas que se precargan a cada lado de las visibles */
+	public static final int PREFETCH_ITEMS = 6;
+
+	/** Listener de las miniaturas */
+	private ThumbnailWidgetListener m_listener = null;
+	/** Cargador de miniaturas */
+	private final ThumbnailLoader m_loader = new ThumbnailLoader("ThumbnailStrip-loader", ThumbnailStore.SIZE_STRIP);
+
+	public ThumbnailStrip(ThumbnailWidgetListener listener) {
+		m_listener = listener;
+		setOrientation(Orientation.HORIZONTAL);
+		setFocusTraversable(false);
+		setFixedCellSize(ThumbnailWidget.CANVAS_HEIGHT + GAP);
+		getStyleClass().add("mv-strip");
+		setCellFactory(new Callback<ListView<File>, ListCell<File>>() {
+			@Override
+			public ListCell<File> call(ListView<File> param) {
+				return new ThumbCell();
+			}
+		});
+	}
+
+	/**
+	 * Añade una imagen a la tira. Debe llamarse desde el thread de JavaFX.
+	 *
+	 * @param file Imagen a añadir.
+	 * @param pos Posición donde insertarla (si es < 0, se coloca según su fecha, la más reciente primero).
+	 */
+	public void addFile(File file, int pos) {
+		if (pos < 0) {
+			pos = getDatePosition(file.lastModified());
+		}
+		getItems().add(Math.min(pos, getItems().size()), file);
+	}
+
+	/**
+	 * Añade varias imágenes a la tira con una sola inserción. Debe llamarse desde el thread de JavaFX.
+	 *
+	 * @param files Imágenes a añadir, en el orden en que se mostrarán.
+	 * @param pos Posición donde insertarlas (si es < 0, al final).
+	 */
+	public void addFiles(List<File> files, int pos) {
+		if (pos < 0 || pos > getItems().size()) {
+			pos = getItems().size();
+		}
+		getItems().addAll(pos, files);
+	}
+
+	/**
+	 * Sustituye todas las imágenes de la tira. Debe llamarse desde el thread de JavaFX.
+	 *
+	 * @param files Imágenes, en el orden en que se mostrarán.
+	 */
+	public void setFiles(List<File> files) {
+		getItems().setAll(files);
+	}
+
+	/**
+	 * Posición que le corresponde a una imagen con la fecha indicada, suponiendo que la tira está
+	 * ordenada de más reciente a más antigua.
+	 */
+	private int getDatePosition(long date) {
+		int low = 0;
+		int high = getItems().size();
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (getItems().get(mid).lastModified() > date) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Imágenes cercanas a una de la tira, de la más a la menos cercana: la siguiente, la anterior,
+	 * la segunda siguiente, etc. Debe llamarse desde el thread de JavaFX.
+	 *
+	 * @param file Imagen de referencia.
+	 * @param count Imágenes a cada lado.
+	 * @return Imágenes vecinas (vacío si la imagen no está en la tira).
+	 */
+	public List<File> getNeighbours(File file, int count) {
+		ArrayList<File> neighbours = new ArrayList<>();
+		int index = getItems().indexOf(file);
+		if (index < 0) return neighbours;
+		for (int i = 1; i <= count; i++) {
+			if (index + i < getItems().size()) neighbours.add(getItems().get(index + i));
+			if (index - i >= 0) neighbours.add(getItems().get(index - i));
+		}
+		return neighbours;
+	}
+
+	/**
+	 * Detiene la carga de miniaturas. La tira no se debe usar después.
+	 */
+	public void dispose() {
+		m_loader.dispose();
+	}
+
+	/**
+	 * Precarga en la caché las miniaturas cercanas a una celda visible.
+	 */
+	private void prefetch(int index) {
+		int first = Math.max(0, index - PREFETCH_ITEMS);
+		int last = Math.min(getItems().size() - 1, index + PREFETCH_ITEMS);
+		for (int i = first; i <= last; i++) {
+			m_loader.prefetch(getItems().get(i));
+		}
+	}
+
+	/**
+	 * Celda que muestra una miniatura. El widget se reutiliza al cambiar de imagen.
+	 */
+	private class ThumbCell extends ListCell<File> {
+		private final ThumbnailWidget m_widget = new ThumbnailWidget();
+
+		ThumbCell() {
+			getStyleClass().add("mv-strip-cell");
+			m_widget.setListener(m_listener);
+		}
+
+		@Override
+		protected void updateItem(File file, boolean empty) {
+			super.updateItem(file, empty);
+			if (empty || file == null) {
+				m_widget.setImageFile(null);
+				setGraphic(null);
+				return;
+			}
+			if (m_widget.getImageFile() != file) {
+				m_widget.setImageFile(file);
+				m_loader.load(file, m_widget);
+			}
+			setGraphic(m_widget);
+			prefetch(getIndex());
+		}
+	}
+}
@@ -1,9 +1,8 @@
 package com.servifot.lfm.lfmimporter;
 
 import java.io.File;
-import java.io.IOException;
 
-import com.servifot.lfm.utils.JPEGMetadata;
+import com.servifot.lfm.lfmimporter.ThumbnailLoader.ThumbnailLoaderListener;
 import com.servifot.lfm.utils.LFMUtils;
 
 import javafx.event.EventHandler;
@@ -13,53 +12,71 @@ import javafx.scene.input.MouseEvent;
 import javafx.scene.layout.VBox;
 import javafx.scene.shape.Rectangle;
 
-public class ThumbnailWidget extends VBox {
+public class ThumbnailWidget extends VBox implements ThumbnailLoaderListener {
 
-	private static final int CANVAS_HEIGHT = LFMImporter.SCREEN_THUMBS_HEIGHT - 30;
-	private File m_imagefile = null;
+	public static final int CANVAS_HEIGHT = LFMImporter.SCREEN_THUMBS_HEIGHT - 30;
+	/** Archivo mostrado (se lee desde el thread de {@link ThumbnailLoader}) */
+	private volatile File m_imagefile = null;
+	private Canvas m_canvas = new Canvas(CANVAS_HEIGHT, CANVAS_HEIGHT);
 	private ThumbnailWidgetListener m_listener = null;
 
-	public ThumbnailWidget(File imagefile) {
-		m_imagefile = imagefile;
-
-		Canvas iv = new Canvas(CANVAS_HEIGHT, CANVAS_HEIGHT);
-
-		if(m_imagefile.isFile()) {
-			// Probamos de cargar la miniatura
-			JPEGMetadata prevjpg = null;
-			try {
-				prevjpg = new JPEGMetadata(imagefile.getAbsolutePath());
-			} catch (IOException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
-			Image img = null;
-			if (prevjpg != null && prevjpg.hasThumbnail()) {
-				img = new Image(prevjpg.getThumbnailAsInputStream());
-			} else {
-				img = new Image("file:///"+m_imagefile.getAbsolutePath());
-			}
-
-			Rectangle imgrectangle = new Rectangle(0, 0, img.getWidth(), img.getHeight());
-			Rectangle canvasRectangle = new Rectangle(0, 0, CANVAS_HEIGHT, CANVAS_HEIGHT);
-			Rectangle imgSource = LFMUtils.fitRectangle(imgrectangle, canvasRectangle);
-			//Rectangle imgSource = LFMUtils.fitRectangle(canvasRectangle, imgrectangle);
-			iv.getGraphicsContext2D().drawImage(img, imgSource.getX(), imgSource.getY(), imgSource.getWidth(), imgSource.getHeight(), canvasRectangle.getX(), canvasRectangle.getY(), canvasRectangle.getWidth(), canvasRectangle.getHeight());
-		}
+	/**
+	 * Crea un widget vacío, para reutilizarlo con {@link #setImageFile(File)} y {@link #setImage(Image)}.
+	 */
+	public ThumbnailWidget() {
 		getStyleClass().add("thumbnailwidget");
-		getChildren().add(iv);
+		getChildren().add(m_canvas);
 
 		this.setOnMouseClicked(new EventHandler<MouseEvent>() {
 
 			@Override
 			public void handle(MouseEvent event) {
-				if (event.getClickCount() > 1) { 
+				if (event.getClickCount() > 1 && m_imagefile != null) { 
 					emitThumbPresed();
 				}
 			}
 		});
 	}
 
+	/**
+	 * Pinta una imagen recortada al cuadrado del canvas.
+	 */
+	public void setImage(Image img) {
+		m_canvas.getGraphicsContext2D().clearRect(0, 0, CANVAS_HEIGHT, CANVAS_HEIGHT);
+		if (img == null) {
+			return;
+		}
+		Rectangle imgrectangle = new Rectangle(0, 0, img.getWidth(), img.getHeight());
+		Rectangle canvasRectangle = new Rectangle(0, 0, CANVAS_HEIGHT, CANVAS_HEIGHT);
+		Rectangle imgSource = LFMUtils.fitRectangle(imgrectangle, canvasRectangle);
+		//Rectangle imgSource = LFMUtils.fitRectangle(canvasRectangle, imgrectangle);
+		m_canvas.getGraphicsContext2D().drawImage(img, imgSource.getX(), imgSource.getY(), imgSource.getWidth(), imgSource.getHeight(), canvasRectangle.getX(), canvasRectangle.getY(), canvasRectangle.getWidth(), canvasRectangle.getHeight());
+	}
+
+	/**
+	 * Cambia el archivo que representa el widget. Si cambia, se borra la imagen pintada.
+	 */
+	public void setImageFile(File imagefile) {
+		if (m_imagefile != imagefile) {
+			setImage(null);
+		}
+		m_imagefile = imagefile;
+	}
+
+	public File getImageFile() {
+		return m_imagefile;
+	}
+
+	@Override
+	public boolean isWaitingFor(File file) {
+		return m_imagefile == file;
+	}
+
+	@Override
+	public void onThumbnailLoaded(File file, Image img) {
+		setImage(img);
+	}
+
 	public void emitThumbPresed() {
 		if (m_listener != null) m_listener.onThumbPresed(m_imagefile);
 	}
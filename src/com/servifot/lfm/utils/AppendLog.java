@@ -0,0 +1,281 @@
+package com.servifot.lfm.utils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Archivo de texto en el que sólo se añaden líneas, con un índice en memoria que mantiene la
+ * subclase.<br>
+ * <br>
+ * - Al cargarlo ({@link #load()}) se pasa cada línea a {@link #index(String)}.<br>
+ * - Cada línea se escribe en disco (<code>force</code>) antes de volver de {@link #write(String)}.
+ * Si varios threads escriben a la vez, el primero escribe las líneas de todos en una sola
+ * operación.<br>
+ * - Si hay muchas líneas repetidas o dañadas (por ejemplo, una línea a medias tras un corte de
+ * luz), el archivo se reescribe sin ellas al cargarlo ({@link #compact()}). Las subclases no
+ * escriben líneas repetidas, así que mientras está abierto no se acumulan líneas sobrantes y no
+ * hace falta volver a comprobarlo.
+ */
+public abstract class AppendLog {
+
+	/** Separador de campos */
+	protected static final String SEPARATOR = "\t";
+	/** Líneas sobrantes (repetidas o dañadas) a partir de las cuales se compacta */
+	public static final int COMPACT_MIN_WASTE = 1000;
+
+	/** Archivo */
+	private final File m_file;
+	/** Nombre del registro, para los mensajes */
+	private final String m_description;
+	/** Escritor del archivo (abierto mientras se usa el registro) */
+	private BufferedWriter m_writer = null;
+	/** Canal del archivo, para forzar la escritura en disco */
+	private FileChannel m_channel = null;
+	/** Líneas del archivo que no aportan nada (repetidas o dañadas) */
+	private int m_waste = 0;
+	/** Líneas escritas desde que se abrió el archivo */
+	private long m_written = 0;
+	/** Líneas escritas en disco */
+	private long m_committed = 0;
+	/** Escrituras en disco */
+	private long m_commits = 0;
+	/** Bloqueo de las escrituras en disco (se espera fuera del bloqueo del registro) */
+	private final Object m_commitLock = new Object();
+
+	/**
+	 * @param file Archivo.
+	 * @param description Nombre del registro, para los mensajes (por ejemplo, "registro de impresiones").
+	 */
+	protected AppendLog(File file, String description) {
+		m_file = file;
+		m_description = description;
+	}
+
+	/**
+	 * Vacía el índice antes de cargar el archivo.
+	 */
+	protected abstract void clearIndex();
+
+	/**
+	 * Añade una línea del archivo al índice.
+	 *
+	 * @return <code>false</code> si la línea está repetida o dañada.
+	 */
+	protected abstract boolean index(String line);
+
+	/**
+	 * Clave de una línea: al compactar, de las líneas con la misma clave sólo se deja la primera.
+	 *
+	 * @return Clave, o <code>null</code> si la línea está dañada.
+	 */
+	protected abstract String getKey(String line);
+
+	/**
+	 * Número de entradas del índice.
+	 */
+	public abstract int size();
+
+	/**
+	 * Carga el registro y lo deja abierto para añadir líneas.
+	 *
+	 * @return <code>true</code> si todo va bien <code>false</code> en caso contrario
+	 */
+	public synchronized boolean load() {
+		close();
+		clearIndex();
+		m_waste = 0;
+		if (m_file.isFile()) {
+			try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(m_file), StandardCharsets.UTF_8))) {
+				String line;
+				while ((line = in.readLine()) != null) {
+					if (!index(line)) {
+						m_waste++;
+					}
+				}
+			} catch (Exception e) {
+				System.err.println("Error leyendo el " + m_description + " " + m_file.getAbsolutePath() + ": " + e.getMessage());
+				return false;
+			}
+			if (needsCompact()) {
+				compact();
+			}
+		}
+		return open();
+	}
+
+	/**
+	 * Añade una línea y espera a que esté escrita en disco.
+	 *
+	 * @return <code>true</code> si se ha escrito.
+	 */
+	protected boolean write(String line) {
+		long number;
+		synchronized (this) {
+			if (m_writer == null && !open()) {
+				return false;
+			}
+			try {
+				m_writer.write(line);
+				m_writer.newLine();
+			} catch (IOException e) {
+				System.err.println("Error escribiendo el " + m_description + ": " + e.getMessage());
+				return false;
+			}
+			number = ++m_written;
+		}
+		return commit(number);
+	}
+
+	/**
+	 * Escribe en disco hasta una línea. Si otro thread ya la ha escrito, no hace nada; si no, escribe
+	 * también las líneas que hayan añadido otros threads mientras tanto.
+	 */
+	private boolean commit(long line) {
+		synchronized (m_commitLock) {
+			if (m_committed >= line) {
+				return true;
+			}
+			FileChannel channel;
+			long target;
+			synchronized (this) {
+				if (m_writer == null) {
+					return false;
+				}
+				try {
+					m_writer.flush();
+				} catch (IOException e) {
+					System.err.println("Error escribiendo el " + m_description + ": " + e.getMessage());
+					return false;
+				}
+				channel = m_channel;
+				target = m_written;
+			}
+			try {
+				channel.force(false);
+			} catch (IOException e) {
+				System.err.println("Error escribiendo el " + m_description + ": " + e.getMessage());
+				return false;
+			}
+			m_committed = target;
+			m_commits++;
+			return true;
+		}
+	}
+
+	/**
+	 * Indica si hay suficientes líneas sobrantes para compactar.
+	 */
+	private boolean needsCompact() {
+		return m_waste >= COMPACT_MIN_WASTE && m_waste >= size();
+	}
+
+	/**
+	 * Reescribe el archivo sin las líneas repetidas ni dañadas. El archivo nuevo se escribe aparte y
+	 * sustituye al anterior de forma atómica.
+	 *
+	 * @return <code>true</code> si todo va bien <code>false</code> en caso contrario
+	 */
+	public synchronized boolean compact() {
+		boolean reopen = m_writer != null;
+		close();
+		File tmp = new File(m_file.getParentFile(), m_file.getName() + ".tmp");
+		LongHashSet written = new LongHashSet();
+		try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(m_file), StandardCharsets.UTF_8));
+				BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = in.readLine()) != null) {
+				String key = getKey(line);
+				if (key != null && written.add(LongHashSet.hash(key))) {
+					out.write(line);
+					out.newLine();
+				}
+			}
+		} catch (Exception e) {
+			System.err.println("Error compactando el " + m_description + ": " + e.getMessage());
+			tmp.delete();
+			return !reopen || open();
+		}
+		try {
+			try {
+				Files.move(tmp.toPath(), m_file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tmp.toPath(), m_file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException e) {
+			System.err.println("Error compactando el " + m_description + ": " + e.getMessage());
+			tmp.delete();
+			return !reopen || open();
+		}
+		System.out.println("Compactado el " + m_description + ": " + m_waste + " líneas eliminadas");
+		m_waste = 0;
+		return !reopen || open();
+	}
+
+	/**
+	 * Cierra el archivo. Se vuelve a abrir al escribir otra línea.
+	 */
+	public synchronized void close() {
+		if (m_writer != null) {
+			try {
+				m_writer.flush();
+				m_channel.force(false);
+				m_writer.close();
+			} catch (IOException e) {
+				System.err.println("Error cerrando el " + m_description + ": " + e.getMessage());
+			}
+			m_writer = null;
+			m_channel = null;
+		}
+		m_committed = m_written;
+	}
+
+	/** Escrituras en disco realizadas (cada una puede incluir varias líneas) */
+	public long getCommits() {
+		synchronized (m_commitLock) {
+			return m_commits;
+		}
+	}
+
+	public File getFile() {
+		return m_file;
+	}
+
+	private boolean open() {
+		try {
+			m_file.getParentFile().mkdirs();
+			FileOutputStream os = new FileOutputStream(m_file, true);
+			m_channel = os.getChannel();
+			m_writer = new BufferedWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8));
+			// Si la última línea quedó a medias, la siguiente empieza en una línea nueva
+			long length = m_file.length();
+			if (length > 0 && JpegHeaderReader.readRange(m_file, length - 1, 1)[0] != '\n') {
+				m_writer.newLine();
+				m_writer.flush();
+			}
+			return true;
+		} catch (IOException e) {
+			System.err.println("No se puede abrir el " + m_description + " " + m_file.getAbsolutePath() + ": " + e.getMessage());
+			m_writer = null;
+			m_channel = null;
+			return false;
+		}
+	}
+
+	/**
+	 * Quita los caracteres que romperían el formato del archivo.
+	 */
+	protected static String clean(String text) {
+		return text.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+	}
+}
@@ -1,14 +1,23 @@
 package com.servifot.lfm.utils;
 
-import java.util.concurrent.FutureTask;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import com.servifot.lfm.lfmimporter.SearchThumbnailWidget;
-import com.servifot.lfm.lfmimporter.ThumbnailWidget;
+import com.servifot.lfm.lfmimporter.SearchThumbnailGrid;
+import com.servifot.lfm.lfmimporter.ThumbnailStrip;
 
+import javafx.animation.AnimationTimer;
 import javafx.application.Platform;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
-import javafx.scene.layout.TilePane;
 
 /**
  * Gestiona trabajos sobre la interfaz de usuario de JavaFX desde threads secundarios.<br>
@@ -25,35 +34,45 @@ import javafx.scene.layout.TilePane;
  * <pre>
  * Platform.runLater(new FXWorker(FXWorker.JOBTYPE_ADD_CHILD, button, hbox));
  * </pre>
+ * <br>
+ * Los trabajos lanzados con {@link #runAsync(int, Object...)} y {@link #runSync(int, Object...)}
+ * no se envían uno a uno con <code>Platform.runLater</code>: se encolan y un
+ * <code>AnimationTimer</code> los aplica una vez por frame. En cada frame se agrupan los trabajos
+ * consecutivos sobre el mismo destino (una sola inserción por tira o rejilla) y, para cada
+ * <code>ImageView</code>, sólo se aplica la última imagen. Cada {@link #STATS_INTERVAL} frames con
+ * trabajo se muestran la cola y la latencia ({@link #getStats()}).
  *
  */
 public class FXWorker implements Runnable {
 
+	/** Cada cuántos lotes se muestran las estadísticas del despachador */
+	public static final int STATS_INTERVAL = 500;
+
 	/* Definición de tipos de trabajo que se puede realizar */
 
 	/**
-	 * Añade una miniatura en un TilePane en la posición indicada.<br><br>
+	 * Añade una imagen a la tira de miniaturas en la posición indicada.<br><br>
 	 * <strong>Parámetros:</strong><br>
-	 * <code>TilePane</code> Panel donde se insertará el nodo.<br>
-	 * <code>ThumbnailWidget</code> Nodo a insertar.<br>
-	 * <code>int</code> posición donde va el nodo a insertar.<br>
+	 * <code>ThumbnailStrip</code> Tira donde se insertará la imagen.<br>
+	 * <code>File</code> Imagen a insertar.<br>
+	 * <code>int</code> posición donde va la imagen a insertar. (si es < 0, según su fecha)<br>
 	 */
-	public static final int JOBTYPE_ADD_TILEPANECHILD = 1;
+	public static final int JOBTYPE_ADD_THUMBSTRIPFILE = 1;
 
 	/**
-	 * Añade una miniatura en un TilePane en la posición indicada.<br><br>
+	 * Pone una imagen en un ImageView.<br><br>
 	 * <strong>Parámetros:</strong><br>
 	 * <code>ImageView</code> Image view al que poner la imagen <br>
-	 * <code>String</code> Ruta del archivo con la imagen <br>
+	 * <code>String</code> Ruta del archivo con la imagen, o <code>Image</code> ya cargada <br>
 	 */
 	public static final int JOBTYPE_IMAGEVIEW_SETIMAGE = 2;
 
 	/**
-	 * Añade una miniatura en un TilePane en la posición indicada.<br><br>
+	 * Añade imágenes a la rejilla de búsqueda en la posición indicada.<br><br>
 	 * <strong>Parámetros:</strong><br>
-	 * <code>TilePane</code> Panel donde se insertará el nodo.<br>
-	 * <code>SearchThumbnailWidget</code> Nodo a insertar.<br>
-	 * <code>int</code> posición donde va el nodo a insertar. (si es < 0, lo pone al final)<br>
+	 * <code>SearchThumbnailGrid</code> Rejilla donde se insertarán las imágenes.<br>
+	 * <code>File[]</code> Imágenes a insertar.<br>
+	 * <code>int</code> posición donde van las imágenes a insertar. (si es < 0, las pone al final)<br>
 	 */
 	public static final int JOBTYPE_ADD_SEARCHCHILD = 3;
 
@@ -66,6 +85,28 @@ public class FXWorker implements Runnable {
 	private int m_jobType;
 	/** Objetos con los que trabajar */
 	private Object[] m_objects;
+	/** Momento en que se encoló el trabajo (ns) */
+	private long m_queuedTime = 0;
+	/** Se libera cuando se ha aplicado el trabajo (sólo en <code>runSync</code>) */
+	private CountDownLatch m_done = null;
+
+	/* Despachador por frames */
+
+	/** Trabajos pendientes de aplicar */
+	private static final ConcurrentLinkedQueue<FXWorker> s_queue = new ConcurrentLinkedQueue<>();
+	/** Número de trabajos pendientes */
+	private static final AtomicInteger s_queueDepth = new AtomicInteger();
+	/** Indica si el timer está arrancado (o a punto de arrancar) */
+	private static final AtomicBoolean s_scheduled = new AtomicBoolean(false);
+	/** Timer que vacía la cola en cada frame */
+	private static AnimationTimer s_timer = null;
+
+	/* Estadísticas del despachador */
+	private static volatile int s_maxQueueDepth = 0;
+	private static volatile long s_batches = 0;
+	private static volatile int s_lastBatchSize = 0;
+	private static volatile long s_lastBatchLatency = 0;
+	private static volatile long s_maxBatchLatency = 0;
 
 	/**
 	 * Constructor. Determina el trabajo a realizar y los objetos con los que trabajar.<br>
@@ -85,28 +126,28 @@ public class FXWorker implements Runnable {
 	public void run() {
 		try {
 			switch (m_jobType) {
-				case JOBTYPE_ADD_TILEPANECHILD:
-					TilePane pane = (TilePane) m_objects[0];
-					ThumbnailWidget node = (ThumbnailWidget) m_objects[1];
+				case JOBTYPE_ADD_THUMBSTRIPFILE:
+					ThumbnailStrip strip = (ThumbnailStrip) m_objects[0];
+					File file = (File) m_objects[1];
 					int pos = (int) m_objects[2];
-					pane.getChildren().add(pos, node);
+					strip.addFile(file, pos);
 					break;
 
 				case JOBTYPE_IMAGEVIEW_SETIMAGE:
 					ImageView iv = (ImageView) m_objects[0];
-					String path = (String) m_objects[1];
-					iv.setImage(new Image("file:///" + path));
+					if (m_objects[1] instanceof Image) {
+						iv.setImage((Image) m_objects[1]);
+					} else {
+						String path = (String) m_objects[1];
+						iv.setImage(new Image("file:///" + path));
+					}
 					break;
 
 				case JOBTYPE_ADD_SEARCHCHILD:
-					TilePane pane2 = (TilePane) m_objects[0];
-					SearchThumbnailWidget node2 = (SearchThumbnailWidget) m_objects[1];
+					SearchThumbnailGrid grid = (SearchThumbnailGrid) m_objects[0];
+					File[] files = (File[]) m_objects[1];
 					int pos2 = (int) m_objects[2];
-					if (pos2 >= 0) {
-						pane2.getChildren().add(pos2, node2);
-					} else {
-						pane2.getChildren().add(node2);
-					}
+					grid.addFiles(files, pos2);
 					break;
 
 				default:
@@ -119,24 +160,232 @@ public class FXWorker implements Runnable {
 		}
 	}
 
+	/**
+	 * Aplica un trabajo en el thread de JavaFX y espera a que termine.
+	 */
 	public static void runSync(int jobType, Object... objects) {
 		FXWorker worker = new FXWorker(jobType, objects);
 		if (Platform.isFxApplicationThread()) {
+			// Primero lo que ya estaba encolado, para respetar el orden
+			drain();
 			worker.run();
 		} else {
-			FutureTask<Void> future = new FutureTask<Void>(worker, null);
-			Platform.runLater(future);
+			worker.m_done = new CountDownLatch(1);
+			enqueue(worker);
 			try {
-				future.get();
-			} catch (Exception e) {
-				System.err.println(e.getMessage());
+				worker.m_done.await();
+			} catch (InterruptedException e) {
+				System.err.println("Interrumpida la espera del trabajo de tipo " + jobType);
+				Thread.currentThread().interrupt();
 			}
 		}
 	}
 
+	/**
+	 * Encola un trabajo para aplicarlo en el siguiente frame.
+	 */
 	public static void runAsync(int jobType, Object... objects) {
-		FXWorker worker = new FXWorker(jobType, objects);
-		Platform.runLater(worker);
+		enqueue(new FXWorker(jobType, objects));
+	}
+
+	/**
+	 * Número de trabajos pendientes de aplicar.
+	 */
+	public static int getQueueDepth() {
+		return s_queueDepth.get();
+	}
+
+	/**
+	 * Número máximo de trabajos pendientes que se ha llegado a tener.
+	 */
+	public static int getMaxQueueDepth() {
+		return s_maxQueueDepth;
+	}
+
+	/**
+	 * Número de lotes aplicados.
+	 */
+	public static long getBatchCount() {
+		return s_batches;
+	}
+
+	/**
+	 * Número de trabajos del último lote.
+	 */
+	public static int getLastBatchSize() {
+		return s_lastBatchSize;
+	}
+
+	/**
+	 * Tiempo desde que se encoló el trabajo más antiguo del último lote hasta que se aplicó (ns).
+	 */
+	public static long getLastBatchLatency() {
+		return s_lastBatchLatency;
+	}
+
+	/**
+	 * Latencia máxima de un lote (ns).
+	 */
+	public static long getMaxBatchLatency() {
+		return s_maxBatchLatency;
+	}
+
+	public static String getStats() {
+		return "FXWorker: pendientes " + getQueueDepth() + " (máx. " + s_maxQueueDepth + "), lotes " + s_batches
+				+ ", último lote " + s_lastBatchSize + " trabajos en " + (s_lastBatchLatency / 1000000) + " ms"
+				+ " (máx. " + (s_maxBatchLatency / 1000000) + " ms)";
+	}
+
+	private static void enqueue(FXWorker worker) {
+		worker.m_queuedTime = System.nanoTime();
+		s_queue.add(worker);
+		int depth = s_queueDepth.incrementAndGet();
+		if (depth > s_maxQueueDepth) {
+			s_maxQueueDepth = depth;
+		}
+		if (s_scheduled.compareAndSet(false, true)) {
+			Platform.runLater(new Runnable() {
+				@Override
+				public void run() {
+					getTimer().start();
+				}
+			});
+		}
+	}
+
+	private static AnimationTimer getTimer() {
+		if (s_timer == null) {
+			s_timer = new AnimationTimer() {
+				@Override
+				public void handle(long now) {
+					drain();
+					if (s_queue.isEmpty()) {
+						// Se para para no forzar frames sin trabajo; se vuelve a arrancar al encolar
+						stop();
+						s_scheduled.set(false);
+						if (!s_queue.isEmpty() && s_scheduled.compareAndSet(false, true)) {
+							start();
+						}
+					}
+				}
+			};
+		}
+		return s_timer;
+	}
+
+	/**
+	 * Aplica todos los trabajos pendientes. Se ejecuta en el thread de JavaFX.
+	 */
+	private static void drain() {
+		ArrayList<FXWorker> batch = new ArrayList<>();
+		FXWorker worker;
+		while ((worker = s_queue.poll()) != null) {
+			batch.add(worker);
+		}
+		if (batch.isEmpty()) {
+			return;
+		}
+		s_queueDepth.addAndGet(-batch.size());
+
+		// Para cada ImageView sólo cuenta la última imagen
+		IdentityHashMap<Object, FXWorker> lastImage = new IdentityHashMap<>();
+		for (FXWorker w : batch) {
+			if (w.m_jobType == JOBTYPE_IMAGEVIEW_SETIMAGE) {
+				lastImage.put(w.m_objects[0], w);
+			}
+		}
+
+		int i = 0;
+		while (i < batch.size()) {
+			FXWorker first = batch.get(i);
+			if (first.m_jobType == JOBTYPE_IMAGEVIEW_SETIMAGE) {
+				if (lastImage.get(first.m_objects[0]) == first) {
+					first.run();
+				}
+				i++;
+				continue;
+			}
+			// Agrupa los trabajos consecutivos que se pueden aplicar con una sola inserción
+			int j = i + 1;
+			while (j < batch.size() && first.canMerge(batch.get(j))) {
+				j++;
+			}
+			if (j - i == 1) {
+				first.run();
+			} else {
+				applyMerged(batch.subList(i, j));
+			}
+			i = j;
+		}
+
+		long latency = System.nanoTime() - batch.get(0).m_queuedTime;
+		s_batches++;
+		s_lastBatchSize = batch.size();
+		s_lastBatchLatency = latency;
+		if (latency > s_maxBatchLatency) {
+			s_maxBatchLatency = latency;
+		}
+		if (s_batches % STATS_INTERVAL == 0) {
+			System.out.println(getStats());
+		}
+		for (FXWorker w : batch) {
+			if (w.m_done != null) w.m_done.countDown();
+		}
+	}
+
+	/**
+	 * Indica si otro trabajo se puede aplicar junto con éste en una sola inserción.
+	 */
+	private boolean canMerge(FXWorker other) {
+		if (other.m_jobType != m_jobType || other.m_objects[0] != m_objects[0]) {
+			return false;
+		}
+		switch (m_jobType) {
+			case JOBTYPE_ADD_THUMBSTRIPFILE:
+				// Inserciones sucesivas al principio
+				return (int) m_objects[2] == 0 && (int) other.m_objects[2] == 0;
+			case JOBTYPE_ADD_SEARCHCHILD:
+				// Inserciones sucesivas al final
+				return (int) m_objects[2] < 0 && (int) other.m_objects[2] < 0;
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * Aplica un grupo de trabajos que cumplen {@link #canMerge(FXWorker)} con una sola inserción.
+	 */
+	private static void applyMerged(List<FXWorker> group) {
+		FXWorker first = group.get(0);
+		try {
+			switch (first.m_jobType) {
+				case JOBTYPE_ADD_THUMBSTRIPFILE:
+					// Cada una se insertaba delante de la anterior
+					ArrayList<File> stripFiles = new ArrayList<>(group.size());
+					for (FXWorker w : group) {
+						stripFiles.add((File) w.m_objects[1]);
+					}
+					Collections.reverse(stripFiles);
+					((ThumbnailStrip) first.m_objects[0]).addFiles(stripFiles, 0);
+					break;
+
+				case JOBTYPE_ADD_SEARCHCHILD:
+					ArrayList<File> gridFiles = new ArrayList<>();
+					for (FXWorker w : group) {
+						gridFiles.addAll(Arrays.asList((File[]) w.m_objects[1]));
+					}
+					((SearchThumbnailGrid) first.m_objects[0]).addFiles(gridFiles.toArray(new File[gridFiles.size()]), -1);
+					break;
+
+				default:
+					for (FXWorker w : group) {
+						w.run();
+					}
+			}
+		} catch (Throwable e) {
+			e.printStackTrace();
+			System.err.println("Error procesando trabajos de tipo "+first.m_jobType+": "+e.getMessage());
+		}
 	}
 
 	public interface FxWorkerCallable {
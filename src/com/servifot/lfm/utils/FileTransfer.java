@@ -0,0 +1,246 @@
+package com.servifot.lfm.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Copia segura de un archivo a través de una conexión poco fiable (por ejemplo, la tarjeta SD
+ * por wifi).<br>
+ * <br>
+ * - Los datos se escriben en un archivo temporal junto al destino (<code>nombre.part</code>), así
+ * que en la carpeta de destino nunca aparece un archivo a medias.<br>
+ * - Si se corta la conexión, se reintenta continuando desde el último byte escrito. Si queda un
+ * temporal de un intento anterior, se comprueba que su final coincide con el origen y se continúa
+ * desde ahí.<br>
+ * - Al terminar se comprueba que la longitud coincide con la del origen y se publica el archivo
+ * renombrando el temporal de forma atómica.<br>
+ * <br>
+ * El archivo de origen no se modifica nunca. Las subclases pueden leer el origen de otro sitio
+ * (por ejemplo, {@link HttpTransfer}) sobrescribiendo los métodos <code>protected</code>.
+ */
+public class FileTransfer {
+
+	/** Extensión de los archivos temporales */
+	public static final String PART_EXTENSION = ".part";
+	/** Tamaño de cada bloque copiado (bytes) */
+	public static final int CHUNK_SIZE = 256 * 1024;
+	/** Bytes del final del temporal que se comparan con el origen antes de continuar una copia */
+	public static final int RESUME_CHECK_SIZE = 64 * 1024;
+	/** Número máximo de reintentos tras un error de lectura o escritura */
+	public static final int MAX_RETRIES = 5;
+	/** Espera antes del primer reintento (ms); cada reintento espera un poco más */
+	public static final long RETRY_DELAY = 1000;
+
+	/** Archivo de origen (<code>null</code> si el origen no es un archivo local) */
+	private final File m_source;
+	/** Nombre del origen, para los mensajes */
+	private final String m_sourceName;
+	/** Archivo de destino */
+	private final File m_dest;
+	/** Archivo temporal */
+	private final File m_part;
+	/** Bytes copiados (incluidos los de intentos anteriores) */
+	private volatile long m_copied = 0;
+	/** Tamaño del origen, o -1 si todavía no se conoce */
+	private volatile long m_total = -1;
+	/** Posición desde la que se ha continuado una copia anterior */
+	private long m_resumedFrom = 0;
+	/** Número de reintentos realizados */
+	private int m_retries = 0;
+
+	/**
+	 * @param source Archivo de origen.
+	 * @param dest Archivo de destino.
+	 */
+	public FileTransfer(File source, File dest) {
+		this(source, source.getAbsolutePath(), dest);
+	}
+
+	/**
+	 * @param source Archivo de origen (<code>null</code> si el origen no es un archivo local).
+	 * @param sourceName Nombre del origen, para los mensajes.
+	 * @param dest Archivo de destino.
+	 */
+	protected FileTransfer(File source, String sourceName, File dest) {
+		m_source = source;
+		m_sourceName = sourceName;
+		m_dest = dest;
+		m_part = getPartFile(dest);
+	}
+
+	/**
+	 * Copia el archivo. Si falla, el temporal se conserva para continuar en el siguiente intento.
+	 *
+	 * @throws IOException Si no se puede completar la copia tras los reintentos.
+	 */
+	public void transfer() throws IOException {
+		long total = getSourceSize();
+		m_total = total;
+		long position = getResumeOffset(total);
+		m_resumedFrom = position;
+		m_copied = position;
+
+		int attempt = 0;
+		while (true) {
+			try {
+				copyFrom(position, total);
+				break;
+			} catch (IOException e) {
+				if (++attempt > MAX_RETRIES || Thread.currentThread().isInterrupted()) {
+					throw e;
+				}
+				m_retries++;
+				System.err.println("Error copiando " + m_sourceName + " (" + e.getMessage() + "), reintento " + attempt);
+				try {
+					Thread.sleep(RETRY_DELAY * attempt);
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					throw e;
+				}
+				// Continuamos desde lo último que se ha escrito
+				position = Math.min(m_part.length(), total);
+			}
+		}
+
+		long written = m_part.length();
+		if (written != total || getSourceSize() != total) {
+			m_part.delete();
+			throw new IOException("La longitud de " + m_sourceName + " no coincide (" + written + " de " + total + " bytes)");
+		}
+		publish();
+	}
+
+	/**
+	 * Tamaño del origen.
+	 */
+	protected long getSourceSize() throws IOException {
+		return Files.size(m_source.toPath());
+	}
+
+	/**
+	 * Fecha de modificación del origen (ms), que se conserva en el destino.
+	 */
+	protected long getSourceDate() {
+		return m_source.lastModified();
+	}
+
+	/**
+	 * Lee un rango de bytes del origen.
+	 */
+	protected byte[] readSource(long position, int length) throws IOException {
+		return JpegHeaderReader.readRange(m_source, position, length);
+	}
+
+	/**
+	 * Copia desde una posición hasta el final en el temporal, actualizando el progreso con
+	 * {@link #setCopied(long)}.
+	 */
+	protected void copyFrom(long position, long total) throws IOException {
+		try (FileChannel in = FileChannel.open(m_source.toPath(), StandardOpenOption.READ);
+				FileChannel out = FileChannel.open(m_part.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
+			if (out.size() > position) {
+				out.truncate(position);
+			}
+			out.position(position);
+			while (position < total) {
+				long count = in.transferTo(position, Math.min(CHUNK_SIZE, total - position), out);
+				if (count <= 0) {
+					throw new IOException("No se puede leer en la posición " + position);
+				}
+				position += count;
+				setCopied(position);
+			}
+			out.force(false);
+		}
+	}
+
+	/**
+	 * Posición desde la que se puede continuar una copia anterior, o 0 si no hay temporal o no
+	 * coincide con el origen.
+	 */
+	private long getResumeOffset(long total) {
+		if (!m_part.isFile()) {
+			return 0;
+		}
+		long length = m_part.length();
+		if (length == 0 || length > total) {
+			return 0;
+		}
+		int check = (int) Math.min(RESUME_CHECK_SIZE, length);
+		try {
+			byte[] written = JpegHeaderReader.readRange(m_part, length - check, check);
+			byte[] original = readSource(length - check, check);
+			if (Arrays.equals(written, original)) {
+				return length;
+			}
+		} catch (IOException e) {
+			System.err.println("No se puede comprobar el temporal " + m_part.getAbsolutePath() + ": " + e.getMessage());
+		}
+		return 0;
+	}
+
+	/**
+	 * Renombra el temporal al destino de forma atómica, conservando la fecha del origen.
+	 */
+	private void publish() throws IOException {
+		m_part.setLastModified(getSourceDate());
+		try {
+			Files.move(m_part.toPath(), m_dest.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(m_part.toPath(), m_dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Archivo temporal que se usa para copiar a un destino.
+	 */
+	public static File getPartFile(File dest) {
+		return new File(dest.getParentFile(), dest.getName() + PART_EXTENSION);
+	}
+
+	public File getSource() {
+		return m_source;
+	}
+
+	public String getSourceName() {
+		return m_sourceName;
+	}
+
+	protected File getPartFile() {
+		return m_part;
+	}
+
+	protected void setCopied(long copied) {
+		m_copied = copied;
+	}
+
+	public File getDest() {
+		return m_dest;
+	}
+
+	/** Bytes copiados */
+	public long getCopied() {
+		return m_copied;
+	}
+
+	/** Tamaño total, o -1 si todavía no ha empezado la copia */
+	public long getTotal() {
+		return m_total;
+	}
+
+	/** Posición desde la que se ha continuado una copia anterior (0 si se ha empezado de cero) */
+	public long getResumedFrom() {
+		return m_resumedFrom;
+	}
+
+	/** Número de reintentos realizados */
+	public int getRetries() {
+		return m_retries;
+	}
+}
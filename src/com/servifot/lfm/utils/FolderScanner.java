@@ -0,0 +1,185 @@
+package com.servifot.lfm.utils;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Explorador incremental de una carpeta y sus subcarpetas.<br>
+ * <br>
+ * Recuerda el listado de cada carpeta (nombre, tamaño y fecha de cada archivo) junto con la fecha
+ * de modificación de la carpeta. En cada {@link #scan()} sólo se vuelven a listar las carpetas cuya
+ * fecha ha cambiado; las demás sólo cuestan una consulta de fecha. Así el tiempo para detectar
+ * archivos nuevos depende de las carpetas que cambian y no del número total de archivos.<br>
+ * <br>
+ * Como algunas unidades de red no actualizan bien la fecha de las carpetas, cada
+ * {@link #FULL_SCAN_INTERVAL} exploraciones se vuelven a listar todas.
+ */
+public class FolderScanner {
+
+	/** Cada cuántas exploraciones se listan todas las carpetas aunque no hayan cambiado */
+	public static final int FULL_SCAN_INTERVAL = 30;
+
+	/** Carpeta raíz */
+	private final File m_root;
+	/** Filtro de los archivos que interesan (las carpetas se recorren siempre) */
+	private final FileFilter m_filter;
+	/** Listados guardados, por ruta de carpeta */
+	private final HashMap<String, Listing> m_listings = new HashMap<>();
+	/** Número de exploraciones realizadas */
+	private int m_scans = 0;
+	/** Carpetas listadas en la última exploración */
+	private int m_listedFolders = 0;
+	/** Listener */
+	private FolderScannerListener m_listener = null;
+
+	/**
+	 * Listado de una carpeta.
+	 */
+	private static class Listing {
+		/** Fecha de modificación de la carpeta al listarla */
+		long modified;
+		/** Archivos: nombre → {tamaño, fecha} */
+		HashMap<String, long[]> files = new HashMap<>();
+		/** Subcarpetas */
+		ArrayList<File> folders = new ArrayList<>();
+	}
+
+	/**
+	 * @param root Carpeta raíz a explorar.
+	 * @param filter Filtro de los archivos que interesan, o <code>null</code> para todos.
+	 */
+	public FolderScanner(File root, FileFilter filter) {
+		m_root = root;
+		m_filter = filter;
+	}
+
+	/**
+	 * Explora la carpeta y devuelve los archivos nuevos o modificados desde la exploración anterior.
+	 * En la primera exploración todos los archivos son nuevos. Por cada archivo se avisa también
+	 * al listener.
+	 *
+	 * @return Archivos nuevos o modificados.
+	 */
+	public synchronized ArrayList<File> scan() {
+		boolean full = m_scans % FULL_SCAN_INTERVAL == 0;
+		m_scans++;
+		m_listedFolders = 0;
+		ArrayList<File> changes = new ArrayList<>();
+		HashMap<String, Listing> seen = new HashMap<>();
+		scan(m_root, full, changes, seen);
+
+		// Olvidamos las carpetas que ya no existen
+		Iterator<String> it = m_listings.keySet().iterator();
+		while (it.hasNext()) {
+			if (!seen.containsKey(it.next())) {
+				it.remove();
+			}
+		}
+
+		for (File file : changes) {
+			emitNewFile(file);
+		}
+		return changes;
+	}
+
+	private void scan(File folder, boolean full, ArrayList<File> changes, HashMap<String, Listing> seen) {
+		String path = folder.getAbsolutePath();
+		Listing old = m_listings.get(path);
+		long modified = folder.lastModified();
+
+		Listing listing = old;
+		if (old == null || full || old.modified != modified) {
+			File[] files = folder.listFiles();
+			if (files == null) {
+				System.err.println("No se puede listar la carpeta " + path);
+				return;
+			}
+			m_listedFolders++;
+			listing = new Listing();
+			listing.modified = modified;
+			for (File file : files) {
+				if (file.isDirectory()) {
+					listing.folders.add(file);
+				} else if (m_filter == null || m_filter.accept(file)) {
+					long[] info = {file.length(), file.lastModified()};
+					listing.files.put(file.getName(), info);
+					long[] previous = old != null ? old.files.get(file.getName()) : null;
+					if (previous == null || previous[0] != info[0] || previous[1] != info[1]) {
+						changes.add(file);
+					}
+				}
+			}
+			m_listings.put(path, listing);
+		}
+		seen.put(path, listing);
+
+		for (File subfolder : listing.folders) {
+			scan(subfolder, full, changes, seen);
+		}
+	}
+
+	/**
+	 * Olvida un archivo, para que la siguiente exploración lo vuelva a devolver (por ejemplo, si
+	 * no se ha podido importar).
+	 *
+	 * @param file Archivo a olvidar.
+	 */
+	public synchronized void forget(File file) {
+		Listing listing = m_listings.get(file.getParentFile().getAbsolutePath());
+		if (listing != null) {
+			listing.files.remove(file.getName());
+			// Forzamos que se vuelva a listar la carpeta
+			listing.modified = -1;
+		}
+	}
+
+	/**
+	 * Olvida todos los listados; la siguiente exploración devolverá todos los archivos.
+	 */
+	public synchronized void reset() {
+		m_listings.clear();
+		m_scans = 0;
+	}
+
+	public File getRoot() {
+		return m_root;
+	}
+
+	/**
+	 * Número de archivos conocidos.
+	 */
+	public synchronized int getFileCount() {
+		int count = 0;
+		for (Map.Entry<String, Listing> entry : m_listings.entrySet()) {
+			count += entry.getValue().files.size();
+		}
+		return count;
+	}
+
+	/**
+	 * Número de carpetas que se han tenido que listar en la última exploración.
+	 */
+	public int getListedFolders() {
+		return m_listedFolders;
+	}
+
+	private void emitNewFile(File file) {
+		if (m_listener != null) m_listener.onNewFile(file);
+	}
+
+	public FolderScannerListener getListener() {
+		return m_listener;
+	}
+
+	public void setListener(FolderScannerListener listener) {
+		m_listener = listener;
+	}
+
+	public interface FolderScannerListener {
+		public void onNewFile(File file);
+	}
+}
@@ -0,0 +1,143 @@
+package com.servifot.lfm.utils;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * {@link FileTransfer} que descarga el origen por HTTP (por ejemplo, de una tarjeta FlashAir).<br>
+ * <br>
+ * Los datos se escriben directamente en el temporal a medida que llegan, sin pasar por memoria.
+ * Para continuar una descarga se pide el resto con una cabecera <code>Range</code>; si el servidor
+ * no la admite y envía el archivo entero, se descarta el principio.
+ */
+public class HttpTransfer extends FileTransfer {
+
+	/** Tiempo máximo para conectar (ms) */
+	public static final int CONNECT_TIMEOUT = 5000;
+	/** Tiempo máximo sin recibir datos (ms) */
+	public static final int READ_TIMEOUT = 10000;
+	/** Tamaño del buffer de lectura (bytes) */
+	public static final int BUFFER_SIZE = 64 * 1024;
+
+	/** URL del origen */
+	private final URL m_url;
+	/** Tamaño del origen */
+	private final long m_size;
+	/** Fecha del origen (ms) */
+	private final long m_date;
+
+	/**
+	 * @param url URL del origen.
+	 * @param size Tamaño del origen (según el listado del servidor).
+	 * @param date Fecha del origen (ms), que se conserva en el destino.
+	 * @param dest Archivo de destino.
+	 */
+	public HttpTransfer(URL url, long size, long date, File dest) {
+		super(null, url.toString(), dest);
+		m_url = url;
+		m_size = size;
+		m_date = date;
+	}
+
+	@Override
+	protected long getSourceSize() {
+		return m_size;
+	}
+
+	@Override
+	protected long getSourceDate() {
+		return m_date;
+	}
+
+	@Override
+	protected byte[] readSource(long position, int length) throws IOException {
+		HttpURLConnection connection = open(position, position + length - 1);
+		try (InputStream in = connection.getInputStream()) {
+			byte[] data = new byte[length];
+			int offset = 0;
+			while (offset < length) {
+				int count = in.read(data, offset, length - offset);
+				if (count < 0) {
+					throw new EOFException("Fin de datos inesperado en " + m_url);
+				}
+				offset += count;
+			}
+			return data;
+		} finally {
+			connection.disconnect();
+		}
+	}
+
+	@Override
+	protected void copyFrom(long position, long total) throws IOException {
+		HttpURLConnection connection = open(position, -1);
+		try (InputStream in = connection.getInputStream();
+				FileChannel out = FileChannel.open(getPartFile().toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
+			if (out.size() > position) {
+				out.truncate(position);
+			}
+			out.position(position);
+			byte[] buffer = new byte[BUFFER_SIZE];
+			while (position < total) {
+				int count = in.read(buffer, 0, (int) Math.min(buffer.length, total - position));
+				if (count < 0) {
+					throw new EOFException("Conexión cerrada en la posición " + position);
+				}
+				ByteBuffer data = ByteBuffer.wrap(buffer, 0, count);
+				while (data.hasRemaining()) {
+					out.write(data);
+				}
+				position += count;
+				setCopied(position);
+			}
+			out.force(false);
+		} finally {
+			connection.disconnect();
+		}
+	}
+
+	/**
+	 * Abre una conexión que empieza a leer en <code>first</code>.
+	 *
+	 * @param first Primer byte.
+	 * @param last Último byte, o -1 para leer hasta el final.
+	 */
+	private HttpURLConnection open(long first, long last) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) m_url.openConnection();
+		connection.setConnectTimeout(CONNECT_TIMEOUT);
+		connection.setReadTimeout(READ_TIMEOUT);
+		if (first > 0 || last >= 0) {
+			connection.setRequestProperty("Range", "bytes=" + first + "-" + (last >= 0 ? last : ""));
+		}
+		int code = connection.getResponseCode();
+		if (code == HttpURLConnection.HTTP_PARTIAL) {
+			return connection;
+		}
+		if (code != HttpURLConnection.HTTP_OK) {
+			connection.disconnect();
+			throw new IOException("Respuesta HTTP " + code + " de " + m_url);
+		}
+		// El servidor no admite rangos: saltamos el principio
+		InputStream in = connection.getInputStream();
+		long skip = first;
+		while (skip > 0) {
+			long count = in.skip(skip);
+			if (count <= 0) {
+				if (in.read() < 0) {
+					connection.disconnect();
+					throw new EOFException("Fin de datos inesperado en " + m_url);
+				}
+				count = 1;
+			}
+			skip -= count;
+		}
+		return connection;
+	}
+}
@@ -0,0 +1,280 @@
+package com.servifot.lfm.utils;
+
+import java.io.File;
+import java.lang.ref.SoftReference;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javafx.scene.image.Image;
+
+/**
+ * Caché en memoria de imágenes JavaFX ya decodificadas, compartida por toda la aplicación.<br>
+ * <br>
+ * Hay dos niveles independientes: miniaturas ({@link #getThumbnails()}) e imágenes a tamaño de
+ * previsualización ({@link #getPreviews()}). Cada nivel es un LRU limitado por el tamaño de los
+ * píxeles decodificados (no por el número de entradas). Además:<br>
+ * - Las imágenes se guardan con <code>SoftReference</code>, de modo que el recolector puede liberarlas
+ * si falta memoria.<br>
+ * - Cuando el heap libre baja de {@link #LOW_MEMORY_RATIO}, el nivel se reduce a la mitad de su
+ * presupuesto hasta que vuelva a haber memoria.<br>
+ * - Se contabilizan aciertos, fallos, expulsiones y entradas liberadas por el recolector.
+ */
+public class ImageCache {
+
+	/** Presupuesto por defecto del nivel de miniaturas (bytes) */
+	public static final long THUMBNAILS_BUDGET = 32L * 1024 * 1024;
+	/** Presupuesto por defecto del nivel de previsualizaciones (bytes) */
+	public static final long PREVIEWS_BUDGET = 160L * 1024 * 1024;
+	/** Proporción de heap libre por debajo de la cual se reduce el presupuesto */
+	public static final double LOW_MEMORY_RATIO = 0.15;
+
+	/** Nivel de miniaturas */
+	private static final ImageCache s_thumbnails = new ImageCache("thumbnails", THUMBNAILS_BUDGET);
+	/** Nivel de previsualizaciones */
+	private static final ImageCache s_previews = new ImageCache("previews", PREVIEWS_BUDGET);
+
+	/** Nombre del nivel (para las estadísticas) */
+	private final String m_name;
+	/** Presupuesto máximo (bytes) */
+	private volatile long m_budget;
+	/** Entradas en orden de acceso (la primera es la menos usada recientemente) */
+	private final LinkedHashMap<String, Entry> m_entries = new LinkedHashMap<>(64, 0.75f, true);
+	/** Las mismas entradas, para consultarlas sin alterar el orden de acceso ({@link #contains(String)}) */
+	private final HashMap<String, Entry> m_index = new HashMap<>(64);
+	/** Bytes ocupados por las entradas */
+	private long m_bytes = 0;
+
+	/* Estadísticas */
+	private long m_hits = 0;
+	private long m_misses = 0;
+	private long m_evictions = 0;
+	private long m_collected = 0;
+
+	/**
+	 * Entrada de la caché.
+	 */
+	private static class Entry {
+		final SoftReference<Image> image;
+		final long bytes;
+
+		Entry(Image image, long bytes) {
+			this.image = new SoftReference<>(image);
+			this.bytes = bytes;
+		}
+	}
+
+	/**
+	 * Crea un nivel de caché.
+	 *
+	 * @param name Nombre del nivel.
+	 * @param budget Presupuesto máximo (bytes).
+	 */
+	public ImageCache(String name, long budget) {
+		m_name = name;
+		m_budget = budget;
+	}
+
+	/**
+	 * Nivel de caché de miniaturas.
+	 */
+	public static ImageCache getThumbnails() {
+		return s_thumbnails;
+	}
+
+	/**
+	 * Nivel de caché de imágenes a tamaño de previsualización.
+	 */
+	public static ImageCache getPreviews() {
+		return s_previews;
+	}
+
+	/**
+	 * Genera la clave de un archivo de imagen. Incluye tamaño y fecha de modificación, para que
+	 * un archivo sobrescrito no devuelva la imagen antigua.
+	 *
+	 * @param file Archivo de imagen.
+	 * @param variant Variante de la imagen (por ejemplo, el tamaño de la miniatura).
+	 * @return Clave de la imagen.
+	 */
+	public static String key(File file, Object variant) {
+		return file.getAbsolutePath() + "|" + file.length() + "|" + file.lastModified() + "|" + variant;
+	}
+
+	/**
+	 * Busca una imagen en la caché.
+	 *
+	 * @param key Clave de la imagen.
+	 * @return Imagen, o <code>null</code> si no está en la caché.
+	 */
+	public synchronized Image get(String key) {
+		Entry entry = m_entries.get(key);
+		if (entry == null) {
+			m_misses++;
+			return null;
+		}
+		Image image = entry.image.get();
+		if (image == null) {
+			// La ha liberado el recolector
+			m_entries.remove(key);
+			m_index.remove(key);
+			m_bytes -= entry.bytes;
+			m_collected++;
+			m_misses++;
+			return null;
+		}
+		m_hits++;
+		return image;
+	}
+
+	/**
+	 * Indica si una imagen está en la caché, sin alterar el orden LRU ni las estadísticas.
+	 *
+	 * @param key Clave de la imagen.
+	 * @return <code>true</code> si la imagen está en la caché.
+	 */
+	public synchronized boolean contains(String key) {
+		Entry entry = m_index.get(key);
+		return entry != null && entry.image.get() != null;
+	}
+
+	/**
+	 * Añade una imagen a la caché, expulsando las menos usadas si hace falta.
+	 *
+	 * @param key Clave de la imagen.
+	 * @param image Imagen a guardar.
+	 */
+	public synchronized void put(String key, Image image) {
+		if (image == null) {
+			return;
+		}
+		long bytes = estimateBytes(image);
+		Entry old = m_entries.remove(key);
+		if (old != null) {
+			m_index.remove(key);
+			m_bytes -= old.bytes;
+		}
+		if (bytes > getEffectiveBudget()) {
+			return;
+		}
+		Entry entry = new Entry(image, bytes);
+		m_entries.put(key, entry);
+		m_index.put(key, entry);
+		m_bytes += bytes;
+		trim();
+	}
+
+	/**
+	 * Elimina una imagen de la caché.
+	 *
+	 * @param key Clave de la imagen.
+	 */
+	public synchronized void remove(String key) {
+		Entry entry = m_entries.remove(key);
+		if (entry != null) {
+			m_index.remove(key);
+			m_bytes -= entry.bytes;
+		}
+	}
+
+	/**
+	 * Vacía la caché.
+	 */
+	public synchronized void clear() {
+		m_entries.clear();
+		m_index.clear();
+		m_bytes = 0;
+	}
+
+	/**
+	 * Expulsa entradas hasta que la ocupación quede dentro del presupuesto efectivo. También
+	 * descarta las entradas que ya ha liberado el recolector.
+	 */
+	private void trim() {
+		long budget = getEffectiveBudget();
+		Iterator<Map.Entry<String, Entry>> it = m_entries.entrySet().iterator();
+		while (it.hasNext() && m_bytes > budget) {
+			Map.Entry<String, Entry> e = it.next();
+			Entry entry = e.getValue();
+			it.remove();
+			m_index.remove(e.getKey());
+			m_bytes -= entry.bytes;
+			if (entry.image.get() == null) {
+				m_collected++;
+			} else {
+				m_evictions++;
+			}
+		}
+	}
+
+	/**
+	 * Presupuesto efectivo: la mitad del presupuesto si queda poca memoria libre en el heap.
+	 */
+	private long getEffectiveBudget() {
+		Runtime rt = Runtime.getRuntime();
+		long free = rt.maxMemory() - (rt.totalMemory() - rt.freeMemory());
+		if (free < rt.maxMemory() * LOW_MEMORY_RATIO) {
+			return m_budget / 2;
+		}
+		return m_budget;
+	}
+
+	/**
+	 * Estima los bytes que ocupa una imagen decodificada (4 bytes por píxel). Si la imagen todavía
+	 * se está cargando en segundo plano, se usa el tamaño solicitado.
+	 *
+	 * @param image Imagen JavaFX.
+	 * @return Bytes estimados.
+	 */
+	public static long estimateBytes(Image image) {
+		double width = image.getWidth();
+		double height = image.getHeight();
+		if (width <= 0 || height <= 0) {
+			width = image.getRequestedWidth();
+			height = image.getRequestedHeight();
+		}
+		return Math.max(1, (long) (width * height * 4));
+	}
+
+	public synchronized long getBudget() {
+		return m_budget;
+	}
+
+	public synchronized void setBudget(long budget) {
+		m_budget = budget;
+		trim();
+	}
+
+	public synchronized long getBytes() {
+		return m_bytes;
+	}
+
+	public synchronized int size() {
+		return m_entries.size();
+	}
+
+	public synchronized long getHits() {
+		return m_hits;
+	}
+
+	public synchronized long getMisses() {
+		return m_misses;
+	}
+
+	public synchronized long getEvictions() {
+		return m_evictions;
+	}
+
+	public synchronized long getCollected() {
+		return m_collected;
+	}
+
+	@Override
+	public synchronized String toString() {
+		long requests = m_hits + m_misses;
+		return "ImageCache[" + m_name + "] " + m_entries.size() + " imágenes, "
+				+ (m_bytes / 1024) + "/" + (m_budget / 1024) + " KB, aciertos " + m_hits + "/" + requests
+				+ ", expulsiones " + m_evictions + ", liberadas " + m_collected;
+	}
+}
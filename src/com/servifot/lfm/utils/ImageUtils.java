@@ -0,0 +1,410 @@
+package com.servifot.lfm.utils;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.color.ColorSpace;
+import java.awt.color.ICC_ColorSpace;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Iterator;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOInvalidTreeException;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataFormatImpl;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.w3c.dom.NodeList;
+
+/**
+ * Utilidades de decodificación y transformación de imágenes con AWT.
+ */
+public class ImageUtils {
+
+	/** Formato nativo de los metadatos JPEG de ImageIO */
+	private static final String JPEG_METADATA_FORMAT = "javax_imageio_jpeg_image_1.0";
+	/** Posición de la resolución horizontal en la cabecera de un BMP */
+	private static final int BMP_RESOLUTION_OFFSET = 38;
+
+	/**
+	 * Decodifica una imagen con submuestreo, de forma que el resultado tenga al menos las
+	 * dimensiones indicadas (o las originales si la imagen es más pequeña).<br>
+	 * <br>
+	 * El lector descarta filas y columnas mientras decodifica, así que no se llega a reservar
+	 * memoria para la imagen a resolución completa.
+	 *
+	 * @param imageFile Archivo de imagen.
+	 * @param minWidth Anchura mínima deseada (px).
+	 * @param minHeight Altura mínima deseada (px).
+	 * @return Imagen decodificada, o <code>null</code> si no se puede leer.
+	 */
+	public static BufferedImage readSubsampled(File imageFile, int minWidth, int minHeight) {
+		return readSubsampled(imageFile, minWidth, minHeight, false);
+	}
+
+	/**
+	 * Como {@link #readSubsampled(File, int, int)}, pudiendo pedir que no se apliquen los perfiles
+	 * de color incrustados: la imagen se devuelve en el espacio de color de su perfil
+	 * (<code>ICC_ColorSpace</code>) para convertirla después con una conversión ya preparada, en
+	 * lugar de que el lector prepare una conversión a sRGB cada vez.
+	 *
+	 * @param keepColorSpace Si no se convierte a sRGB (si el lector lo permite).
+	 */
+	public static BufferedImage readSubsampled(File imageFile, int minWidth, int minHeight, boolean keepColorSpace) {
+		ImageReader reader = null;
+		try (ImageInputStream is = ImageIO.createImageInputStream(imageFile)) {
+			if (is == null) {
+				return null;
+			}
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(is);
+			if (!readers.hasNext()) {
+				return null;
+			}
+			reader = readers.next();
+			reader.setInput(is, true, true);
+			int width = reader.getWidth(0);
+			int height = reader.getHeight(0);
+
+			ImageReadParam param = reader.getDefaultReadParam();
+			int subsampling = getSubsampling(width, height, minWidth, minHeight);
+			if (subsampling > 1) {
+				param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+			}
+			if (keepColorSpace) {
+				// Destino en el espacio de color del perfil: el lector no crea ninguna conversión
+				Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+				while (types.hasNext()) {
+					ImageTypeSpecifier type = types.next();
+					ColorSpace cs = type.getColorModel().getColorSpace();
+					if (cs instanceof ICC_ColorSpace && !cs.isCS_sRGB() && cs.getType() == ColorSpace.TYPE_RGB && type.getNumBands() == 3) {
+						param.setDestination(type.createBufferedImage((width + subsampling - 1) / subsampling, (height + subsampling - 1) / subsampling));
+						break;
+					}
+				}
+			}
+			return reader.read(0, param);
+
+		} catch (Exception e) {
+			System.err.println("No se puede decodificar la imagen " + imageFile.getAbsolutePath() + ": " + e.getMessage());
+			return null;
+		} finally {
+			if (reader != null) reader.dispose();
+		}
+	}
+
+	/**
+	 * Calcula el factor de submuestreo entero más grande que mantiene la imagen por encima de
+	 * las dimensiones mínimas indicadas.
+	 *
+	 * @param width Anchura original (px).
+	 * @param height Altura original (px).
+	 * @param minWidth Anchura mínima deseada (px).
+	 * @param minHeight Altura mínima deseada (px).
+	 * @return Factor de submuestreo (1 si no se puede reducir).
+	 */
+	public static int getSubsampling(int width, int height, int minWidth, int minHeight) {
+		if (minWidth <= 0 || minHeight <= 0) {
+			return 1;
+		}
+		return Math.max(1, Math.min(width / minWidth, height / minHeight));
+	}
+
+	/**
+	 * Gira una imagen para que se vea derecha según su orientación EXIF.
+	 *
+	 * @param image Imagen a girar.
+	 * @param orientation Orientación de los píxeles de la imagen.
+	 * @return Imagen girada, o la misma imagen si no hace falta girarla.
+	 */
+	public static BufferedImage applyOrientation(BufferedImage image, ImageOrientation orientation) {
+		int w = image.getWidth();
+		int h = image.getHeight();
+		AffineTransform transform = new AffineTransform();
+		int newWidth = w;
+		int newHeight = h;
+		switch (orientation) {
+			case DOWN:
+				transform.translate(w, h);
+				transform.rotate(Math.PI);
+				break;
+			case LEFT:
+				// EXIF 6: girar 90º en sentido horario
+				newWidth = h;
+				newHeight = w;
+				transform.translate(h, 0);
+				transform.rotate(Math.PI / 2);
+				break;
+			case RIGHT:
+				// EXIF 8: girar 90º en sentido antihorario
+				newWidth = h;
+				newHeight = w;
+				transform.translate(0, w);
+				transform.rotate(-Math.PI / 2);
+				break;
+			default:
+				return image;
+		}
+
+		BufferedImage rotated = new BufferedImage(newWidth, newHeight, getCompatibleType(image));
+		Graphics2D g = rotated.createGraphics();
+		g.drawImage(image, transform, null);
+		g.dispose();
+		return rotated;
+	}
+
+	/**
+	 * Escala una imagen para que quepa en un rectángulo, respetando las proporciones.
+	 *
+	 * @param image Imagen a escalar.
+	 * @param maxWidth Anchura máxima (px).
+	 * @param maxHeight Altura máxima (px).
+	 * @return Imagen escalada, o la misma imagen si ya cabe.
+	 */
+	public static BufferedImage scaleToFit(BufferedImage image, int maxWidth, int maxHeight) {
+		double scale = Math.min((double) maxWidth / image.getWidth(), (double) maxHeight / image.getHeight());
+		if (scale >= 1) {
+			return image;
+		}
+		int width = Math.max(1, (int) Math.round(image.getWidth() * scale));
+		int height = Math.max(1, (int) Math.round(image.getHeight() * scale));
+		return scale(image, width, height);
+	}
+
+	/**
+	 * Escala una imagen para que cubra un rectángulo, respetando las proporciones.
+	 *
+	 * @param image Imagen a escalar.
+	 * @param minWidth Anchura mínima (px).
+	 * @param minHeight Altura mínima (px).
+	 * @return Imagen escalada, o la misma imagen si ya cubre el rectángulo.
+	 */
+	public static BufferedImage scaleToCover(BufferedImage image, int minWidth, int minHeight) {
+		double scale = Math.max((double) minWidth / image.getWidth(), (double) minHeight / image.getHeight());
+		if (scale >= 1) {
+			return image;
+		}
+		int width = Math.max(1, (int) Math.round(image.getWidth() * scale));
+		int height = Math.max(1, (int) Math.round(image.getHeight() * scale));
+		return scale(image, width, height);
+	}
+
+	/**
+	 * Escala una imagen a unas dimensiones concretas con interpolación bilineal.
+	 *
+	 * @param image Imagen a escalar.
+	 * @param width Anchura final (px).
+	 * @param height Altura final (px).
+	 * @return Imagen escalada.
+	 */
+	public static BufferedImage scale(BufferedImage image, int width, int height) {
+		BufferedImage scaled = new BufferedImage(width, height, getCompatibleType(image));
+		Graphics2D g = scaled.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+		g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+		g.drawImage(image, 0, 0, width, height, null);
+		g.dispose();
+		return scaled;
+	}
+
+	/**
+	 * Escribe una imagen en un archivo JPEG.
+	 *
+	 * @param image Imagen a escribir.
+	 * @param file Archivo de destino.
+	 * @throws IOException Si no se puede escribir el archivo.
+	 */
+	public static void writeJpeg(BufferedImage image, File file) throws IOException {
+		if (!ImageIO.write(toRgb(image), "jpg", file)) {
+			throw new IOException("No JPEG writer available");
+		}
+	}
+
+	/**
+	 * Escribe una imagen en un archivo PNG con el nivel de compresión indicado. Los niveles bajos
+	 * generan archivos algo más grandes pero se escriben mucho más rápido.
+	 *
+	 * @param image Imagen a escribir.
+	 * @param file Archivo de destino.
+	 * @param deflateLevel Nivel de compresión (0 a 9).
+	 * @throws IOException Si no se puede escribir el archivo.
+	 */
+	public static void writePng(BufferedImage image, File file, int deflateLevel) throws IOException {
+		Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("png");
+		if (!writers.hasNext()) {
+			throw new IOException("No PNG writer available");
+		}
+		ImageWriter writer = writers.next();
+		try (ImageOutputStream os = ImageIO.createImageOutputStream(file)) {
+			if (os == null) {
+				throw new IOException("No se puede escribir " + file.getAbsolutePath());
+			}
+			writer.setOutput(os);
+			ImageWriteParam param = writer.getDefaultWriteParam();
+			if (param.canWriteCompressed()) {
+				// El escritor de PNG traduce la calidad a nivel de compresión: 1 = sin comprimir, 0 = máximo
+				param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+				param.setCompressionQuality(1f - Math.max(0, Math.min(9, deflateLevel)) / 9f);
+			}
+			writer.write(null, new IIOImage(image, null, null), param);
+		} finally {
+			writer.dispose();
+		}
+	}
+
+	/**
+	 * Escribe una imagen en un archivo JPEG con la calidad y la resolución indicadas.
+	 *
+	 * @param image Imagen a escribir.
+	 * @param file Archivo de destino.
+	 * @param quality Calidad (0 a 1).
+	 * @param dpi Resolución a indicar en el archivo (ppp), o 0 para no indicarla.
+	 * @throws IOException Si no se puede escribir el archivo.
+	 */
+	public static void writeJpeg(BufferedImage image, File file, float quality, double dpi) throws IOException {
+		image = toRgb(image);
+		ImageWriter writer = getWriter("jpg");
+		ImageWriteParam param = writer.getDefaultWriteParam();
+		param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+		param.setCompressionQuality(Math.max(0f, Math.min(1f, quality)));
+		write(writer, param, image, file, dpi);
+	}
+
+	/**
+	 * Escribe una imagen sin comprimir (para formatos como BMP o TIFF, que la impresora puede leer
+	 * directamente).
+	 *
+	 * @param image Imagen a escribir.
+	 * @param file Archivo de destino.
+	 * @param formatName Formato (<code>"bmp"</code>, <code>"tif"</code>...).
+	 * @param dpi Resolución a indicar en el archivo (ppp), o 0 para no indicarla.
+	 * @throws IOException Si no se puede escribir el archivo.
+	 */
+	public static void writeUncompressed(BufferedImage image, File file, String formatName, double dpi) throws IOException {
+		image = toRgb(image);
+		ImageWriter writer = getWriter(formatName);
+		ImageWriteParam param = writer.getDefaultWriteParam();
+		if (param.canWriteCompressed()) {
+			param.setCompressionMode(ImageWriteParam.MODE_DISABLED);
+		}
+		write(writer, param, image, file, dpi);
+		if (dpi > 0 && formatName.equalsIgnoreCase("bmp")) {
+			// El escritor de BMP no admite metadatos: se corrige la cabecera
+			setBmpResolution(file, dpi);
+		}
+	}
+
+	/**
+	 * Escribe la resolución (píxeles por metro) en la cabecera <code>BITMAPINFOHEADER</code> de un BMP.
+	 */
+	private static void setBmpResolution(File file, double dpi) throws IOException {
+		int pixelsPerMeter = (int) Math.round(dpi * 100.0 / 2.54);
+		byte[] value = {(byte) pixelsPerMeter, (byte) (pixelsPerMeter >> 8), (byte) (pixelsPerMeter >> 16), (byte) (pixelsPerMeter >> 24)};
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.seek(BMP_RESOLUTION_OFFSET);
+			raf.write(value);
+			raf.write(value);
+		}
+	}
+
+	private static ImageWriter getWriter(String formatName) throws IOException {
+		Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(formatName);
+		if (!writers.hasNext()) {
+			throw new IOException("No " + formatName + " writer available");
+		}
+		return writers.next();
+	}
+
+	/**
+	 * Escribe una imagen con un escritor ya configurado, indicando la resolución en los metadatos
+	 * si el formato lo admite.
+	 */
+	private static void write(ImageWriter writer, ImageWriteParam param, BufferedImage image, File file, double dpi) throws IOException {
+		try (ImageOutputStream os = ImageIO.createImageOutputStream(file)) {
+			if (os == null) {
+				throw new IOException("No se puede escribir " + file.getAbsolutePath());
+			}
+			writer.setOutput(os);
+			IIOMetadata metadata = null;
+			if (dpi > 0) {
+				metadata = writer.getDefaultImageMetadata(ImageTypeSpecifier.createFromRenderedImage(image), param);
+				setResolution(metadata, dpi);
+			}
+			writer.write(null, new IIOImage(image, null, metadata), param);
+		} finally {
+			writer.dispose();
+		}
+	}
+
+	/**
+	 * Indica la resolución en unos metadatos, con el formato estándar de ImageIO (tamaño del
+	 * píxel en mm). Si el formato no lo admite, no hace nada.
+	 */
+	private static void setResolution(IIOMetadata metadata, double dpi) {
+		if (metadata == null || metadata.isReadOnly()) return;
+		if (JPEG_METADATA_FORMAT.equals(metadata.getNativeMetadataFormatName())) {
+			// El formato estándar no se traduce bien a la densidad JFIF: se indica directamente
+			try {
+				IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree(JPEG_METADATA_FORMAT);
+				NodeList jfif = root.getElementsByTagName("app0JFIF");
+				if (jfif.getLength() > 0) {
+					IIOMetadataNode node = (IIOMetadataNode) jfif.item(0);
+					node.setAttribute("resUnits", "1");
+					node.setAttribute("Xdensity", Integer.toString((int) Math.round(dpi)));
+					node.setAttribute("Ydensity", Integer.toString((int) Math.round(dpi)));
+					metadata.setFromTree(JPEG_METADATA_FORMAT, root);
+				}
+			} catch (IIOInvalidTreeException e) {
+				System.err.println("No se puede indicar la resolución: " + e.getMessage());
+			}
+			return;
+		}
+		if (!metadata.isStandardMetadataFormatSupported()) return;
+		String pixelSize = Double.toString(25.4 / dpi);
+		IIOMetadataNode horizontal = new IIOMetadataNode("HorizontalPixelSize");
+		horizontal.setAttribute("value", pixelSize);
+		IIOMetadataNode vertical = new IIOMetadataNode("VerticalPixelSize");
+		vertical.setAttribute("value", pixelSize);
+		IIOMetadataNode dimension = new IIOMetadataNode("Dimension");
+		dimension.appendChild(horizontal);
+		dimension.appendChild(vertical);
+		IIOMetadataNode root = new IIOMetadataNode(IIOMetadataFormatImpl.standardMetadataFormatName);
+		root.appendChild(dimension);
+		try {
+			metadata.mergeTree(IIOMetadataFormatImpl.standardMetadataFormatName, root);
+		} catch (IIOInvalidTreeException e) {
+			System.err.println("No se puede indicar la resolución: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * La imagen en RGB sin canal alfa (la misma si ya lo es).
+	 */
+	private static BufferedImage toRgb(BufferedImage image) {
+		if (image.getType() == BufferedImage.TYPE_INT_RGB || image.getType() == BufferedImage.TYPE_3BYTE_BGR) {
+			return image;
+		}
+		BufferedImage rgb = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = rgb.createGraphics();
+		g.drawImage(image, 0, 0, null);
+		g.dispose();
+		return rgb;
+	}
+
+	/**
+	 * Tipo de <code>BufferedImage</code> adecuado para dibujar una copia transformada de una imagen.
+	 */
+	private static int getCompatibleType(BufferedImage image) {
+		return image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+	}
+}
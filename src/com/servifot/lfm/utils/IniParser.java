@@ -291,4 +291,52 @@ public class IniParser {
 		return (value == null) ? defaultValue : value;
 	}
 
+	/**
+	 * Gets the integer value for a particular section and key. A default value
+	 * is returned if key is not found or is not a valid integer.
+	 *
+	 * @param aSection
+	 *            a section name
+	 * @param aKey
+	 *            the key whose value is to be returned.
+	 * @param defaultValue
+	 *            default value to be returned if key not found
+	 * @return integer value of particular section and key
+	 */
+	public int getInt(String aSection, String aKey, int defaultValue) {
+		String value = getString(aSection, aKey);
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * Gets the decimal value for a particular section and key. A default value
+	 * is returned if key is not found or is not a valid number.
+	 *
+	 * @param aSection
+	 *            a section name
+	 * @param aKey
+	 *            the key whose value is to be returned.
+	 * @param defaultValue
+	 *            default value to be returned if key not found
+	 * @return decimal value of particular section and key
+	 */
+	public double getDouble(String aSection, String aKey, double defaultValue) {
+		String value = getString(aSection, aKey);
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			return Double.parseDouble(value.trim().replace(',', '.'));
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+
 }
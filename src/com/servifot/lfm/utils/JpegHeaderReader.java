@@ -0,0 +1,155 @@
+package com.servifot.lfm.utils;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Lector de la cabecera de un archivo JPEG basado en <code>FileChannel</code>.<br>
+ * <br>
+ * Al abrirse lee de una vez los primeros bytes del archivo (64 KB por defecto) con una única
+ * lectura posicional. Todas las lecturas que caen dentro de ese prefijo se sirven desde memoria;
+ * sólo los segmentos que se salen del prefijo provocan nuevas lecturas posicionales sobre el canal,
+ * sin <code>seek</code> ni <code>skip</code>.<br>
+ * <br>
+ * No se usa <code>FileChannel.map</code> porque en Windows el archivo queda bloqueado hasta que
+ * el recolector libera el mapeo, y la carpeta de la cámara se renombra y borra mientras se usa.
+ */
+public class JpegHeaderReader implements Closeable {
+
+	/** Tamaño por defecto del prefijo leído al abrir el archivo (bytes) */
+	public static final int DEFAULT_PREFIX_SIZE = 64 * 1024;
+
+	/** Canal del archivo */
+	private FileChannel m_channel;
+	/** Tamaño total del archivo */
+	private long m_size;
+	/** Bytes iniciales del archivo */
+	private byte[] m_prefix;
+
+	/**
+	 * Abre un archivo y lee el prefijo con el tamaño por defecto.
+	 *
+	 * @param file Archivo a leer.
+	 * @throws IOException Si no se puede abrir o leer el archivo.
+	 */
+	public JpegHeaderReader(File file) throws IOException {
+		this(file, DEFAULT_PREFIX_SIZE);
+	}
+
+	/**
+	 * Abre un archivo y lee el prefijo indicado.
+	 *
+	 * @param file Archivo a leer.
+	 * @param prefixSize Número de bytes iniciales a leer de una vez.
+	 * @throws IOException Si no se puede abrir o leer el archivo.
+	 */
+	public JpegHeaderReader(File file, int prefixSize) throws IOException {
+		m_channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			m_size = m_channel.size();
+			ByteBuffer prefix = ByteBuffer.allocate((int) Math.min(Math.max(prefixSize, 0), m_size));
+			readFully(m_channel, prefix, 0);
+			m_prefix = prefix.array();
+		} catch (IOException e) {
+			m_channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Lee un rango de bytes del archivo.
+	 *
+	 * @param position Posición dentro del archivo.
+	 * @param length Número de bytes a leer.
+	 * @return Bytes leídos.
+	 * @throws IOException Si el rango se sale del archivo o no se puede leer.
+	 */
+	public byte[] read(long position, int length) throws IOException {
+		byte[] data = new byte[length];
+		read(position, data, 0, length);
+		return data;
+	}
+
+	/**
+	 * Lee un rango de bytes del archivo en un buffer.
+	 *
+	 * @param position Posición dentro del archivo.
+	 * @param dst Buffer de destino.
+	 * @param offset Posición del buffer donde empezar a escribir.
+	 * @param length Número de bytes a leer.
+	 * @throws IOException Si el rango se sale del archivo o no se puede leer.
+	 */
+	public void read(long position, byte[] dst, int offset, int length) throws IOException {
+		if (position < 0 || position + length > m_size) {
+			throw new EOFException("Unexpected end of file at " + position);
+		}
+		int fromPrefix = 0;
+		if (position < m_prefix.length) {
+			fromPrefix = (int) Math.min(length, m_prefix.length - position);
+			System.arraycopy(m_prefix, (int) position, dst, offset, fromPrefix);
+		}
+		if (fromPrefix < length) {
+			readFully(m_channel, ByteBuffer.wrap(dst, offset + fromPrefix, length - fromPrefix), position + fromPrefix);
+		}
+	}
+
+	/**
+	 * Devuelve los bytes iniciales del archivo leídos al abrirlo.
+	 * @return Prefijo del archivo (no se copia).
+	 */
+	public byte[] getPrefix() {
+		return m_prefix;
+	}
+
+	/**
+	 * Devuelve el tamaño total del archivo.
+	 */
+	public long size() {
+		return m_size;
+	}
+
+	@Override
+	public void close() throws IOException {
+		m_channel.close();
+	}
+
+	/**
+	 * Lee un rango de un archivo con lecturas posicionales hasta llenar el buffer.
+	 *
+	 * @param channel Canal del archivo.
+	 * @param buffer Buffer a llenar.
+	 * @param position Posición inicial dentro del archivo.
+	 * @throws IOException Si se llega al final del archivo antes de llenar el buffer.
+	 */
+	public static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int count = channel.read(buffer, position);
+			if (count == -1) {
+				throw new EOFException("Unexpected end of file at " + position);
+			}
+			position += count;
+		}
+	}
+
+	/**
+	 * Lee un rango de bytes de un archivo con una sola lectura posicional.
+	 *
+	 * @param file Archivo a leer.
+	 * @param position Posición dentro del archivo.
+	 * @param length Número de bytes a leer.
+	 * @return Bytes leídos.
+	 * @throws IOException Si no se puede leer el rango indicado.
+	 */
+	public static byte[] readRange(File file, long position, int length) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer buffer = ByteBuffer.allocate(length);
+			readFully(channel, buffer, position);
+			return buffer.array();
+		}
+	}
+}
@@ -0,0 +1,528 @@
+package com.servifot.lfm.utils;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Información de cabecera de un archivo JPEG.<br>
+ * <br>
+ * Objeto inmutable que se obtiene recorriendo una sola vez los marcadores del archivo,
+ * desde el SOI hasta el primer SOF (o SOS). Los marcadores se leen del prefijo cargado por
+ * {@link JpegHeaderReader}, de forma que con una o dos lecturas del archivo se obtienen:<br>
+ * - Dimensiones y número de canales (marcadores SOF0 a SOF15).<br>
+ * - Resolución de impresión (etiquetas EXIF XResolution/YResolution, o marcador JFIF APP0).<br>
+ * - Orientación y espacio de color EXIF.<br>
+ * - Posición y longitud de la miniatura EXIF.<br>
+ * - Posición y longitud de los fragmentos del perfil ICC (APP2).<br>
+ */
+public final class JpegInfo {
+
+	/** Identificador EXIF de orientación normal */
+	public static final int ORIENTATION_UP = 1;
+
+	/** Tamaño máximo de la cabecera a analizar (bytes). Protege de archivos corruptos. */
+	private static final int MAX_HEADER_SIZE = 4 * 1024 * 1024;
+
+	/* Marcadores JPEG */
+	private static final int MARKER_SOF0  = 0xC0;
+	private static final int MARKER_SOF15 = 0xCF;
+	private static final int MARKER_DHT   = 0xC4;
+	private static final int MARKER_JPG   = 0xC8;
+	private static final int MARKER_DAC   = 0xCC;
+	private static final int MARKER_RST0  = 0xD0;
+	private static final int MARKER_RST7  = 0xD7;
+	private static final int MARKER_SOI   = 0xD8;
+	private static final int MARKER_EOI   = 0xD9;
+	private static final int MARKER_SOS   = 0xDA;
+	private static final int MARKER_TEM   = 0x01;
+	private static final int MARKER_APP0  = 0xE0;
+	private static final int MARKER_APP1  = 0xE1;
+	private static final int MARKER_APP2  = 0xE2;
+
+	/* Etiquetas de los segmentos APPn */
+	private static final byte ICC_TAG[] = {'I','C','C','_','P','R','O','F','I','L','E',0};
+	private static final byte EXIF_TAG[] = {'E','x','i','f',0,0};
+	private static final byte JFIF_TAG[] = {'J','F','I','F',0};
+
+	/* Etiquetas EXIF */
+	private static final int EXIF_ORIENTATION = 0x0112;
+	private static final int EXIF_XRESOLUTION = 0x011A;
+	private static final int EXIF_YRESOLUTION = 0x011B;
+	private static final int EXIF_RESOLUTIONUNIT = 0x0128;
+	private static final int EXIF_IFD_POINTER = 0x8769;
+	private static final int EXIF_COLORSPACE = 0xA001;
+	private static final int EXIF_THUMB_OFFSET = 0x0201;
+	private static final int EXIF_THUMB_LENGTH = 0x0202;
+
+	/** Anchura de la imagen (px) */
+	private final int m_width;
+	/** Altura de la imagen (px) */
+	private final int m_height;
+	/** Número de canales de color */
+	private final int m_numComponents;
+	/** Resolución horizontal (ppp) */
+	private final double m_dpiX;
+	/** Resolución vertical (ppp) */
+	private final double m_dpiY;
+	/** Orientación EXIF */
+	private final int m_orientation;
+	/** Espacio de color EXIF */
+	private final int m_exifColorSpace;
+	/** Posición de la miniatura EXIF dentro del archivo */
+	private final long m_thumbOffset;
+	/** Longitud de la miniatura EXIF */
+	private final long m_thumbLength;
+	/** Posiciones de los fragmentos del perfil ICC dentro del archivo */
+	private final long[] m_iccOffsets;
+	/** Longitudes de los fragmentos del perfil ICC */
+	private final long[] m_iccLengths;
+	/** Indica si la imagen contiene un marcador JFIF correcto */
+	private final boolean m_isJFIF;
+	/** Indica si la imagen contiene un marcador EXIF */
+	private final boolean m_isEXIF;
+
+	private JpegInfo(Parser p) {
+		m_width = p.width;
+		m_height = p.height;
+		m_numComponents = p.numComponents;
+		m_dpiX = (p.exifDpiX > 0 && p.exifDpiY > 0) ? p.exifDpiX : p.jfifDpiX;
+		m_dpiY = (p.exifDpiX > 0 && p.exifDpiY > 0) ? p.exifDpiY : p.jfifDpiY;
+		m_orientation = p.orientation;
+		m_exifColorSpace = p.exifColorSpace;
+		m_thumbOffset = p.thumbOffset;
+		m_thumbLength = p.thumbLength;
+		m_iccOffsets = toArray(p.iccOffsets, p.iccCount);
+		m_iccLengths = toArray(p.iccLengths, p.iccCount);
+		m_isJFIF = p.isJFIF;
+		m_isEXIF = p.isEXIF;
+	}
+
+	/**
+	 * Analiza la cabecera de un archivo JPEG.
+	 *
+	 * @param jpegFile Archivo JPEG a analizar.
+	 * @return Información de cabecera del archivo.
+	 * @throws IOException Si no se puede leer el archivo o no es un JPEG válido.
+	 */
+	public static JpegInfo read(File jpegFile) throws IOException {
+		try (JpegHeaderReader reader = new JpegHeaderReader(jpegFile)) {
+			return read(reader);
+		}
+	}
+
+	/**
+	 * Analiza la cabecera de un archivo JPEG ya abierto.
+	 *
+	 * @param reader Lector de la cabecera del archivo JPEG.
+	 * @return Información de cabecera del archivo.
+	 * @throws IOException Si no se puede leer el archivo o no es un JPEG válido.
+	 */
+	public static JpegInfo read(JpegHeaderReader reader) throws IOException {
+		Parser parser = new Parser(reader);
+		parser.parse();
+		return new JpegInfo(parser);
+	}
+
+	public int getWidth() {
+		return m_width;
+	}
+
+	public int getHeight() {
+		return m_height;
+	}
+
+	/**
+	 * Número de canales de color declarado en el marcador SOF.
+	 * @return Número de canales, o <code>0</code> si no se ha encontrado el marcador SOF.
+	 */
+	public int getNumComponents() {
+		return m_numComponents;
+	}
+
+	public double getDpiX() {
+		return m_dpiX;
+	}
+
+	public double getDpiY() {
+		return m_dpiY;
+	}
+
+	/**
+	 * Orientación EXIF (valores 1 a 8).
+	 * @return Valor EXIF de la orientación, <code>ORIENTATION_UP</code> si no se ha encontrado.
+	 */
+	public int getOrientation() {
+		return m_orientation;
+	}
+
+	public int getExifColorSpace() {
+		return m_exifColorSpace;
+	}
+
+	public long getThumbnailOffset() {
+		return m_thumbOffset;
+	}
+
+	public long getThumbnailLength() {
+		return m_thumbLength;
+	}
+
+	public boolean hasThumbnail() {
+		return m_thumbOffset != 0 && m_thumbLength != 0;
+	}
+
+	/**
+	 * Número de fragmentos APP2 con datos del perfil ICC.
+	 * @return Número de fragmentos, <code>0</code> si no hay perfil incrustado.
+	 */
+	public int getIccChunkCount() {
+		return m_iccOffsets.length;
+	}
+
+	public long getIccChunkOffset(int chunk) {
+		return m_iccOffsets[chunk];
+	}
+
+	public long getIccChunkLength(int chunk) {
+		return m_iccLengths[chunk];
+	}
+
+	/**
+	 * Longitud total del perfil ICC incrustado.
+	 * @return Suma de las longitudes de todos los fragmentos.
+	 */
+	public long getIccProfileLength() {
+		long length = 0;
+		for (long chunkLength : m_iccLengths) {
+			length += chunkLength;
+		}
+		return length;
+	}
+
+	public boolean isJFIF() {
+		return m_isJFIF;
+	}
+
+	public boolean isEXIF() {
+		return m_isEXIF;
+	}
+
+	private static long[] toArray(long[] values, int count) {
+		long[] result = new long[count];
+		System.arraycopy(values, 0, result, 0, count);
+		return result;
+	}
+
+
+	/**
+	 * Recorre los marcadores de la cabecera JPEG en una sola pasada.
+	 */
+	private static class Parser {
+		private final JpegHeaderReader m_reader;
+		/** Buffer para leer las cabeceras de los marcadores */
+		private final byte[] m_marker = new byte[2];
+
+		int width;
+		int height;
+		int numComponents;
+		double exifDpiX;
+		double exifDpiY;
+		double jfifDpiX;
+		double jfifDpiY;
+		int orientation = ORIENTATION_UP;
+		int exifColorSpace;
+		long thumbOffset;
+		long thumbLength;
+		long[] iccOffsets = new long[4];
+		long[] iccLengths = new long[4];
+		int iccCount;
+		boolean isJFIF;
+		boolean isEXIF;
+
+		Parser(JpegHeaderReader reader) {
+			m_reader = reader;
+		}
+
+		void parse() throws IOException {
+			m_reader.read(0, m_marker, 0, 2);
+			if ((0xFF & m_marker[0]) != 0xFF || (0xFF & m_marker[1]) != MARKER_SOI) {
+				throw new IOException("Not a JPEG file");
+			}
+
+			long position = 2;
+			boolean finished = false;
+			while (!finished) {
+				if (position > MAX_HEADER_SIZE) {
+					throw new IOException("JPEG header too long");
+				}
+				m_reader.read(position, m_marker, 0, 2);
+				if ((0xFF & m_marker[0]) != 0xFF) {
+					throw new IOException("Bad JPEG marker at " + position);
+				}
+				position += 2;
+				int marker = 0xFF & m_marker[1];
+				while (marker == 0xFF) {
+					// Bytes de relleno
+					m_reader.read(position, m_marker, 1, 1);
+					marker = 0xFF & m_marker[1];
+					position++;
+				}
+				if (marker == MARKER_TEM || (marker >= MARKER_RST0 && marker <= MARKER_RST7)) {
+					// Marcadores sin datos
+					continue;
+				}
+				if (marker == MARKER_SOS || marker == MARKER_EOI) {
+					finished = true;
+					continue;
+				}
+
+				m_reader.read(position, m_marker, 0, 2);
+				int length = readShort(m_marker, 0, false);
+				if (length < 2) {
+					throw new IOException("Bad JPEG segment length at " + position);
+				}
+				long segmentStart = position + 2;
+				int dataLength = length - 2;
+
+				if (marker == MARKER_APP0) {
+					parseApp0(m_reader.read(segmentStart, Math.min(dataLength, 14)));
+				} else if (marker == MARKER_APP1) {
+					parseApp1(m_reader.read(segmentStart, dataLength), segmentStart);
+				} else if (marker == MARKER_APP2) {
+					parseApp2(m_reader.read(segmentStart, Math.min(dataLength, ICC_TAG.length + 2)), segmentStart, dataLength);
+				} else if (isSOF(marker)) {
+					byte[] sof = m_reader.read(segmentStart, Math.min(dataLength, 6));
+					if (sof.length == 6) {
+						height = readShort(sof, 1, false);
+						width = readShort(sof, 3, false);
+						numComponents = 0xFF & sof[5];
+					}
+					finished = true;
+				}
+				position = segmentStart + dataLength;
+			}
+		}
+
+		/**
+		 * Marcador APP0: JFIF.
+		 */
+		private void parseApp0(byte[] data) {
+			if (!startsWith(data, JFIF_TAG) || data.length < 12) {
+				return;
+			}
+			if (!isEXIF) {
+				// Si hemos detectado antes datos EXIF, no es un formato JFIF correcto.
+				isJFIF = true;
+			}
+			int units = 0xFF & data[7];
+			int xDensity = readShort(data, 8, false);
+			int yDensity = readShort(data, 10, false);
+			if (units == 1) {
+				jfifDpiX = xDensity;
+				jfifDpiY = yDensity;
+			} else if (units == 2) {
+				jfifDpiX = xDensity * 2.54;
+				jfifDpiY = yDensity * 2.54;
+			}
+		}
+
+		/**
+		 * Marcador APP1: EXIF.
+		 */
+		private void parseApp1(byte[] data, long segmentStart) {
+			if (!startsWith(data, EXIF_TAG) || data.length < EXIF_TAG.length + 8) {
+				return;
+			}
+			isEXIF = true;
+			int tiff = EXIF_TAG.length;
+			long tiffStart = segmentStart + tiff;
+			boolean le = data[tiff] == (byte) 0x49;
+
+			// IFD0
+			long ifd0 = readInt(data, tiff + 4, le);
+			long exifIFD = 0;
+			long ifd1 = 0;
+			int resolutionUnit = 2;
+			int entries = ifdEntries(data, tiff, ifd0, le);
+			for (int i = 0; i < entries; i++) {
+				int entry = (int) (tiff + ifd0 + 2 + i * 12);
+				int tag = readShort(data, entry, le);
+				long value = readValue(data, entry, le);
+				if (tag == EXIF_ORIENTATION) {
+					orientation = (int) value;
+				} else if (tag == EXIF_XRESOLUTION) {
+					exifDpiX = readRational(data, tiff, value, le);
+				} else if (tag == EXIF_YRESOLUTION) {
+					exifDpiY = readRational(data, tiff, value, le);
+				} else if (tag == EXIF_RESOLUTIONUNIT) {
+					resolutionUnit = (int) value;
+				} else if (tag == EXIF_IFD_POINTER) {
+					exifIFD = value;
+				}
+			}
+			if (entries > 0) {
+				int next = (int) (tiff + ifd0 + 2 + entries * 12);
+				if (next + 4 <= data.length) {
+					ifd1 = readInt(data, next, le);
+				}
+			}
+			if (resolutionUnit == 3) {
+				exifDpiX *= 2.54;
+				exifDpiY *= 2.54;
+			}
+
+			// Exif IFD
+			entries = (exifIFD != 0) ? ifdEntries(data, tiff, exifIFD, le) : 0;
+			for (int i = 0; i < entries; i++) {
+				int entry = (int) (tiff + exifIFD + 2 + i * 12);
+				if (readShort(data, entry, le) == EXIF_COLORSPACE) {
+					exifColorSpace = (int) readValue(data, entry, le);
+				}
+			}
+
+			// IFD1 (miniatura)
+			entries = (ifd1 != 0) ? ifdEntries(data, tiff, ifd1, le) : 0;
+			for (int i = 0; i < entries; i++) {
+				int entry = (int) (tiff + ifd1 + 2 + i * 12);
+				int tag = readShort(data, entry, le);
+				if (tag == EXIF_THUMB_OFFSET) {
+					thumbOffset = tiffStart + readValue(data, entry, le);
+				} else if (tag == EXIF_THUMB_LENGTH) {
+					thumbLength = readValue(data, entry, le);
+				}
+			}
+		}
+
+		/**
+		 * Marcador APP2: fragmento de perfil ICC.
+		 */
+		private void parseApp2(byte[] data, long segmentStart, int dataLength) {
+			if (!startsWith(data, ICC_TAG) || data.length < ICC_TAG.length + 2) {
+				return;
+			}
+			if (iccCount == iccOffsets.length) {
+				long[] offsets = new long[iccCount * 2];
+				long[] lengths = new long[iccCount * 2];
+				System.arraycopy(iccOffsets, 0, offsets, 0, iccCount);
+				System.arraycopy(iccLengths, 0, lengths, 0, iccCount);
+				iccOffsets = offsets;
+				iccLengths = lengths;
+			}
+			// Etiqueta + número de fragmento + número total de fragmentos
+			int header = ICC_TAG.length + 2;
+			iccOffsets[iccCount] = segmentStart + header;
+			iccLengths[iccCount] = dataLength - header;
+			iccCount++;
+		}
+
+		/**
+		 * Número de entradas de un IFD, o <code>0</code> si el IFD no cabe en el segmento.
+		 */
+		private static int ifdEntries(byte[] data, int tiff, long ifdOffset, boolean le) {
+			long start = tiff + ifdOffset;
+			if (ifdOffset <= 0 || start + 2 > data.length) {
+				return 0;
+			}
+			int count = readShort(data, (int) start, le);
+			long maxCount = (data.length - start - 2) / 12;
+			return (int) Math.min(count, maxCount);
+		}
+
+		private static double readRational(byte[] data, int tiff, long offset, boolean le) {
+			long start = tiff + offset;
+			if (offset <= 0 || start + 8 > data.length) {
+				return 0;
+			}
+			long numerator = readInt(data, (int) start, le);
+			long denominator = readInt(data, (int) start + 4, le);
+			return (denominator == 0) ? 0 : (double) numerator / (double) denominator;
+		}
+
+		private static boolean isSOF(int marker) {
+			return marker >= MARKER_SOF0 && marker <= MARKER_SOF15
+					&& marker != MARKER_DHT && marker != MARKER_JPG && marker != MARKER_DAC;
+		}
+	}
+
+
+	/**
+	 * Compara el inicio de un array de bytes con una etiqueta.
+	 */
+	static boolean startsWith(byte[] data, byte[] tag) {
+		if (data.length < tag.length) {
+			return false;
+		}
+		for (int i = 0; i < tag.length; i++) {
+			if (data[i] != tag[i]) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Lee un entero de 16 bits sin signo.
+	 */
+	static int readShort(byte[] data, int pos, boolean littleEndian) {
+		if (littleEndian) {
+			return ((0xFF & data[pos+1]) << 8) | (0xFF & data[pos]);
+		} else {
+			return ((0xFF & data[pos]) << 8) | (0xFF & data[pos+1]);
+		}
+	}
+
+	/**
+	 * Lee un entero de 32 bits sin signo.
+	 */
+	static long readInt(byte[] data, int pos, boolean littleEndian) {
+		long value;
+		if (littleEndian) {
+			value = ((0xFF & data[pos+3]) << 24) | ((0xFF & data[pos+2]) << 16) | ((0xFF & data[pos+1]) << 8) | (0xFF & data[pos]);
+		} else {
+			value = ((0xFF & data[pos]) << 24) | ((0xFF & data[pos+1]) << 16) | ((0xFF & data[pos+2]) << 8) | (0xFF & data[pos+3]);
+		}
+		return value & 0xFFFFFFFFL;
+	}
+
+	/**
+	 * Lee el valor (o el offset al valor) de una entrada de un IFD EXIF.
+	 *
+	 * @param data Datos del segmento EXIF.
+	 * @param entry Posición de la entrada de 12 bytes (etiqueta, tipo, número, valor).
+	 * @param littleEndian Orden de bytes del bloque TIFF.
+	 * @return Valor de la entrada si cabe en 4 bytes, o el offset a los datos en caso contrario.
+	 */
+	static long readValue(byte[] data, int entry, boolean littleEndian) {
+		int type = readShort(data, entry + 2, littleEndian);
+		long count = readInt(data, entry + 4, littleEndian);
+		int pos = entry + 8;
+
+		long totalSize;
+		switch (type) {
+			case 1:	//BYTE
+			case 2: //ASCII
+			case 7: //UNDEFINED
+				totalSize = count;
+				break;
+
+			case 3: // SHORT
+				totalSize = 2 * count;
+				break;
+
+			default:
+				totalSize = 4;
+				break;
+		}
+
+		if (totalSize == 1) {
+			return 0xFF & data[pos];
+		} else if (totalSize == 2) {
+			return readShort(data, pos, littleEndian);
+		} else if (totalSize == 3) {
+			if (littleEndian) {
+				return ((0xFF & data[pos+2]) << 16) | ((0xFF & data[pos+1]) << 8) | (0xFF & data[pos]);
+			} else {
+				return ((0xFF & data[pos]) << 16) | ((0xFF & data[pos+1]) << 8) | (0xFF & data[pos+2]);
+			}
+		}
+		return readInt(data, pos, littleEndian);
+	}
+}
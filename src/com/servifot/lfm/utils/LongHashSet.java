@@ -0,0 +1,108 @@
+package com.servifot.lfm.utils;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Conjunto de valores <code>long</code> con direccionamiento abierto.<br>
+ * <br>
+ * Guarda los valores directamente en un array, sin objetos por entrada, así que ocupa unos 16
+ * bytes por valor en lugar de los ~60 de un <code>HashSet&lt;Long&gt;</code>. Junto con
+ * {@link #hash(String)} sirve de índice compacto de claves de texto (la probabilidad de que dos
+ * claves distintas tengan el mismo hash de 64 bits es despreciable).
+ */
+public class LongHashSet {
+
+	/** Capacidad inicial */
+	private static final int INITIAL_CAPACITY = 1024;
+	/** Marca de hueco libre; el valor 0 se guarda aparte */
+	private static final long EMPTY = 0;
+
+	/** Tabla (tamaño potencia de 2, ocupada como mucho a la mitad) */
+	private long[] m_table = new long[INITIAL_CAPACITY];
+	/** Número de valores en la tabla */
+	private int m_size = 0;
+	/** Indica si el conjunto contiene el 0 */
+	private boolean m_hasZero = false;
+
+	/**
+	 * Añade un valor.
+	 *
+	 * @return <code>true</code> si no estaba.
+	 */
+	public boolean add(long value) {
+		if (value == EMPTY) {
+			boolean added = !m_hasZero;
+			m_hasZero = true;
+			return added;
+		}
+		if ((m_size + 1) * 2 > m_table.length) {
+			resize(m_table.length * 2);
+		}
+		int mask = m_table.length - 1;
+		int i = mix(value) & mask;
+		while (m_table[i] != EMPTY) {
+			if (m_table[i] == value) return false;
+			i = (i + 1) & mask;
+		}
+		m_table[i] = value;
+		m_size++;
+		return true;
+	}
+
+	public boolean contains(long value) {
+		if (value == EMPTY) return m_hasZero;
+		int mask = m_table.length - 1;
+		int i = mix(value) & mask;
+		while (m_table[i] != EMPTY) {
+			if (m_table[i] == value) return true;
+			i = (i + 1) & mask;
+		}
+		return false;
+	}
+
+	public int size() {
+		return m_size + (m_hasZero ? 1 : 0);
+	}
+
+	public void clear() {
+		m_table = new long[INITIAL_CAPACITY];
+		m_size = 0;
+		m_hasZero = false;
+	}
+
+	private void resize(int capacity) {
+		long[] old = m_table;
+		m_table = new long[capacity];
+		int mask = capacity - 1;
+		for (long value : old) {
+			if (value == EMPTY) continue;
+			int i = mix(value) & mask;
+			while (m_table[i] != EMPTY) {
+				i = (i + 1) & mask;
+			}
+			m_table[i] = value;
+		}
+	}
+
+	/**
+	 * Mezcla los bits de un valor para repartirlo por la tabla.
+	 */
+	private static int mix(long value) {
+		value ^= value >>> 33;
+		value *= 0xff51afd7ed558ccdL;
+		value ^= value >>> 33;
+		return (int) value;
+	}
+
+	/**
+	 * Hash de 64 bits (FNV-1a) de un texto.
+	 */
+	public static long hash(String text) {
+		long hash = 0xcbf29ce484222325L;
+		for (byte b : text.getBytes(StandardCharsets.UTF_8)) {
+			hash ^= b & 0xff;
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+}
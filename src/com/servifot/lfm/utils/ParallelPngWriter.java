@@ -0,0 +1,252 @@
+package com.servifot.lfm.utils;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Escritor de PNG RGB de 8 bits que comprime en paralelo.<br>
+ * <br>
+ * Las filas se reparten en bloques de unos {@link #BLOCK_SIZE} bytes y cada bloque se filtra y
+ * comprime en un thread distinto. Los bloques se cierran con un vaciado de sincronización, así que
+ * concatenados forman un único flujo <i>deflate</i> válido; el <i>Adler-32</i> de cada bloque se
+ * combina con el de los anteriores. La compresión es algo peor que la de un solo flujo (cada bloque
+ * empieza sin diccionario), a cambio de escalar con los núcleos.
+ */
+public class ParallelPngWriter {
+
+	/** Tamaño aproximado de cada bloque sin comprimir (bytes) */
+	public static final int BLOCK_SIZE = 512 * 1024;
+
+	private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+	private static final int ADLER_BASE = 65521;
+
+	/** Threads de compresión, compartidos por todas las escrituras */
+	private static ExecutorService s_pool = null;
+
+	/**
+	 * Escribe una imagen en un archivo PNG RGB (sin canal alfa).
+	 *
+	 * @param image Imagen a escribir.
+	 * @param file Archivo de destino.
+	 * @param deflateLevel Nivel de compresión (0 a 9).
+	 * @throws IOException Si no se puede escribir el archivo.
+	 */
+	public static void write(BufferedImage image, File file, int deflateLevel) throws IOException {
+		final int level = Math.max(0, Math.min(9, deflateLevel));
+		final int[] pixels = getRgbPixels(image);
+		final int width = image.getWidth();
+		final int height = image.getHeight();
+		final int rowBytes = 1 + width * 3;
+		final int rowsPerBlock = Math.max(1, BLOCK_SIZE / rowBytes);
+		ExecutorService pool = getPool();
+		int window = Runtime.getRuntime().availableProcessors() * 2;
+
+		try (OutputStream os = new BufferedOutputStream(new FileOutputStream(file), 64 * 1024)) {
+			os.write(SIGNATURE);
+			ByteArrayOutputStream ihdr = new ByteArrayOutputStream(13);
+			writeInt(ihdr, width);
+			writeInt(ihdr, height);
+			ihdr.write(8); // Bits por canal
+			ihdr.write(2); // RGB
+			ihdr.write(0); // Deflate
+			ihdr.write(0); // Filtros adaptativos
+			ihdr.write(0); // Sin entrelazado
+			writeChunk(os, "IHDR", ihdr.toByteArray(), ihdr.size());
+
+			// Cabecera zlib: ventana de 32 KB y nivel orientativo
+			int flevel = level < 2 ? 0 : level < 6 ? 1 : level == 6 ? 2 : 3;
+			int cmf = 0x78;
+			int flg = flevel << 6;
+			flg += 31 - ((cmf << 8) + flg) % 31;
+			writeChunk(os, "IDAT", new byte[] {(byte) cmf, (byte) flg}, 2);
+
+			// Se mantienen como mucho "window" bloques en vuelo para no acumular memoria
+			ArrayDeque<Future<Block>> pending = new ArrayDeque<>();
+			long adler = 1;
+			for (int y = 0; y < height || !pending.isEmpty();) {
+				while (y < height && pending.size() < window) {
+					final int first = y;
+					final int last = Math.min(height, y + rowsPerBlock);
+					final boolean finish = last == height;
+					pending.add(pool.submit(new Callable<Block>() {
+						@Override
+						public Block call() {
+							return compress(pixels, width, first, last, level, finish);
+						}
+					}));
+					y = last;
+				}
+				Block block = pending.poll().get();
+				adler = combineAdler(adler, block.m_adler, block.m_length);
+				writeChunk(os, "IDAT", block.m_data, block.m_size);
+			}
+			writeChunk(os, "IDAT", new byte[] {(byte) (adler >> 24), (byte) (adler >> 16), (byte) (adler >> 8), (byte) adler}, 4);
+			writeChunk(os, "IEND", new byte[0], 0);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Escritura interrumpida");
+		} catch (ExecutionException e) {
+			throw new IOException("Error comprimiendo " + file.getName() + ": " + e.getCause());
+		}
+	}
+
+	/**
+	 * Filtra y comprime un rango de filas.
+	 *
+	 * @param finish Si es el último bloque de la imagen.
+	 */
+	private static Block compress(int[] pixels, int width, int first, int last, int level, boolean finish) {
+		int rowBytes = 1 + width * 3;
+		byte[] raw = new byte[rowBytes * (last - first)];
+		// Filtro "Sub" (1): cada byte menos el del píxel anterior. Sin compresión no merece la pena
+		byte filter = (byte) (level == 0 ? 0 : 1);
+		int pos = 0;
+		for (int y = first; y < last; y++) {
+			raw[pos++] = filter;
+			int offset = y * width;
+			int pr = 0, pg = 0, pb = 0;
+			for (int x = 0; x < width; x++) {
+				int rgb = pixels[offset + x];
+				int r = (rgb >> 16) & 0xFF;
+				int g = (rgb >> 8) & 0xFF;
+				int b = rgb & 0xFF;
+				if (filter == 0) {
+					raw[pos++] = (byte) r;
+					raw[pos++] = (byte) g;
+					raw[pos++] = (byte) b;
+				} else {
+					raw[pos++] = (byte) (r - pr);
+					raw[pos++] = (byte) (g - pg);
+					raw[pos++] = (byte) (b - pb);
+					pr = r;
+					pg = g;
+					pb = b;
+				}
+			}
+		}
+
+		Adler32 adler = new Adler32();
+		adler.update(raw, 0, raw.length);
+
+		Deflater deflater = new Deflater(level, true);
+		deflater.setInput(raw);
+		if (finish) deflater.finish();
+		byte[] out = new byte[raw.length / 2 + 1024];
+		int size = 0;
+		while (true) {
+			if (size == out.length) {
+				byte[] bigger = new byte[out.length * 2];
+				System.arraycopy(out, 0, bigger, 0, size);
+				out = bigger;
+			}
+			int count = deflater.deflate(out, size, out.length - size, finish ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+			size += count;
+			// Terminado: flujo cerrado, o vaciado completo sin llenar el buffer
+			if (finish ? deflater.finished() : size < out.length) break;
+		}
+		deflater.end();
+		return new Block(out, size, adler.getValue(), raw.length);
+	}
+
+	/**
+	 * Píxeles RGB de la imagen (los de la propia imagen si ya es <code>TYPE_INT_RGB</code>).
+	 */
+	private static int[] getRgbPixels(BufferedImage image) {
+		if (image.getType() != BufferedImage.TYPE_INT_RGB) {
+			BufferedImage rgb = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+			Graphics2D g = rgb.createGraphics();
+			g.drawImage(image, 0, 0, null);
+			g.dispose();
+			image = rgb;
+		}
+		DataBufferInt buffer = (DataBufferInt) image.getRaster().getDataBuffer();
+		if (buffer.getNumBanks() == 1 && image.getRaster().getSampleModelTranslateX() == 0 && image.getRaster().getSampleModelTranslateY() == 0
+				&& buffer.getData().length == image.getWidth() * image.getHeight()) {
+			return buffer.getData();
+		}
+		return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+	}
+
+	/**
+	 * <i>Adler-32</i> de dos datos concatenados a partir del de cada uno (como
+	 * <code>adler32_combine</code> de zlib).
+	 *
+	 * @param length2 Longitud del segundo.
+	 */
+	private static long combineAdler(long adler1, long adler2, long length2) {
+		long rem = length2 % ADLER_BASE;
+		long sum1 = adler1 & 0xFFFF;
+		long sum2 = (rem * sum1) % ADLER_BASE;
+		sum1 += (adler2 & 0xFFFF) + ADLER_BASE - 1;
+		sum2 += ((adler1 >> 16) & 0xFFFF) + ((adler2 >> 16) & 0xFFFF) + ADLER_BASE - rem;
+		if (sum1 >= ADLER_BASE) sum1 -= ADLER_BASE;
+		if (sum1 >= ADLER_BASE) sum1 -= ADLER_BASE;
+		if (sum2 >= (ADLER_BASE << 1)) sum2 -= (ADLER_BASE << 1);
+		if (sum2 >= ADLER_BASE) sum2 -= ADLER_BASE;
+		return sum1 | (sum2 << 16);
+	}
+
+	private static void writeChunk(OutputStream os, String type, byte[] data, int length) throws IOException {
+		byte[] typeBytes = type.getBytes(Charset.forName("US-ASCII"));
+		writeInt(os, length);
+		os.write(typeBytes);
+		os.write(data, 0, length);
+		CRC32 crc = new CRC32();
+		crc.update(typeBytes);
+		crc.update(data, 0, length);
+		writeInt(os, (int) crc.getValue());
+	}
+
+	private static void writeInt(OutputStream os, int value) throws IOException {
+		os.write(value >>> 24);
+		os.write(value >>> 16);
+		os.write(value >>> 8);
+		os.write(value);
+	}
+
+	private static synchronized ExecutorService getPool() {
+		if (s_pool == null) {
+			s_pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+				Thread t = new Thread(r, "ParallelPngWriter");
+				t.setDaemon(true);
+				return t;
+			});
+		}
+		return s_pool;
+	}
+
+	/**
+	 * Bloque comprimido.
+	 */
+	private static class Block {
+		private final byte[] m_data;
+		private final int m_size;
+		/** <i>Adler-32</i> y longitud de los datos sin comprimir */
+		private final long m_adler;
+		private final long m_length;
+
+		Block(byte[] data, int size, long adler, long length) {
+			m_data = data;
+			m_size = size;
+			m_adler = adler;
+			m_length = length;
+		}
+	}
+}
@@ -190,6 +190,7 @@ public class ConfigView extends View {
 				LFMImporter.getConfig().setConectSDInterface(connectInterfazCb.getValue());
 
 				LFMImporter.getConfig().save();
+				emitConfigApply();
 			}
 		});
 		// Cierra la aplicación
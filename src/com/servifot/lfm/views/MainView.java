@@ -4,68 +4,102 @@ package com.servifot.lfm.views;
 import java.awt.Desktop;
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+import com.servifot.lfm.lfmimporter.ColorTransformCache;
 import com.servifot.lfm.lfmimporter.FolderPrinter;
-import com.servifot.lfm.lfmimporter.ImagePrinter;
+import com.servifot.lfm.lfmimporter.ImageSource;
+import com.servifot.lfm.lfmimporter.ImportEngine;
+import com.servifot.lfm.lfmimporter.ImportEngine.ImportEngineListener;
+import com.servifot.lfm.lfmimporter.ImportJournal;
 import com.servifot.lfm.lfmimporter.LFMImporter;
-import com.servifot.lfm.lfmimporter.ThumbnailWidget;
+import com.servifot.lfm.lfmimporter.MaskCache;
+import com.servifot.lfm.lfmimporter.PrintQueue;
+import com.servifot.lfm.lfmimporter.PrintQueue.PrintJob;
+import com.servifot.lfm.lfmimporter.PrintQueue.PrintQueueListener;
+import com.servifot.lfm.lfmimporter.PreviewLoader;
+import com.servifot.lfm.lfmimporter.PreviewLoader.PreviewLoaderListener;
+import com.servifot.lfm.lfmimporter.SourceImage;
+import com.servifot.lfm.lfmimporter.SourcePoller;
+import com.servifot.lfm.lfmimporter.SourcePoller.SourcePollerListener;
+import com.servifot.lfm.lfmimporter.SourceSettings;
+import com.servifot.lfm.lfmimporter.ThumbnailStrip;
 import com.servifot.lfm.lfmimporter.ThumbnailWidget.ThumbnailWidgetListener;
 import com.servifot.lfm.lfmimporter.WifiSDConector;
 import com.servifot.lfm.lfmimporter.LFMImporter.LFMImporterListener;
 import com.servifot.lfm.lfmimporter.WifiSDConector.WifiSDConectorListener;
 import com.servifot.lfm.utils.FXWorker;
 import com.servifot.lfm.utils.FileUtils;
-import com.servifot.lfm.utils.ImageOrientation;
-import com.servifot.lfm.utils.JPEGMetadata;
 import com.servifot.lfm.utils.LFMUtils;
 import com.servifot.lfm.views.ConfigView.ConfigViewListener;
 import com.servifot.lfm.views.SearchView.SearchViewListener;
 
+import javafx.application.Platform;
 import javafx.event.ActionEvent;
 import javafx.event.EventHandler;
 import javafx.geometry.NodeOrientation;
-import javafx.geometry.Orientation;
 import javafx.scene.control.Button;
-import javafx.scene.control.ScrollPane;
-import javafx.scene.control.ScrollPane.ScrollBarPolicy;
+import javafx.scene.control.Label;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
 import javafx.scene.input.MouseEvent;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.Pane;
-import javafx.scene.layout.TilePane;
+import javafx.scene.layout.Priority;
 import javafx.scene.layout.VBox;
 
-public class MainView extends View implements ThumbnailWidgetListener, WifiSDConectorListener, LFMImporterListener, ConfigViewListener, SearchViewListener {
+public class MainView extends View implements ThumbnailWidgetListener, WifiSDConectorListener, LFMImporterListener, ConfigViewListener, SearchViewListener, ImportEngineListener, SourcePollerListener, PreviewLoaderListener, PrintQueueListener {
 	private static final String CSS_NAME = "MainView";
 	/** Contenedor de la imagen principal */
 	private ImageView m_mainView = null;
-	/** Contenedor de miniaturas */
-	private TilePane m_thumbsPane = null;
+	/** Tira de miniaturas */
+	private ThumbnailStrip m_thumbStrip = null;
 	/** Archivo seleccionado actual */
 	private File m_currentFile = null;
-	/** Imágenes ya importadas */
-	private LinkedHashMap<String, File> m_importedIages = new LinkedHashMap<>();
+	/** Registro de las imágenes ya importadas */
+	private ImportJournal m_journal = new ImportJournal(new File(LFMImporter.USER_IMPORTJOURNAL));
 	/** Indica si se ha encontrado ningún error importanto las imagenes*/
-	private boolean m_importingError = false;
+	private volatile boolean m_importingError = false;
 	/** Indica si se debe denter cualquier bucle */
 	private boolean m_die = false;
+	/** Fuente de las imágenes que se conecta por wifi (carpeta o FlashAir) */
+	private ImageSource m_source = null;
+	/** Configuración de la fuente */
+	private SourceSettings m_sourceSettings = null;
+	/** Threads que consultan las fuentes adicionales */
+	private ArrayList<SourcePoller> m_pollers = new ArrayList<>();
+	/** Motor que copia las imágenes de todas las fuentes */
+	private ImportEngine m_importEngine = null;
+	/** Fecha de la imagen importada más reciente que se ha mostrado */
+	private long m_newestImported = 0;
 
 	private static final double IV_WIDTH = LFMImporter.SCREEN_WIDTH-50;
 	private static final double IV_HEIGHT = LFMImporter.SCREEN_HEIGHT-(LFMImporter.SCREEN_THUMBS_HEIGHT+50);
 
+	/** Cargador de las previsualizaciones del visor */
+	private PreviewLoader m_previewLoader = new PreviewLoader((int) IV_WIDTH, (int) IV_HEIGHT);
+
 	/** Hilo que se conecta al wifi de la SD */
 	private WifiSDConector m_wifiConector = null;
-	/** Hilo que gestiona la impresión de una carpeta */
+	/** Hilo que gestiona la impresión de una carpeta (sólo se toca desde {@link #m_printerControl}) */
 	private FolderPrinter m_folderprinter = null;
+	/**
+	 * Thread que para y arranca la impresión: parar espera a que acabe la impresión en curso, y eso
+	 * no se puede hacer en el thread de JavaFX. No es daemon, para que al salir se termine de parar.
+	 */
+	private final ExecutorService m_printerControl = Executors.newSingleThreadExecutor(r -> new Thread(r, "PrinterControl"));
+	/** Cola que prepara las impresiones */
+	private PrintQueue m_printQueue = new PrintQueue();
+	/** Estado de las impresiones (al pulsarlo se cancelan las que esperan) */
+	private Label m_printStatusLbl = null;
 
 	public MainView() {
 		super();
+		m_printQueue.setListener(this);
 	}
 
 	@Override
@@ -87,22 +121,15 @@ public class MainView extends View implements ThumbnailWidgetListener, WifiSDCon
 			}
 		});
 
-		// Creamos el panel para las miniaturas
-		m_thumbsPane = new TilePane(Orientation.VERTICAL);
-		m_thumbsPane.setPrefRows(1);
-		m_thumbsPane.getStyleClass().add("mv-tp");
-		//m_thumbsPane.setMaxSize(LFMImporter.SCREEN_WIDTH, LFMImporter.SCREEN_HEIGHT);
-
-		ScrollPane thumbsScrollPane = new ScrollPane(m_thumbsPane);
-		thumbsScrollPane.setNodeOrientation(NodeOrientation.LEFT_TO_RIGHT);
-		thumbsScrollPane.setHbarPolicy(ScrollBarPolicy.ALWAYS);
-		thumbsScrollPane.setVbarPolicy(ScrollBarPolicy.NEVER);
-		//thumbsScrollPane.setMaxWidth(LFMImporter.SCREEN_WIDTH);
-		thumbsScrollPane.setMaxHeight(LFMImporter.SCREEN_THUMBS_HEIGHT);
-		thumbsScrollPane.setFitToWidth(false);
-		thumbsScrollPane.getStyleClass().add("mv-sp");
-		// Llenamos el panel de miniaturas
-		fillThumbsPane(m_thumbsPane, LFMImporter.getConfig().getCameraFolder());
+		// Creamos la tira de miniaturas (sólo se crean las celdas visibles)
+		m_thumbStrip = new ThumbnailStrip(this);
+		m_thumbStrip.setNodeOrientation(NodeOrientation.LEFT_TO_RIGHT);
+		m_thumbStrip.setMaxHeight(LFMImporter.SCREEN_THUMBS_HEIGHT);
+		m_thumbStrip.setMinHeight(LFMImporter.SCREEN_THUMBS_HEIGHT);
+		m_thumbStrip.getStyleClass().add("mv-sp");
+		HBox.setHgrow(m_thumbStrip, Priority.ALWAYS);
+		// Llenamos la tira de miniaturas
+		fillThumbStrip(m_thumbStrip, LFMImporter.getConfig().getCameraFolder());
 
 		// Creamos la caja de los botones
 		Button editbtn = new Button("Edit");
@@ -157,10 +184,22 @@ public class MainView extends View implements ThumbnailWidgetListener, WifiSDCon
 		firstrowbtnsbox.getStyleClass().add("mb-btnsBox-first");
 		HBox secondrowbtnsbox = new HBox(searchbtn, configbtn);
 		secondrowbtnsbox.getStyleClass().add("mb-btnsBox-second");
-		VBox btnsBox = new VBox(firstrowbtnsbox, secondrowbtnsbox);
+		m_printStatusLbl = new Label();
+		m_printStatusLbl.getStyleClass().add("mv-printstatus");
+		m_printStatusLbl.setOnMouseClicked(new EventHandler<MouseEvent>() {
+			@Override
+			public void handle(MouseEvent event) {
+				int cancelled = m_printQueue.cancelQueued();
+				if (cancelled > 0) {
+					m_printStatusLbl.setText(cancelled + " impresiones canceladas");
+				}
+			}
+		});
+
+		VBox btnsBox = new VBox(firstrowbtnsbox, secondrowbtnsbox, m_printStatusLbl);
 		btnsBox.getStyleClass().add("mv-btnsBox");
 
-		HBox botBox = new HBox(thumbsScrollPane, btnsBox);
+		HBox botBox = new HBox(m_thumbStrip, btnsBox);
 		botBox.getStyleClass().add("mv-botbox");
 
 		// Ensamblamos
@@ -171,17 +210,48 @@ public class MainView extends View implements ThumbnailWidgetListener, WifiSDCon
 	}
 
 	/**
-	 * Arranca un hilo que imprime una imagen
+	 * Encola una imagen para imprimir
 	 *
 	 * @param currentFile
 	 */
 	protected void print(File currentFile) {
-		ImagePrinter ip = new ImagePrinter(currentFile);
-		ip.start();
+		if (currentFile == null) return;
+		if (m_printQueue.submit(currentFile, PrintQueue.PRIORITY_NORMAL) == null) {
+			m_printStatusLbl.setText("Cola de impresión llena");
+		}
+	}
 
+	@Override
+	public void onPrintJobChanged(PrintJob job) {
+		String text;
+		switch (job.getState()) {
+		case SPOOLED:
+			text = "Enviada: " + job.getFile().getName();
+			break;
+		case FAILED:
+			text = "Error al imprimir " + job.getFile().getName();
+			break;
+		case CANCELLED:
+			text = "Cancelada: " + job.getFile().getName();
+			break;
+		default:
+			text = "Imprimiendo...";
+			break;
+		}
+		int pending = m_printQueue.getPendingCount();
+		if (pending > 0) {
+			text += " (" + pending + " pendientes)";
+		}
+		String status = text;
+		Platform.runLater(new Runnable() {
+			@Override
+			public void run() {
+				if (m_printStatusLbl != null) m_printStatusLbl.setText(status);
+			}
+		});
 	}
 
-	private void fillThumbsPane(TilePane thumbsPane, String folder) {
+	private void fillThumbStrip(ThumbnailStrip thumbStrip, String folder) {
 		File folderimg = new File(folder);
 
 		if (folderimg.exists() && folderimg.isDirectory()) {
@@ -189,11 +259,14 @@ public class MainView extends View implements ThumbnailWidgetListener, WifiSDCon
 			if (folderFiles.length < 1) return;
 			File [] sortedFiles = LFMUtils.sortByDate(folderFiles);
 			selectImage(sortedFiles[sortedFiles.length-1]);
+			// La más reciente a la izquierda
+			ArrayList<File> thumbs = new ArrayList<>();
 			for (File imgFile : sortedFiles) {
-				if (FileUtils.getExtension(imgFile.getAbsolutePath()).toLowerCase().equals("jpg")) {
-					addThumb(imgFile, thumbsPane);
+				if (FileUtils.getExtension(imgFile.getAbsolutePath()).toLowerCase().matches("jpe?g")) {
+					thumbs.add(0, imgFile);
 				}
 			}
+			thumbStrip.setFiles(thumbs);
 		}
 	}
 
@@ -206,42 +279,36 @@ public class MainView extends View implements ThumbnailWidgetListener, WifiSDCon
 	@Override
 	public void onThumbPresed(File file) {
 		selectImage(file);
+		prefetchNeighbours(file);
 	}
 
 	private void selectImage(File file) {
 		if (file.isFile()) {
-			Image source = null;
-			try {
-
-				JPEGMetadata meta = new JPEGMetadata(file.getAbsolutePath());
-				source = new Image("file:///" + file.getAbsolutePath(), true);
-				switch (meta.getOrientation().toString()) {
-				case ImageOrientation.VALUE_DOWN:
-					m_mainView.setRotate(180);
-					break;
-				case ImageOrientation.VALUE_LEFT:
-					m_mainView.setRotate(90);
-					break;
-				case ImageOrientation.VALUE_RIGHT:
-					m_mainView.setRotate(270);
-					break;
-				default:
-					m_mainView.setRotate(0);
-					break;
-				}
-			} catch (IOException e1) {
-				e1.printStackTrace();
-			}
+			// Se decodifica en segundo plano al tamaño del visor y ya girada; si se selecciona otra antes, se descarta
+			m_previewLoader.load(file, this);
+		}
+		m_currentFile = file;
 
-			try {
-				m_mainView.setImage(source);
-			} catch (Exception e) {
-				FXWorker.runAsync(FXWorker.JOBTYPE_IMAGEVIEW_SETIMAGE, m_mainView, file.getAbsolutePath());
-			}
+	}
 
+	/**
+	 * Precarga las previsualizaciones de las imágenes vecinas en la tira, para pasar de una a otra
+	 * sin esperar. Debe llamarse desde el thread de JavaFX.
+	 */
+	private void prefetchNeighbours(File file) {
+		int count = LFMImporter.getConfig().getPreviewPrefetch();
+		if (count > 0) {
+			m_previewLoader.prefetch(m_thumbStrip.getNeighbours(file, count));
 		}
-		m_currentFile = file;
+	}
 
+	@Override
+	public void onPreviewLoaded(File file, Image image) {
+		if (Platform.isFxApplicationThread()) {
+			m_mainView.setImage(image);
+		} else {
+			FXWorker.runAsync(FXWorker.JOBTYPE_IMAGEVIEW_SETIMAGE, m_mainView, image);
+		}
 	}
 
 	@Override
@@ -252,14 +319,17 @@ public class MainView extends View implements ThumbnailWidgetListener, WifiSDCon
 	private void importImages() {
 
 		while (!m_importingError && !m_die) {
-			File sourcefolder = new File(LFMImporter.getConfig().getSourceFolder());
-			File destFolder = new File(LFMImporter.getConfig().getCameraFolder());
+			SourceSettings settings = LFMImporter.getConfig().getSources().get(0);
+			if (m_source == null || !settings.equals(m_sourceSettings)) {
+				m_source = ImageSource.forLocation(settings.getLocation());
+				m_sourceSettings = settings;
+			}
 
 			System.out.println("DEBUG: Getting AllImages");
-			ArrayList<File> sourceImages = getAllImages(sourcefolder);
+			ArrayList<SourceImage> sourceImages = getAllImages(m_source, settings.getPrefix());
 			System.out.println("DEBUG: FIN getting allimages");
 			if (sourceImages != null) {
-				addImages(sourceImages, destFolder);
+				addImages(m_source, settings.getPrefix(), sourceImages);
 			} else {
 				System.err.println("No se ha podido listar ninguna imagen");
 				m_importingError = true;
@@ -270,47 +340,81 @@ public class MainView extends View implements ThumbnailWidgetListener, WifiSDCon
 		startWifi(true);
 	}
 
-	private void addImages(ArrayList<File> sourceImages, File destFolder) {
+	private void addImages(ImageSource source, String prefix, List<SourceImage> sourceImages) {
 		if (sourceImages.size() < 1) return;
-		System.out.println("DEBUG: Sorting");
-		File [] addFiles = LFMUtils.sortByDate(sourceImages);
-		System.out.println("DEBUG: FIN Sorting");
-		boolean firstAdd = false;
-		for (File img : addFiles) {
-			File destImage = new File(destFolder+"/"+img.getName());
-			System.out.println("DEBUG: Copy file");
-			//if( FileUtils.copyFile(img, destImage, true))
-			try {
-				Files.copy(img.toPath(), destImage.toPath(), StandardCopyOption.REPLACE_EXISTING);
-				System.out.println("DEBUG: FIN Copy file");
-				if (!firstAdd) {
-					System.out.println("DEBUG: Select Image");
-					selectImage(destImage);
-					System.out.println("DEBUG: FIN Select Image");
-					firstAdd = true;
-				}
-				addThumb(destImage, m_thumbsPane);
-			} catch (Exception e) {
-				m_importingError = true;
-				if (img.exists()) img.delete();
+		ImportEngine engine;
+		synchronized (this) {
+			File destFolder = new File(LFMImporter.getConfig().getCameraFolder());
+			// Cada fuente tiene sus propios threads de copia
+			int workers = LFMImporter.getConfig().getImportWorkers() * LFMImporter.getConfig().getSources().size();
+			if (m_importEngine == null || !m_importEngine.getDestFolder().equals(destFolder)) {
+				if (m_importEngine != null) m_importEngine.shutdown();
+				m_importEngine = new ImportEngine(destFolder, workers);
+				m_importEngine.setListener(this);
+			} else {
+				m_importEngine.setWorkers(workers);
 			}
+			engine = m_importEngine;
+		}
+		engine.addSource(source, prefix);
+		System.out.println("Importando " + sourceImages.size() + " imágenes de " + source.getName());
+		engine.submit(source, sourceImages);
+		for (ImportEngine.SourceQueue queue : engine.getSourceQueues()) {
+			System.out.println(queue);
+		}
+	}
+
+	@Override
+	public void onNewImages(SourcePoller poller, List<SourceImage> images) {
+		String prefix = poller.getSettings().getPrefix();
+		addImages(poller.getSource(), prefix, getPendingImages(poller.getSource(), prefix, images));
+	}
+
+	@Override
+	public void onSourceUnavailable(SourcePoller poller) {
+		// Las fuentes adicionales no dependen del wifi: se sigue esperando
+		System.err.println("No se puede acceder a " + poller.getSource().getName());
+	}
+
+	@Override
+	public synchronized void onImageImported(ImageSource source, SourceImage image, File dest) {
+		m_journal.add(source, image, dest);
+		// Se muestra siempre la imagen más reciente de las importadas
+		if (dest.lastModified() >= m_newestImported) {
+			m_newestImported = dest.lastModified();
+			selectImage(dest);
 		}
 	}
 
+	@Override
+	public void onThumbnailReady(File dest) {
+		addThumb(dest, m_thumbStrip);
+	}
+
+	@Override
+	public void onImportError(ImageSource source, SourceImage image, Exception e) {
+		// No se borra el origen: el temporal se conserva y el siguiente intento continúa la copia
+		source.forget(image);
+		// Si falla la fuente del wifi se revisa la conexión
+		if (source == m_source) m_importingError = true;
+	}
+
 	/**
 	 * Devuelve todas las imágenes que nose han descargado de la tarjeta.
 	 *
-	 * @param sourcefolder Carpeta de origen
+	 * @param source Fuente de las imágenes
+	 * @param prefix Prefijo de las imágenes de la fuente en la carpeta de la cámara
 	 * @return Imágenes nuevas no descargadas o null si tiene algún problema
 	 */
-	private ArrayList<File> getAllImages(File sourcefolder) {
-		boolean found = false;
-		ArrayList<File> jpgs = null;
-		for (int i = 0; i < 10 && !found; i++) {
+	private ArrayList<SourceImage> getAllImages(ImageSource source, String prefix) {
+		List<SourceImage> polled = null;
+		ArrayList<SourceImage> jpgs = null;
+		for (int i = 0; i < 10 && polled == null; i++) {
 			System.out.println("DEBUG: Exists");
-			if (sourcefolder.exists()) {
+			// Sólo se vuelve a listar lo que ha cambiado desde la última vez
+			polled = source.poll();
+			if (polled != null) {
 				System.out.println("DEBUG: FIN Exists");
-				found = true;
 			} else {
 				System.out.println("DEBUG: FIN Exists");
 				System.out.println("Esperando la carpeta origen... " + i);
@@ -326,9 +430,8 @@ public class MainView extends View implements ThumbnailWidgetListener, WifiSDCon
 			}
 		}
 
-		if (found) {
-			jpgs = new ArrayList<>();
-			addImagesRecursively(sourcefolder.listFiles(), jpgs);
+		if (polled != null) {
+			jpgs = getPendingImages(source, prefix, polled);
 		} else {
 			return null;
 		}
@@ -349,36 +452,31 @@ public class MainView extends View implements ThumbnailWidgetListener, WifiSDCon
 		return jpgs;
 	}
 
-	private void addImagesRecursively(File[] f, ArrayList<File> jpgs) {
-		if (f == null) {
-			System.err.println("f es null");
-			//m_importingError = true;
-			return;
-		}
-		for (File file : f) {
-			if (file.isDirectory()) {
-				addImagesRecursively(file.listFiles(), jpgs);
-			} else if (file.isFile() && FileUtils.getExtension(file.getAbsolutePath()).toLowerCase().matches("jpe?g")) {
-				if (!m_importedIages.containsKey(file.getName())) {
-					jpgs.add(file);
-				}
+	/**
+	 * Imágenes de una fuente que todavía no se han importado, según el registro.
+	 */
+	private ArrayList<SourceImage> getPendingImages(ImageSource source, String prefix, List<SourceImage> images) {
+		File cameraFolder = new File(LFMImporter.getConfig().getCameraFolder());
+		ArrayList<SourceImage> pending = new ArrayList<>();
+		for (SourceImage image : images) {
+			if (m_journal.contains(source, image)) {
+				continue;
+			}
+			// Imágenes importadas antes de que existiera el registro: mismo nombre, tamaño y fecha
+			File dest = new File(cameraFolder, prefix + image.getName());
+			if (dest.isFile() && dest.length() == image.getSize() && Math.abs(dest.lastModified() - image.getDate()) <= 2000) {
+				m_journal.add(source, image, dest);
+				continue;
 			}
+			pending.add(image);
 		}
+		return pending;
 	}
 
-
-	private void addThumb(File imgFile, TilePane thumbsPane) {
-		m_importedIages.put(imgFile.getName(), imgFile);
-		System.out.println("DEBUG: Creating ThumbnailW");
-		ThumbnailWidget tw = new ThumbnailWidget(imgFile);
-		System.out.println("DEBUG: FIN Creating ThumbnailW");
-		tw.setListener(this);
+	private void addThumb(File imgFile, ThumbnailStrip thumbStrip) {
 		System.out.println("Añadir imagen " + imgFile.getName());
-		try {
-			thumbsPane.getChildren().add(0, tw);
-		} catch (Exception e) {
-			FXWorker.runSync(FXWorker.JOBTYPE_ADD_TILEPANECHILD, thumbsPane, tw,0);
-		}
+		// Se inserta según su fecha, porque las copias en paralelo no terminan en orden
+		FXWorker.runSync(FXWorker.JOBTYPE_ADD_THUMBSTRIPFILE, thumbStrip, imgFile, -1);
 	}
 
 	/**
@@ -401,17 +499,40 @@ public class MainView extends View implements ThumbnailWidgetListener, WifiSDCon
 		m_wifiConector = null;
 	}
 
-	/** Arranca la impresión */
+	/** Arranca la consulta de las fuentes adicionales */
+	private void startSources() {
+		for (SourceSettings settings : LFMImporter.getConfig().getExtraSources()) {
+			SourcePoller poller = new SourcePoller(settings);
+			poller.setListener(this);
+			m_pollers.add(poller);
+			poller.start();
+		}
+	}
+
+	private void stopSources() {
+		for (SourcePoller poller : m_pollers) {
+			poller.kill();
+		}
+		m_pollers.clear();
+	}
+
+	/** Arranca la impresión (o la reinicia, si ya estaba en marcha) en segundo plano */
 	private void startPrinter() {
-		 if (m_folderprinter != null) {
-			 m_folderprinter.kill();
-		 } else if (m_folderprinter == null || m_folderprinter.isDie()) {
-			 m_folderprinter = new FolderPrinter(new File(LFMImporter.getConfig().getPrinterFolder()));
-		 }
-		 m_folderprinter.start();
+		m_printerControl.execute(() -> {
+			// El anterior tiene que haber terminado (y registrado sus impresiones) antes de revisar la carpeta
+			killPrinter();
+			m_folderprinter = new FolderPrinter(new File(LFMImporter.getConfig().getPrinterFolder()));
+			m_folderprinter.start();
+		});
 	}
 
+	/** Para la impresión en segundo plano */
 	private void stopPrinter() {
+		m_printerControl.execute(this::killPrinter);
+	}
+
+	/** Para la impresión y espera a que termine (desde {@link #m_printerControl}) */
+	private void killPrinter() {
 		if (m_folderprinter != null) {
 			m_folderprinter.kill();
 		}
@@ -420,7 +541,9 @@ public class MainView extends View implements ThumbnailWidgetListener, WifiSDCon
 
 	@Override
 	public void onLoad() {
+		m_journal.load();
 		startWifi(false);
+		startSources();
 		startPrinter();
 	}
 
@@ -430,20 +553,30 @@ public class MainView extends View implements ThumbnailWidgetListener, WifiSDCon
 	public void onStop() {
 		m_die = true;
 		stopWifi();
+		stopSources();
 		stopPrinter();
+		m_printerControl.shutdown();
+		m_printQueue.shutdown();
+		m_journal.close();
 	}
 
 	@Override
 	public void onConfigApply() {
+		// Las máscaras y los perfiles de color pueden haber cambiado
+		MaskCache.clear();
+		ColorTransformCache.clear();
 		// Reiniciamos la impresión para se ejecute con la nueva configuración
-		stopPrinter();
 		startPrinter();
+		// Y la consulta de las fuentes adicionales, por si han cambiado
+		stopSources();
+		startSources();
 
 	}
 
 	@Override
 	public void onSearchThumbSelect(File f) {
 		selectImage(f);
+		prefetchNeighbours(f);
 	}
 
 }
@@ -4,6 +4,7 @@ import java.io.File;
 
 import com.servifot.lfm.lfmimporter.LFMImporter;
 import com.servifot.lfm.lfmimporter.PaneFiller;
+import com.servifot.lfm.lfmimporter.SearchThumbnailGrid;
 import com.servifot.lfm.lfmimporter.SearchThumbnailWidget;
 import com.servifot.lfm.lfmimporter.SearchThumbnailWidget.SearchThumbnailWidgetListener;
 
@@ -12,11 +13,10 @@ import javafx.beans.value.ObservableValue;
 import javafx.event.ActionEvent;
 import javafx.event.EventHandler;
 import javafx.scene.control.Button;
-import javafx.scene.control.ScrollPane;
 import javafx.scene.control.Slider;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.Pane;
-import javafx.scene.layout.TilePane;
+import javafx.scene.layout.Priority;
 import javafx.scene.layout.VBox;
 
 public class SearchView extends View implements SearchThumbnailWidgetListener {
@@ -24,6 +24,7 @@ public class SearchView extends View implements SearchThumbnailWidgetListener {
 
 	private File m_folder = null;
 	private PaneFiller m_panefiller = null;
+	private SearchThumbnailGrid m_grid = null;
 	private SearchViewListener m_listener = null;
 
 
@@ -49,28 +50,22 @@ public class SearchView extends View implements SearchThumbnailWidgetListener {
 		closebutton.setOnAction(new EventHandler<ActionEvent>() {
 			@Override
 			public void handle(ActionEvent event) {
-				if (m_panefiller != null) m_panefiller.kill();
-				emitAddedViewFinished();
+				close();
 			}
 		});
 
 		HBox topbhBox = new HBox(25, sl, closebutton);
 		topbhBox.getStyleClass().add("sv-tophbox");
 
-		TilePane tp = new TilePane();
-		tp.getStyleClass().add("sv-tilepane");
-		tp.setMaxWidth(LFMImporter.SCREEN_WIDTH-50);
-		tp.setPrefWidth(LFMImporter.SCREEN_WIDTH-50);
-		tp.setMinWidth(LFMImporter.SCREEN_WIDTH-50);
+		m_grid = new SearchThumbnailGrid(this);
+		m_grid.getStyleClass().add("sv-scrollpane");
+		m_grid.setMaxWidth(LFMImporter.SCREEN_WIDTH);
+		VBox.setVgrow(m_grid, Priority.ALWAYS);
 
-		ScrollPane sp = new ScrollPane(tp);
-		sp.getStyleClass().add("sv-scrollpane");
-		sp.setMaxWidth(LFMImporter.SCREEN_WIDTH);
-
-		m_panefiller = new PaneFiller(tp, m_folder, this);
+		m_panefiller = new PaneFiller(m_grid, m_folder);
 		m_panefiller.start();
 
-		VBox rootBox = new VBox(25, topbhBox, sp);
+		VBox rootBox = new VBox(25, topbhBox, m_grid);
 		rootBox.getStyleClass().add("sv-rootVbox");
 
 
@@ -78,11 +73,7 @@ public class SearchView extends View implements SearchThumbnailWidgetListener {
 			@Override
 			public void changed(ObservableValue<? extends Number> observable, Number oldValue, Number newValue) {
 				SearchThumbnailWidget.setZoom(newValue.intValue());
-				for (Object n : tp.getChildren()) {
-					if (n instanceof SearchThumbnailWidget) {
-						((SearchThumbnailWidget)n).resize();
-					}
-				}
+				m_grid.updateZoom();
 			}
 		});
 
@@ -105,6 +96,15 @@ public class SearchView extends View implements SearchThumbnailWidgetListener {
 	@Override
 	public void onSearchThumbSelect(File file) {
 		emitThumbSelect(file);
+		close();
+	}
+
+	/**
+	 * Detiene la carga de imágenes y cierra la vista.
+	 */
+	private void close() {
+		if (m_panefiller != null) m_panefiller.kill();
+		if (m_grid != null) m_grid.dispose();
 		emitAddedViewFinished();
 	}
 	